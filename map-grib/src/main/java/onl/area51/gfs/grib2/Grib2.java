@@ -16,6 +16,8 @@
 package onl.area51.gfs.grib2;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
@@ -26,6 +28,8 @@ import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
 import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridMask;
+import onl.area51.mapgen.grid.MappedGrid;
 import ucar.grib.QuasiRegular;
 import ucar.grib.grib2.Grib2BitMapSection;
 import ucar.grib.grib2.Grib2DataRepresentationSection;
@@ -96,7 +100,11 @@ public class Grib2
 
         // not a quasi grid or don't expand Quasi
         if( (gds.getGdsVars().getOlon() == 0) || !expandQuasi ) {
-            return Grid.of( ds.getData(), gds.getGdsVars().getNx(), gds.getGdsVars().getNy() );
+            int nx = gds.getGdsVars().getNx(), ny = gds.getGdsVars().getNy();
+            Grid grid = Grid.of( ds.getData(), nx, ny );
+            // Section 6, if present, marks which points hold data
+            boolean bitmap[] = bms.getBitmap();
+            return bitmap == null ? grid : grid.withMask( GridMask.of( bitmap, nx, ny ) );
         }
         else {
             QuasiRegular qr = new QuasiRegular( ds.getData(), (Object) gds );
@@ -105,6 +113,28 @@ public class Grib2
 
     }
 
+    /**
+     * Get the grid for a record using a file as a cache.
+     * <p>
+     * If the file exists then it is mapped into memory and returned without decoding the record. If not then the record is decoded and written to the
+     * file first. This allows later jobs to reuse a decoded field without holding it on the heap.
+     *
+     * @param record record
+     * @param cache  cache file
+     *
+     * @return MappedGrid
+     *
+     * @throws IOException on failure
+     */
+    public MappedGrid getGrid( Grib2Record record, Path cache )
+            throws IOException
+    {
+        if( Files.exists( cache ) ) {
+            return MappedGrid.open( cache );
+        }
+        return MappedGrid.create( getGrid( record ), cache );
+    }
+
     public final int getEdition()
             throws IOException
     {
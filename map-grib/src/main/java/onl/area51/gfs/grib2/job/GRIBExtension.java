@@ -21,6 +21,7 @@ import onl.area51.gfs.grib2.Grib2;
 import onl.area51.gfs.grib2.Grib2Filters;
 import static onl.area51.gfs.grib2.job.MiscOps.*;
 import onl.area51.gfs.grib2.layer.Grib2Layer;
+import onl.area51.mapgen.grid.MappedGrid;
 import org.kohsuke.MetaInfServices;
 import uk.trainwatch.job.ext.Extension;
 import uk.trainwatch.job.io.FileOp;
@@ -57,6 +58,10 @@ public class GRIBExtension
                     case "openGrib":
                         return ( s, a ) -> new Grib2( MiscOps.getGribFile( args[0], "r", s ) );
 
+                    // grid = openGrid( file );
+                    case "openGrid":
+                        return ( s, a ) -> MappedGrid.open( FileOp.getPath( args[0], s ) );
+
                     // file = retrieveGrib( hourOffset );
                     case "retrieveGrib":
                         return ( s, a ) -> {
@@ -119,6 +124,10 @@ public class GRIBExtension
             case 3:
                 switch( name ) {
 
+                    // grid = cacheGrid( grib2, record, file );
+                    case "cacheGrid":
+                        return ( s, a ) -> getGrib2( args[0], s ).getGrid( getGrib2Record( args[1], s ), FileOp.getPath( args[2], s ) );
+
                     // file = retrieveGrib( dir, hourOffset, force );
                     case "retrieveGrib":
                         return ( s, a ) -> {
@@ -23,12 +23,13 @@ import java.util.function.IntPredicate;
 import java.util.stream.Stream;
 import onl.area51.gfs.grib2.Grib2;
 import onl.area51.gfs.grib2.Grib2MetaData;
-import onl.area51.mapgen.grid.GridSupport;
+import onl.area51.mapgen.grid.GridCellConsumer;
 import onl.area51.mapgen.grid.GridPoint;
+import onl.area51.mapgen.grid.GridPyramid;
+import onl.area51.mapgen.grid.GridTileIndex;
 import onl.area51.mapgen.util.tile.TileReference;
 import onl.area51.mapgen.grid.GridDataPoint;
 import onl.area51.mapgen.renderer.Renderer;
-import uk.trainwatch.gis.Bounds;
 import uk.trainwatch.gis.Coordinate;
 import onl.area51.mapgen.grid.Grid;
 
@@ -50,6 +51,14 @@ public abstract class AbstractGrib2Renderer
      * Difference in latitude between rows
      */
     private final double Δφ;
+    /**
+     * The cells covered by each tile
+     */
+    private final GridTileIndex tileIndex;
+    /**
+     * Reduced copies of the data for low zoom tiles
+     */
+    private final GridPyramid pyramid;
 
     public AbstractGrib2Renderer( Grib2MetaData meta, Grib2 file )
             throws IOException
@@ -69,6 +78,9 @@ public abstract class AbstractGrib2Renderer
 //        Δλ = meta.getColumns() / (bounds.getX() + bounds.getWidth());
 
         Δφ = meta.getRows() / (bounds.getY() - bounds.getHeight());
+
+        tileIndex = GridTileIndex.of( data.getWidth(), data.getHeight(), this::getλ, this::getφ );
+        pyramid = GridPyramid.of( data, GridPyramid.Reduction.MEAN );
     }
 
     protected final double getΔλ()
@@ -131,27 +143,51 @@ public abstract class AbstractGrib2Renderer
         return meta;
     }
 
+    protected final GridTileIndex getTileIndex()
+    {
+        return tileIndex;
+    }
+
     protected IntPredicate getXPredicate( Renderer r )
     {
         TileReference tr = r.getTileReference();
-        Bounds<Coordinate> cBounds = tr.getCoordinateBounds();
-        final double λ1 = normaliseλ( cBounds.getTopLeft().getLongitude() );
-        final double λ2 = normaliseλ( cBounds.getBottomRight().getLongitude() );
-        return GridSupport.betweenPosition( λ1, λ2, this::getλ );
+        return in( tileIndex.getColumns( tr.getZ(), tr.getX() ) );
     }
 
     protected IntPredicate getYPredicate( Renderer r )
     {
         TileReference tr = r.getTileReference();
-        Bounds<Coordinate> cBounds = tr.getCoordinateBounds();
-        final double φ1 = cBounds.getTopLeft().getLatitude();
-        final double φ2 = cBounds.getBottomRight().getLatitude();
-        return GridSupport.between( φ1, φ2, this::getφ );
+        return in( tileIndex.getRows( tr.getZ(), tr.getY() ) );
+    }
+
+    private static IntPredicate in( int[] runs )
+    {
+        return v -> GridTileIndex.contains( runs, v );
     }
 
+    /**
+     * Stream the cells within the current tile. At low zooms these are the means of blocks of cells, from the coarsest level of the data's
+     * {@link GridPyramid} that still has a cell per pixel, each located at the top left cell of its block.
+     *
+     * @param r Renderer
+     *
+     * @return Stream
+     */
     protected final Stream<GridDataPoint> stream( Renderer r )
     {
-        return data.dataStream( r.getZoom(), getXPredicate( r ), getYPredicate( r ) );
+        return tileIndex.dataStream( pyramid, r.getZoom(), r.getTileReference() );
+    }
+
+    /**
+     * Pass each cell within the current tile to a consumer. At low zooms these are reduced the same as
+     * {@link #stream(onl.area51.mapgen.renderer.Renderer)}.
+     *
+     * @param r      Renderer
+     * @param action consumer
+     */
+    protected final void forEachCell( Renderer r, GridCellConsumer action )
+    {
+        tileIndex.forEachCell( pyramid, r.getZoom(), r.getTileReference(), action );
     }
 
     protected final Coordinate getCoordinate( GridPoint p )
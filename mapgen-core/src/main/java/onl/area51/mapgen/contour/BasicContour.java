@@ -22,10 +22,11 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
-import java.util.DoubleSummaryStatistics;
-import java.util.stream.Collectors;
-import onl.area51.mapgen.grid.GridDataPoint;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.DoubleGrid;
 import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridBlockIndex;
+import onl.area51.mapgen.grid.GridStatistics;
 
 /**
  * A basic implementation of {@link Contour}.
@@ -41,10 +42,19 @@ public class BasicContour
     private static final int PLOT_MARGIN = 0;
     private static final int WEE_BIT = 3;
 
-    private static final double Z_MAX_MAX = 1.0E+10,
+    private static final double Z_MAX_MAX = GridStatistics.MISSING_VALUE,
             Z_MIN_MIN = -Z_MAX_MAX;
 
-    private Grid data;
+    /**
+     * Value used in place of NaN or masked cells
+     */
+    private static final double MISSING = 2.0 * Z_MAX_MAX;
+
+    private DenseGrid data;
+
+    // The range of contour levels that can cross an edge within each block of the grid
+    private GridBlockIndex blockIndex;
+    private int blockLevelLo[], blockLevelHi[];
 
     // Below, data members which store the grid steps,
     // the z values, the interpolation flag, the dimensions
@@ -80,6 +90,7 @@ public class BasicContour
     private AffineTransform transform;
     private Stroke stroke;
     private final ContourGraphic g;
+    private final ContourWorkspace workspace = ContourWorkspace.getInstance();
 
     BasicContour( ColorMap cmap )
     {
@@ -348,13 +359,13 @@ public class BasicContour
         }
     }
 
-    private short routine_label_200( boolean workSpace[] )
+    private short routine_label_200( long workSpace[] )
     {
         while( true ) {
             xy[elle] = 1.0 * ij[elle] + intersect[iedge - 1];
             xy[1 - elle] = 1.0 * ij[1 - elle];
-            workSpace[2 * (xSteps * (ySteps * cntrIndex + ij[1] - 1)
-                           + ij[0] - 1) + elle] = true;
+            ContourWorkspace.set( workSpace, 2 * (xSteps * (ySteps * cntrIndex + ij[1] - 1)
+                                                  + ij[0] - 1) + elle );
             drawKernel();
             if( iflag >= 4 ) {
                 icur = ij[0];
@@ -362,8 +373,8 @@ public class BasicContour
                 return 1;
             }
             continueContour();
-            if( !workSpace[2 * (xSteps * (ySteps * cntrIndex
-                                          + ij[1] - 1) + ij[0] - 1) + elle] ) {
+            if( !ContourWorkspace.get( workSpace, 2 * (xSteps * (ySteps * cntrIndex
+                                                                 + ij[1] - 1) + ij[0] - 1) + elle ) ) {
                 return 2;
             }
             iflag = 5;		// 5. Finish a closed contour
@@ -375,19 +386,20 @@ public class BasicContour
         }
     }
 
-    private boolean crossedByContour( boolean workSpace[] )
+    private boolean crossedByContour( long workSpace[] )
     {
         ii = ij[0] + i1[elle];
         jj = ij[1] + i1[1 - elle];
         z1 = data.getValue( ij[0] - 1, ij[1] - 1 );
         z2 = data.getValue( ii - 1, jj - 1 );
-        for( cntrIndex = 0; cntrIndex < ncv; cntrIndex++ ) {
+        int b = ((ij[1] - 1) / blockIndex.getBlockSize() * blockIndex.getBlocksWide()) + ((ij[0] - 1) / blockIndex.getBlockSize());
+        for( cntrIndex = blockLevelLo[b]; cntrIndex <= blockLevelHi[b]; cntrIndex++ ) {
             int i = 2 * (xSteps * (ySteps * cntrIndex + ij[1] - 1) + ij[0] - 1) + elle;
 
-            if( !workSpace[i] ) {
+            if( !ContourWorkspace.get( workSpace, i ) ) {
                 float x = cv[cntrIndex];
                 if( (x > Math.min( z1, z2 )) && (x <= Math.max( z1, z2 )) ) {
-                    workSpace[i] = true;
+                    ContourWorkspace.set( workSpace, i );
                     return true;
                 }
             }
@@ -458,7 +470,7 @@ public class BasicContour
         }
     }
 
-    private void contourPlotKernel( boolean workSpace[] )
+    private void contourPlotKernel( long workSpace[] )
     {
         short val_label_200;
 
@@ -586,9 +598,14 @@ public class BasicContour
                 g1.transform( transform );
                 g1.setStroke( stroke );
 
-                int workLength = 2 * xSteps * ySteps * ncv;
-                boolean workSpace[] = new boolean[workLength];
-                contourPlotKernel( workSpace );
+                // One bit per edge and level, reused across draws
+                long workSpace[] = workspace.acquire( 2L * xSteps * ySteps * ncv );
+                try {
+                    contourPlotKernel( workSpace );
+                }
+                finally {
+                    workspace.release( workSpace );
+                }
             }
             finally {
                 g1.dispose();
@@ -607,13 +624,28 @@ public class BasicContour
     public void setData( Grid data, int x, int y )
             throws IllegalStateException
     {
-        this.data = data;
+        GridStatistics stats = GridStatistics.calculate( data );
+
+        // The kernel reads every cell several times so ensure we have a DenseGrid to work with.
+        // It recognises missing data only by values above Z_MAX_MAX so masked and NaN cells need replacing
+        if( data.getMask() != null || stats.getNaNCount() > 0 ) {
+            DoubleGrid g = DenseGrid.copyOf( data );
+            double a[] = g.array();
+            for( int i = 0; i < a.length; i++ ) {
+                if( a[i] != a[i] ) {
+                    a[i] = MISSING;
+                }
+            }
+            this.data = g;
+        }
+        else {
+            this.data = DenseGrid.of( data );
+        }
         d.width = data.getWidth();
         d.height = data.getHeight();
         xSteps = x;
         ySteps = y;
 
-        DoubleSummaryStatistics stats = data.dataStream().collect( Collectors.summarizingDouble( GridDataPoint::getValue ) );
         zMax = stats.getMax();
         zMin = stats.getMin();
         if( zMax > Z_MAX_MAX ) {
@@ -624,6 +656,37 @@ public class BasicContour
         }
 
         assignContourValues();
+        assignBlockLevels( this.data );
+    }
+
+    /**
+     * Find the range of contour levels which could cross each block so {@link #crossedByContour(long[])} only tests those levels, skipping blocks
+     * that no level crosses.
+     *
+     * @param data
+     */
+    private void assignBlockLevels( Grid data )
+    {
+        // Built afresh as the cached index would be stale if the grid has been changed since it was last contoured
+        blockIndex = GridBlockIndex.create( data, GridBlockIndex.DEFAULT_BLOCK_SIZE );
+        int bw = blockIndex.getBlocksWide(), bh = blockIndex.getBlocksHigh();
+        blockLevelLo = new int[bw * bh];
+        blockLevelHi = new int[bw * bh];
+        for( int by = 0, b = 0; by < bh; by++ ) {
+            for( int bx = 0; bx < bw; bx++, b++ ) {
+                double min = blockIndex.getMin( bx, by ), max = blockIndex.getMax( bx, by );
+                int lo = 0;
+                while( lo < ncv && cv[lo] <= min ) {
+                    lo++;
+                }
+                int hi = ncv - 1;
+                while( hi >= lo && cv[hi] > max ) {
+                    hi--;
+                }
+                blockLevelLo[b] = lo;
+                blockLevelHi[b] = hi;
+            }
+        }
     }
 
     @Override
@@ -105,4 +105,16 @@ public interface Contour
     {
         return new BasicContour( map );
     }
+
+    /**
+     * A contour map which contours the data once into a {@link ContourSet} and then draws that on every call to {@link #draw(java.awt.Graphics2D)}
+     *
+     * @param map colours, the number of levels being its size
+     *
+     * @return contour
+     */
+    static Contour isolines( ColorMap map )
+    {
+        return new IsolineContour( map );
+    }
 }
@@ -93,6 +93,16 @@ public interface ContourGraphic
         };
     }
 
+    /**
+     * A ContourGraphic which transforms every point with a function.
+     * <p>
+     * Each point is boxed and truncated to a whole pixel. To draw contours on a Web Mercator map use {@link ContourProjection} or
+     * {@link ContourTileLayer}, which project whole lines at once and keep the pixels as floating point.
+     *
+     * @param f transform from contour to image coordinates
+     *
+     * @return ContourGraphic
+     */
     static ContourGraphic create( BiFunction<Integer, Integer, Point2D> f )
     {
         return new ContourGraphic()
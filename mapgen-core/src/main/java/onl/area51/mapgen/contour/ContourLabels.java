@@ -0,0 +1,524 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.DoubleFunction;
+import onl.area51.mapgen.renderer.Renderer;
+import onl.area51.mapgen.util.ColorMap;
+import onl.area51.mapgen.util.tile.TileReference;
+
+/**
+ * The labels of a {@link ContourSet} on a Web Mercator map at one zoom.
+ * <p>
+ * Lines are labelled longest first. Labels are spaced along each line, starting from its middle, wherever the line is straight enough over the
+ * width of the label, and are turned to follow the line while staying upright. A label is only placed if its bounds, with a margin, do not overlap a
+ * label already placed, so the longest lines are labelled first and labels never collide.
+ * <p>
+ * Placement and the glyph outlines of each level's text are calculated once, so drawing a tile only fills the outlines already laid out for it. As
+ * Web Mercator pixels scale exactly with zoom, labels placed at one zoom can be drawn at any deeper zoom, only further apart.
+ *
+ * @author peter
+ */
+public final class ContourLabels
+{
+
+    /**
+     * The default font
+     */
+    public static final Font DEFAULT_FONT = new Font( Font.SANS_SERIF, Font.PLAIN, 10 );
+
+    /**
+     * The distance in pixels between labels along a line
+     */
+    public static final double SPACING = 400;
+
+    /**
+     * The space in pixels kept clear around each label
+     */
+    public static final double MARGIN = 4;
+
+    /**
+     * The cell size of the hash used to find colliding labels
+     */
+    private static final int CELL = 64;
+
+    private static final Stroke HALO = new BasicStroke( 2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND );
+
+    private final int zoom;
+    private final String text[];
+    // Outline of each level's text centred on the origin
+    private final Shape outline[];
+    private final int count;
+    private final int level[];
+    private final double x[], y[], angle[];
+    // Half the width and height of each label's bounds
+    private final double ex[], ey[];
+    private final Map<Long, int[]> buckets = new HashMap<>();
+
+    private ContourLabels( ContourProjection projection, int zoom, Font font, DoubleFunction<String> format )
+    {
+        this.zoom = zoom;
+        ContourSet s = projection.getContourSet();
+        int levels = s.getLevelCount();
+
+        FontRenderContext frc = new FontRenderContext( null, true, true );
+        text = new String[levels];
+        outline = new Shape[levels];
+        double w[] = new double[levels], h[] = new double[levels];
+        for( int l = 0; l < levels; l++ ) {
+            text[l] = format.apply( s.getLevel( l ) );
+            GlyphVector gv = font.createGlyphVector( frc, text[l] );
+            Rectangle2D b = gv.getVisualBounds();
+            outline[l] = gv.getOutline( (float) -b.getCenterX(), (float) -b.getCenterY() );
+            w[l] = b.getWidth();
+            h[l] = b.getHeight();
+        }
+
+        Placer p = new Placer( projection, zoom, w, h );
+        p.place();
+        count = p.count;
+        level = Arrays.copyOf( p.level, count );
+        x = Arrays.copyOf( p.x, count );
+        y = Arrays.copyOf( p.y, count );
+        angle = Arrays.copyOf( p.angle, count );
+        ex = Arrays.copyOf( p.ex, count );
+        ey = Arrays.copyOf( p.ey, count );
+
+        int max = (1 << zoom) - 1;
+        for( int i = 0; i < count; i++ ) {
+            for( int ty = tile( y[i] - ey[i], max ), tye = tile( y[i] + ey[i], max ); ty <= tye; ty++ ) {
+                for( int tx = tile( x[i] - ex[i], max ), txe = tile( x[i] + ex[i], max ); tx <= txe; tx++ ) {
+                    ContourTileIndex.add( buckets, ContourTileIndex.key( tx, ty ), i );
+                }
+            }
+        }
+        ContourTileIndex.trim( buckets );
+    }
+
+    /**
+     * Place the labels of a projected contour set
+     *
+     * @param projection projection
+     * @param zoom       zoom, no more than {@link ContourProjection#MAX_CACHED_ZOOM}
+     * @param font       font
+     * @param format     formats each level as the text of its labels
+     *
+     * @return labels
+     */
+    public static ContourLabels of( ContourProjection projection, int zoom, Font font, DoubleFunction<String> format )
+    {
+        Objects.requireNonNull( projection );
+        Objects.requireNonNull( font );
+        Objects.requireNonNull( format );
+        if( zoom < 0 || zoom > ContourProjection.MAX_CACHED_ZOOM ) {
+            throw new IllegalArgumentException( "Zoom must be 0.." + ContourProjection.MAX_CACHED_ZOOM );
+        }
+        return new ContourLabels( projection, zoom, font, format );
+    }
+
+    /**
+     * Format a level with up to two decimal places
+     *
+     * @param v level
+     *
+     * @return text
+     */
+    public static String format( double v )
+    {
+        String s = String.format( "%.2f", v );
+        int e = s.length();
+        while( s.charAt( e - 1 ) == '0' ) {
+            e--;
+        }
+        // The decimal separator depends on the locale
+        if( !Character.isDigit( s.charAt( e - 1 ) ) ) {
+            e--;
+        }
+        return s.substring( 0, e );
+    }
+
+    private static int tile( double v, int max )
+    {
+        return Math.max( 0, Math.min( max, (int) Math.floor( v / Renderer.TILE_SIZE ) ) );
+    }
+
+    /**
+     * The zoom the labels were placed at
+     *
+     * @return zoom
+     */
+    public int getZoom()
+    {
+        return zoom;
+    }
+
+    public int getLabelCount()
+    {
+        return count;
+    }
+
+    public int getLevel( int label )
+    {
+        return level[label];
+    }
+
+    /**
+     * The text of a level's labels
+     *
+     * @param level level
+     *
+     * @return text
+     */
+    public String getText( int level )
+    {
+        return text[level];
+    }
+
+    /**
+     * The outline of a level's text, centred on the origin
+     *
+     * @param level level
+     *
+     * @return outline
+     */
+    public Shape getOutline( int level )
+    {
+        return outline[level];
+    }
+
+    /**
+     * The pixel x of the centre of a label
+     *
+     * @param label label
+     *
+     * @return pixel x at the zoom the labels were placed at
+     */
+    public double getX( int label )
+    {
+        return x[label];
+    }
+
+    /**
+     * The pixel y of the centre of a label
+     *
+     * @param label label
+     *
+     * @return pixel y at the zoom the labels were placed at
+     */
+    public double getY( int label )
+    {
+        return y[label];
+    }
+
+    /**
+     * The angle of a label, clockwise from the x axis
+     *
+     * @param label label
+     *
+     * @return angle in radians, between -π/2 and π/2
+     */
+    public double getAngle( int label )
+    {
+        return angle[label];
+    }
+
+    /**
+     * The bounds of a label, including the margin around it
+     *
+     * @param label label
+     *
+     * @return bounds in pixels at the zoom the labels were placed at
+     */
+    public Rectangle2D getBounds( int label )
+    {
+        return new Rectangle2D.Double( x[label] - ex[label], y[label] - ey[label], ex[label] * 2, ey[label] * 2 );
+    }
+
+    /**
+     * Draw the labels on a tile, level i in colour i+1 of a map. The tile's zoom must be at least the zoom the labels were placed at.
+     *
+     * @param g       Graphics2D in pixels at the tile's zoom
+     * @param tile    tile
+     * @param colours colour map
+     * @param halo    colour drawn around the text, null for none
+     */
+    public void draw( Graphics2D g, TileReference tile, ColorMap colours, Color halo )
+    {
+        int shift = tile.getZ() - zoom;
+        if( shift < 0 ) {
+            throw new IllegalArgumentException( "Tile zoom must be at least " + zoom );
+        }
+        int b[] = buckets.get( ContourTileIndex.key( tile.getX() >> shift, tile.getY() >> shift ) );
+        if( b == null ) {
+            return;
+        }
+
+        double scale = 1L << shift;
+        double minX = (double) tile.getX() * Renderer.TILE_SIZE, minY = (double) tile.getY() * Renderer.TILE_SIZE;
+        double maxX = minX + Renderer.TILE_SIZE, maxY = minY + Renderer.TILE_SIZE;
+        AffineTransform t = g.getTransform();
+        Stroke stroke = g.getStroke();
+        try {
+            for( int i : b ) {
+                double cx = x[i] * scale, cy = y[i] * scale;
+                if( cx + ex[i] < minX || cx - ex[i] > maxX || cy + ey[i] < minY || cy - ey[i] > maxY ) {
+                    continue;
+                }
+                g.translate( cx, cy );
+                g.rotate( angle[i] );
+                Shape o = outline[level[i]];
+                if( halo != null ) {
+                    g.setColor( halo );
+                    g.setStroke( HALO );
+                    g.draw( o );
+                }
+                g.setColor( colours.getColor( level[i] + 1 ) );
+                g.fill( o );
+                g.setTransform( t );
+            }
+        }
+        finally {
+            g.setTransform( t );
+            g.setStroke( stroke );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{zoom=%d, labels=%d}", getClass().getSimpleName(), zoom, count );
+    }
+
+    /**
+     * Places labels along the lines, longest first
+     */
+    private static final class Placer
+    {
+
+        private final ContourSet contourSet;
+        private final int zoom;
+        private final float px[];
+        private final double w[], h[];
+        // Bounds of placed labels by hash cell
+        private final Map<Long, int[]> cells = new HashMap<>();
+        // Distance along the current run of each point
+        private double along[] = new double[64];
+        int count;
+        int level[] = new int[64];
+        double x[] = new double[64], y[] = new double[64], angle[] = new double[64], ex[] = new double[64], ey[] = new double[64];
+
+        Placer( ContourProjection projection, int zoom, double[] w, double[] h )
+        {
+            contourSet = projection.getContourSet();
+            this.zoom = zoom;
+            px = projection.pixels( zoom );
+            this.w = w;
+            this.h = h;
+        }
+
+        void place()
+        {
+            // Sort by length, packed above the line number, lengths being positive so their bits sort as the values do
+            int lines = contourSet.getLineCount();
+            long order[] = new long[lines];
+            int ls[] = contourSet.lines();
+            for( int line = 0; line < lines; line++ ) {
+                double len = 0;
+                for( int p = ls[line] + 1; p < ls[line + 1]; p++ ) {
+                    len += length( p - 1 );
+                }
+                order[line] = ((long) Float.floatToIntBits( (float) len ) << 32) | line;
+            }
+            Arrays.sort( order );
+
+            for( int i = lines - 1; i >= 0; i-- ) {
+                int line = (int) order[i];
+                int l = contourSet.getLineLevel( line );
+                // Runs between breaks at the antimeridian
+                int start = ls[line];
+                for( int p = start + 1; p < ls[line + 1]; p++ ) {
+                    if( ContourTileIndex.isWrapped( px[(p - 1) << 1], px[p << 1], zoom ) ) {
+                        place( start, p, l );
+                        start = p;
+                    }
+                }
+                place( start, ls[line + 1], l );
+            }
+        }
+
+        /**
+         * Length of the segment from a point to the next, 0 if it wraps around the map
+         */
+        private double length( int p )
+        {
+            int i = p << 1;
+            double dx = px[i + 2] - px[i], dy = px[i + 3] - px[i + 1];
+            return Math.abs( dx ) > ContourTileIndex.getWorldSize( zoom ) * 0.5 ? 0 : Math.sqrt( dx * dx + dy * dy );
+        }
+
+        /**
+         * Place labels along a run of points
+         */
+        private void place( int start, int end, int l )
+        {
+            int n = end - start;
+            if( n < 2 ) {
+                return;
+            }
+            double half = w[l] * 0.5 + MARGIN;
+            if( along.length < n ) {
+                along = new double[n];
+            }
+            along[0] = 0;
+            for( int i = 1; i < n; i++ ) {
+                along[i] = along[i - 1] + length( start + i - 1 );
+            }
+            double len = along[n - 1];
+            if( len < half * 2 ) {
+                return;
+            }
+            // From the middle outwards
+            int steps = (int) ((len * 0.5 - half) / SPACING);
+            for( int k = 0; k <= steps * 2; k++ ) {
+                double d = len * 0.5 + ((k & 1) == 0 ? k >> 1 : -((k + 1) >> 1)) * SPACING;
+                tryPlace( start, n, l, d, half );
+            }
+        }
+
+        private void tryPlace( int start, int n, int l, double d, double half )
+        {
+            // The line either side of the centre must be close to the chord
+            int a = find( n, d - half ), b = find( n, d + half );
+            double ax = at( start, a, d - half, 0 ), ay = at( start, a, d - half, 1 );
+            double bx = at( start, b, d + half, 0 ), by = at( start, b, d + half, 1 );
+            double cx = bx - ax, cy = by - ay;
+            double chord = Math.sqrt( cx * cx + cy * cy );
+            if( chord < half * 1.8 ) {
+                return;
+            }
+            for( int i = a + 1; i <= b; i++ ) {
+                int p = (start + i) << 1;
+                double off = Math.abs( (px[p] - ax) * cy - (px[p + 1] - ay) * cx ) / chord;
+                if( off > h[l] * 0.5 ) {
+                    return;
+                }
+            }
+
+            int c = find( n, d );
+            double x0 = at( start, c, d, 0 ), y0 = at( start, c, d, 1 );
+            double θ = Math.atan2( cy, cx );
+            // Keep the text upright
+            if( θ > Math.PI * 0.5 ) {
+                θ -= Math.PI;
+            }
+            else if( θ < -Math.PI * 0.5 ) {
+                θ += Math.PI;
+            }
+            double cos = Math.abs( Math.cos( θ ) ), sin = Math.abs( Math.sin( θ ) );
+            double hh = h[l] * 0.5 + MARGIN;
+            double e0 = half * cos + hh * sin, e1 = half * sin + hh * cos;
+            if( collides( x0, y0, e0, e1 ) ) {
+                return;
+            }
+            add( l, x0, y0, θ, e0, e1 );
+        }
+
+        /**
+         * The segment of the current run containing a distance along it
+         */
+        private int find( int n, double d )
+        {
+            int i = Arrays.binarySearch( along, 0, n, d );
+            if( i < 0 ) {
+                i = -i - 2;
+            }
+            return Math.max( 0, Math.min( n - 2, i ) );
+        }
+
+        /**
+         * A coordinate of the point a distance along the current run within a segment
+         */
+        private double at( int start, int i, double d, int axis )
+        {
+            double l = along[i + 1] - along[i];
+            double t = l > 0 ? Math.max( 0, Math.min( 1, (d - along[i]) / l ) ) : 0;
+            int p = ((start + i) << 1) + axis;
+            return px[p] + t * (px[p + 2] - px[p]);
+        }
+
+        private boolean collides( double cx, double cy, double e0, double e1 )
+        {
+            for( int gy = cell( cy - e1 ), gye = cell( cy + e1 ); gy <= gye; gy++ ) {
+                for( int gx = cell( cx - e0 ), gxe = cell( cx + e0 ); gx <= gxe; gx++ ) {
+                    int b[] = cells.get( ContourTileIndex.key( gx, gy ) );
+                    if( b != null ) {
+                        for( int j = 1; j <= b[0]; j++ ) {
+                            int o = b[j];
+                            if( Math.abs( x[o] - cx ) < ex[o] + e0 && Math.abs( y[o] - cy ) < ey[o] + e1 ) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private int cell( double v )
+        {
+            return (int) Math.floor( v / CELL );
+        }
+
+        private void add( int l, double cx, double cy, double θ, double e0, double e1 )
+        {
+            if( count == level.length ) {
+                int n = count << 1;
+                level = Arrays.copyOf( level, n );
+                x = Arrays.copyOf( x, n );
+                y = Arrays.copyOf( y, n );
+                angle = Arrays.copyOf( angle, n );
+                ex = Arrays.copyOf( ex, n );
+                ey = Arrays.copyOf( ey, n );
+            }
+            level[count] = l;
+            x[count] = cx;
+            y[count] = cy;
+            angle[count] = θ;
+            ex[count] = e0;
+            ey[count] = e1;
+            for( int gy = cell( cy - e1 ), gye = cell( cy + e1 ); gy <= gye; gy++ ) {
+                for( int gx = cell( cx - e0 ), gxe = cell( cx + e0 ); gx <= gxe; gx++ ) {
+                    ContourTileIndex.add( cells, ContourTileIndex.key( gx, gy ), count );
+                }
+            }
+            count++;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.Objects;
+import onl.area51.mapgen.grid.GridGeometry;
+import onl.area51.mapgen.util.ColorMap;
+
+/**
+ * Projects the lines of a {@link ContourSet} from grid coordinates to Web Mercator pixels.
+ * <p>
+ * Points are projected in bulk from one primitive array to another. Points on a horizontal cell edge, about half of them, lie on a row whose latitude
+ * is projected once per call. The projected points of each zoom are cached as floats, which hold pixels to well within a pixel up to
+ * {@link #MAX_CACHED_ZOOM}. Deeper zooms should project only the points they need with {@link ContourTileIndex#getPixelX(double, int)} and
+ * {@link ContourTileIndex#getPixelY(double, int)}.
+ *
+ * @author peter
+ */
+public final class ContourProjection
+{
+
+    /**
+     * The deepest zoom whose projected points are cached. At this zoom a float is accurate to 1/32 pixel.
+     */
+    public static final int MAX_CACHED_ZOOM = 12;
+
+    private static final double LIMIT = Math.sin( Math.toRadians( ContourTileIndex.MAX_LATITUDE ) );
+
+    private final ContourSet contourSet;
+    private final GridGeometry geometry;
+    private final float pixels[][] = new float[MAX_CACHED_ZOOM + 1][];
+
+    private ContourProjection( ContourSet contourSet, GridGeometry geometry )
+    {
+        this.contourSet = contourSet;
+        this.geometry = geometry;
+    }
+
+    /**
+     * Create a projection
+     *
+     * @param contourSet contour set
+     * @param geometry   geometry of the contoured grid
+     *
+     * @return projection
+     *
+     * @throws IllegalArgumentException if the geometry is not the same size as the contoured grid
+     */
+    public static ContourProjection of( ContourSet contourSet, GridGeometry geometry )
+    {
+        Objects.requireNonNull( contourSet );
+        Objects.requireNonNull( geometry );
+        if( geometry.getWidth() != contourSet.getWidth() || geometry.getHeight() != contourSet.getHeight() ) {
+            throw new IllegalArgumentException( "Geometry must be the same size as the contour set" );
+        }
+        return new ContourProjection( contourSet, geometry );
+    }
+
+    public ContourSet getContourSet()
+    {
+        return contourSet;
+    }
+
+    public GridGeometry getGeometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * Project points from grid coordinates to Web Mercator pixels
+     *
+     * @param geometry geometry of the grid
+     * @param src      x,y pairs in grid coordinates
+     * @param srcOff   first point in src
+     * @param dst      x,y pairs in pixels, may be src
+     * @param dstOff   first point in dst
+     * @param n        number of points
+     * @param zoom     zoom
+     */
+    public static void project( GridGeometry geometry, float[] src, int srcOff, float[] dst, int dstOff, int n, int zoom )
+    {
+        double world = ContourTileIndex.getWorldSize( zoom );
+        double λ0 = geometry.getλ0() + 180.0, Δλ = geometry.getΔλ();
+        double φ0 = geometry.getφ0(), Δφ = geometry.getΔφ();
+        double sx = world / 360.0, sy = world / (4.0 * Math.PI), cy = world * 0.5;
+
+        // Mercator of each row, as most points lie on one
+        int h = geometry.getHeight();
+        double rows[] = new double[h];
+        for( int y = 0; y < h; y++ ) {
+            rows[y] = mercator( φ0 + y * Δφ );
+        }
+
+        for( int i = 0; i < n; i++ ) {
+            int s = (srcOff + i) << 1, d = (dstOff + i) << 1;
+            double λ = λ0 + src[s] * Δλ;
+            // Into 0..360 from the antimeridian
+            if( λ < 0.0 || λ >= 360.0 ) {
+                λ -= 360.0 * Math.floor( λ / 360.0 );
+            }
+            float y = src[s + 1];
+            int row = (int) y;
+            double m = row == y && row >= 0 && row < h ? rows[row] : mercator( φ0 + y * Δφ );
+            dst[d] = (float) (λ * sx);
+            dst[d + 1] = (float) (cy - m * sy);
+        }
+    }
+
+    /**
+     * Twice the Web Mercator y of a latitude, in radians
+     */
+    private static double mercator( double φ )
+    {
+        double s = Math.max( -LIMIT, Math.min( LIMIT, Math.sin( Math.toRadians( φ ) ) ) );
+        return Math.log( (1.0 + s) / (1.0 - s) );
+    }
+
+    /**
+     * The projected points at a zoom, for use within this package only
+     *
+     * @param zoom zoom, no more than {@link #MAX_CACHED_ZOOM}
+     *
+     * @return x,y pairs in pixels, not a copy
+     */
+    float[] pixels( int zoom )
+    {
+        if( zoom < 0 || zoom > MAX_CACHED_ZOOM ) {
+            throw new IllegalArgumentException( "Zoom must be 0.." + MAX_CACHED_ZOOM );
+        }
+        synchronized( pixels ) {
+            float p[] = pixels[zoom];
+            if( p == null ) {
+                float xy[] = contourSet.points();
+                p = new float[xy.length];
+                project( geometry, xy, 0, p, 0, xy.length >> 1, zoom );
+                pixels[zoom] = p;
+            }
+            return p;
+        }
+    }
+
+    /**
+     * The pixel x of a point
+     *
+     * @param point point index
+     * @param zoom  zoom
+     *
+     * @return pixel x
+     */
+    public double getX( int point, int zoom )
+    {
+        return zoom > MAX_CACHED_ZOOM
+               ? ContourTileIndex.getPixelX( geometry.getλ( contourSet.points()[point << 1] ), zoom )
+               : pixels( zoom )[point << 1];
+    }
+
+    /**
+     * The pixel y of a point
+     *
+     * @param point point index
+     * @param zoom  zoom
+     *
+     * @return pixel y
+     */
+    public double getY( int point, int zoom )
+    {
+        return zoom > MAX_CACHED_ZOOM
+               ? ContourTileIndex.getPixelY( geometry.getφ( contourSet.points()[(point << 1) + 1] ), zoom )
+               : pixels( zoom )[(point << 1) + 1];
+    }
+
+    /**
+     * The lines of a level as a path in pixels. Segments crossing the antimeridian are split into a part running to one edge of the map and a part
+     * from the opposite edge.
+     *
+     * @param level level
+     * @param zoom  zoom, no more than {@link #MAX_CACHED_ZOOM}
+     *
+     * @return path
+     */
+    public Path2D.Float toPath( int level, int zoom )
+    {
+        float p[] = pixels( zoom );
+        int ls[] = contourSet.lines();
+        Path2D.Float path = new Path2D.Float();
+        for( int line = contourSet.getFirstLine( level ), le = contourSet.getEndLine( level ); line < le; line++ ) {
+            int i = ls[line] << 1;
+            path.moveTo( p[i], p[i + 1] );
+            for( i += 2; i < ls[line + 1] << 1; i += 2 ) {
+                if( ContourTileIndex.isWrapped( p[i - 2], p[i], zoom ) ) {
+                    double ex = ContourTileIndex.getEdgeX( p[i - 2], p[i], zoom );
+                    double ey = ContourTileIndex.getCrossingY( p[i - 2], p[i - 1], p[i], p[i + 1], zoom );
+                    path.lineTo( ex, ey );
+                    path.moveTo( ContourTileIndex.getWorldSize( zoom ) - ex, ey );
+                }
+                path.lineTo( p[i], p[i + 1] );
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Draw every level, level i in colour i+1 of a map as {@link IsolineContour} does. The graphics are in pixels at the zoom.
+     *
+     * @param g       Graphics2D
+     * @param colours colour map
+     * @param zoom    zoom, no more than {@link #MAX_CACHED_ZOOM}
+     */
+    public void draw( Graphics2D g, ColorMap colours, int zoom )
+    {
+        for( int level = 0, lc = contourSet.getLevelCount(); level < lc; level++ ) {
+            if( contourSet.getEndLine( level ) > contourSet.getFirstLine( level ) ) {
+                g.setColor( colours.getColor( level + 1 ) );
+                g.draw( toPath( level, zoom ) );
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{contourSet=%s, geometry=%s}", getClass().getSimpleName(), contourSet, geometry );
+    }
+}
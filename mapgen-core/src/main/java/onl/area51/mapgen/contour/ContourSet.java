@@ -0,0 +1,448 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridStatistics;
+
+/**
+ * An immutable set of contour lines (isolines) of a grid.
+ * <p>
+ * The lines are in grid coordinates, so the centre of cell (x,y) is at (x,y), and are stored packed into a single float array with offsets to the
+ * start of each line and to the first line of each level. A grid is contoured once into a set which can then be drawn, labelled or exported any
+ * number of times.
+ * <p>
+ * Lines are oriented so values at or above the level are on the left. A closed line's last point is the same as its first.
+ *
+ * @author peter
+ */
+public final class ContourSet
+{
+
+    private static final int MAX_SIMPLIFIED = 32;
+
+    private final int width, height;
+    private final double levels[];
+    // First line of each level, length levels+1
+    private final int levelStart[];
+    // First point of each line, length lines+1
+    private final int lineStart[];
+    // x,y of each point
+    private final float xy[];
+    // Simplified copies by tolerance
+    private final Map<Double, ContourSet> simplified = Collections.synchronizedMap( new LinkedHashMap<Double, ContourSet>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Double, ContourSet> eldest )
+        {
+            return size() > MAX_SIMPLIFIED;
+        }
+    } );
+
+    ContourSet( int width, int height, double[] levels, int[] levelStart, int[] lineStart, float[] xy )
+    {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.levelStart = levelStart;
+        this.lineStart = lineStart;
+        this.xy = xy;
+    }
+
+    /**
+     * Contour a grid using the common pool
+     *
+     * @param grid   grid
+     * @param levels contour levels
+     *
+     * @return contour set
+     */
+    public static ContourSet of( Grid grid, double... levels )
+    {
+        return of( grid, ForkJoinPool.commonPool(), levels );
+    }
+
+    /**
+     * Contour a grid, splitting large grids into bands of rows which are contoured in parallel
+     *
+     * @param grid   grid
+     * @param pool   pool to run in
+     * @param levels contour levels
+     *
+     * @return contour set
+     */
+    public static ContourSet of( Grid grid, ForkJoinPool pool, double... levels )
+    {
+        Objects.requireNonNull( grid );
+        Objects.requireNonNull( pool );
+        Objects.requireNonNull( levels );
+        return MarchingSquares.contour( grid, levels.clone(), pool );
+    }
+
+    /**
+     * Contour a grid with levels evenly spaced across its range, the same levels {@link Contour#basic(onl.area51.mapgen.util.ColorMap)} uses
+     *
+     * @param grid  grid
+     * @param count number of levels
+     *
+     * @return contour set
+     */
+    public static ContourSet of( Grid grid, int count )
+    {
+        GridStatistics stats = GridStatistics.calculate( grid );
+        return MarchingSquares.contour( grid, levels( stats.getMin(), stats.getMax(), count, false ) );
+    }
+
+    /**
+     * Levels evenly spaced between two values. Min is not included whilst max is the last level.
+     *
+     * @param min   minimum value
+     * @param max   maximum value
+     * @param count number of levels
+     * @param log   true to space the levels logarithmically
+     *
+     * @return levels
+     *
+     * @throws IllegalArgumentException if log is true and min is not positive
+     */
+    public static double[] levels( double min, double max, int count, boolean log )
+    {
+        if( count < 1 ) {
+            throw new IllegalArgumentException( "Count must be >=1" );
+        }
+        double l[] = new double[count];
+        if( log ) {
+            if( min <= 0.0 ) {
+                throw new IllegalArgumentException( "Min must be > 0 for log levels" );
+            }
+            double lmin = Math.log( min );
+            double delta = (Math.log( max ) - lmin) / count;
+            for( int i = 0; i < count; i++ ) {
+                l[i] = (float) Math.exp( lmin + (i + 1) * delta );
+            }
+        }
+        else {
+            double delta = (max - min) / count;
+            for( int i = 0; i < count; i++ ) {
+                // Rounded to float to match BasicContour
+                l[i] = (float) (min + (i + 1) * delta);
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Width of the contoured grid
+     *
+     * @return width
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Height of the contoured grid
+     *
+     * @return height
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getLevelCount()
+    {
+        return levels.length;
+    }
+
+    public double getLevel( int level )
+    {
+        return levels[level];
+    }
+
+    /**
+     * The levels of this set
+     *
+     * @return copy of the levels
+     */
+    public double[] getLevels()
+    {
+        return levels.clone();
+    }
+
+    /**
+     * Total number of lines
+     *
+     * @return line count
+     */
+    public int getLineCount()
+    {
+        return lineStart.length - 1;
+    }
+
+    /**
+     * Total number of points in all lines
+     *
+     * @return point count
+     */
+    public int getPointCount()
+    {
+        return xy.length >> 1;
+    }
+
+    /**
+     * The first line of a level. The lines of a level are numbered from this to {@link #getEndLine(int)}
+     *
+     * @param level level
+     *
+     * @return line
+     */
+    public int getFirstLine( int level )
+    {
+        return levelStart[level];
+    }
+
+    /**
+     * The end, exclusive, of the lines of a level
+     *
+     * @param level level
+     *
+     * @return line
+     */
+    public int getEndLine( int level )
+    {
+        return levelStart[level + 1];
+    }
+
+    /**
+     * The level a line belongs to
+     *
+     * @param line line
+     *
+     * @return level
+     */
+    public int getLineLevel( int line )
+    {
+        // The last level starting at or before the line, so skipping empty levels
+        int lo = 0, hi = levels.length - 1;
+        while( lo < hi ) {
+            int mid = (lo + hi + 1) >>> 1;
+            if( levelStart[mid] <= line ) {
+                lo = mid;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Number of points in a line
+     *
+     * @param line line
+     *
+     * @return point count
+     */
+    public int getPointCount( int line )
+    {
+        return lineStart[line + 1] - lineStart[line];
+    }
+
+    public float getX( int line, int point )
+    {
+        return xy[(lineStart[line] + point) << 1];
+    }
+
+    public float getY( int line, int point )
+    {
+        return xy[((lineStart[line] + point) << 1) + 1];
+    }
+
+    /**
+     * Is a line closed
+     *
+     * @param line line
+     *
+     * @return true if the first and last points are the same
+     */
+    public boolean isClosed( int line )
+    {
+        int s = lineStart[line] << 1, e = (lineStart[line + 1] - 1) << 1;
+        return e > s && xy[s] == xy[e] && xy[s + 1] == xy[e + 1];
+    }
+
+    /**
+     * The coordinates of a line
+     *
+     * @param line line
+     *
+     * @return x,y pairs
+     */
+    public float[] getCoordinates( int line )
+    {
+        return Arrays.copyOfRange( xy, lineStart[line] << 1, lineStart[line + 1] << 1 );
+    }
+
+    /**
+     * The lines of a level as a path in grid coordinates
+     *
+     * @param level level
+     *
+     * @return path
+     */
+    public Path2D.Float toPath( int level )
+    {
+        Path2D.Float p = new Path2D.Float( Path2D.WIND_NON_ZERO, (levelStart[level + 1] - levelStart[level]) * 8 );
+        for( int l = levelStart[level], le = levelStart[level + 1]; l < le; l++ ) {
+            int i = lineStart[l] << 1, e = lineStart[l + 1] << 1;
+            p.moveTo( xy[i], xy[i + 1] );
+            for( i += 2; i < e; i += 2 ) {
+                p.lineTo( xy[i], xy[i + 1] );
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Simplify the lines so that no point removed is further than a tolerance from the simplified line, using the Douglas-Peucker algorithm. Closed
+     * lines which collapse are dropped.
+     * <p>
+     * The result is cached against this set for each tolerance.
+     *
+     * @param tolerance tolerance in grid units
+     *
+     * @return simplified set, this set if the tolerance is 0
+     */
+    public ContourSet simplify( double tolerance )
+    {
+        if( !(tolerance >= 0.0) ) {
+            throw new IllegalArgumentException( "Tolerance must be >=0" );
+        }
+        if( tolerance == 0.0 ) {
+            return this;
+        }
+        ContourSet s = simplified.get( tolerance );
+        if( s == null ) {
+            // Calculate outside of the lock, a duplicate calculation is harmless
+            s = DouglasPeucker.simplify( this, tolerance );
+            ContourSet e = simplified.putIfAbsent( tolerance, s );
+            if( e != null ) {
+                s = e;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Packed points, for use within this package only
+     *
+     * @return the points, not a copy
+     */
+    float[] points()
+    {
+        return xy;
+    }
+
+    /**
+     * Start of each line, for use within this package only
+     *
+     * @return the line offsets, not a copy
+     */
+    int[] lines()
+    {
+        return lineStart;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{width=%d, height=%d, levels=%d, lines=%d, points=%d}",
+                              getClass().getSimpleName(), width, height, levels.length, getLineCount(), getPointCount() );
+    }
+
+    /**
+     * Accumulates lines into a set
+     */
+    static final class Builder
+    {
+
+        private final int width, height;
+        private final double levels[];
+        private final int levelStart[];
+        private int lineStart[] = new int[64];
+        private float xy[] = new float[1024];
+        private int lines, points, level;
+
+        Builder( int width, int height, double[] levels )
+        {
+            this.width = width;
+            this.height = height;
+            this.levels = levels;
+            levelStart = new int[levels.length + 1];
+        }
+
+        /**
+         * Start the next line
+         */
+        void startLine()
+        {
+            if( lines + 2 > lineStart.length ) {
+                lineStart = Arrays.copyOf( lineStart, lineStart.length << 1 );
+            }
+            lineStart[lines++] = points;
+        }
+
+        void add( float x, float y )
+        {
+            int i = points << 1;
+            if( i + 2 > xy.length ) {
+                xy = Arrays.copyOf( xy, xy.length << 1 );
+            }
+            xy[i] = x;
+            xy[i + 1] = y;
+            points++;
+        }
+
+        /**
+         * Finish the lines of the current level
+         */
+        void endLevel()
+        {
+            levelStart[++level] = lines;
+        }
+
+        ContourSet build()
+        {
+            while( level < levels.length ) {
+                endLevel();
+            }
+            int ls[] = Arrays.copyOf( lineStart, lines + 1 );
+            ls[lines] = points;
+            return new ContourSet( width, height, levels, levelStart, ls, Arrays.copyOf( xy, points << 1 ) );
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import onl.area51.mapgen.grid.GridGeometry;
+import onl.area51.mapgen.renderer.Renderer;
+import onl.area51.mapgen.util.tile.TileReference;
+
+/**
+ * An index from Web Mercator map tiles to the segments of a {@link ContourSet} crossing them.
+ * <p>
+ * The contour set is in grid coordinates, the {@link GridGeometry} placing each column and row at a longitude and latitude. A segment is identified by
+ * the index of its first point, the segment running from that point to the next. For each zoom level every segment is placed in a bucket for each tile
+ * its bounds overlap, so a tile only visits the segments near it and drawing costs time in proportion to the contour visible.
+ * <p>
+ * Buckets are built for a zoom the first time it is used, up to the index zoom at which a tile covers about one grid cell. Deeper zooms use the
+ * bucket of the tile containing them at the index zoom, so memory stays bounded however far the map is zoomed in.
+ * <p>
+ * Each zoom uses the contour set simplified to within {@link #TOLERANCE} pixels at that zoom, so low zooms do not draw thousands of segments smaller
+ * than a pixel. Segment indices refer to the points of {@link #getContourSet(int)} for the zoom.
+ *
+ * @author peter
+ */
+public final class ContourTileIndex
+{
+
+    /**
+     * The highest zoom an index is built for
+     */
+    public static final int MAX_INDEX_ZOOM = 18;
+
+    /**
+     * The latitude limit of Web Mercator
+     */
+    public static final double MAX_LATITUDE = 85.0511287798066;
+
+    /**
+     * The distance in pixels a simplified line may be from the original
+     */
+    public static final double TOLERANCE = 0.5;
+
+    private static final int TILE_SIZE = Renderer.TILE_SIZE;
+
+    private final ContourSet contourSet;
+    private final GridGeometry geometry;
+    private final int indexZoom;
+    private final Map<Long, int[]> buckets[];
+    private final ContourProjection projections[];
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private ContourTileIndex( ContourSet contourSet, GridGeometry geometry )
+    {
+        this.contourSet = contourSet;
+        this.geometry = geometry;
+        // The zoom at which a cell is about the width of a tile
+        int z = (int) Math.floor( Math.log( 360.0 / Math.abs( geometry.getΔλ() ) ) / Math.log( 2.0 ) );
+        indexZoom = Math.max( 0, Math.min( MAX_INDEX_ZOOM, z ) );
+        buckets = new Map[indexZoom + 1];
+        projections = new ContourProjection[indexZoom + 1];
+    }
+
+    /**
+     * Create an index
+     *
+     * @param contourSet contour set
+     * @param geometry   geometry of the contoured grid
+     *
+     * @return index
+     *
+     * @throws IllegalArgumentException if the geometry is not the same size as the contoured grid
+     */
+    public static ContourTileIndex of( ContourSet contourSet, GridGeometry geometry )
+    {
+        Objects.requireNonNull( contourSet );
+        Objects.requireNonNull( geometry );
+        if( geometry.getWidth() != contourSet.getWidth() || geometry.getHeight() != contourSet.getHeight() ) {
+            throw new IllegalArgumentException( "Geometry must be the same size as the contour set" );
+        }
+        return new ContourTileIndex( contourSet, geometry );
+    }
+
+    /**
+     * The full resolution contour set
+     *
+     * @return contour set
+     */
+    public ContourSet getContourSet()
+    {
+        return contourSet;
+    }
+
+    /**
+     * The contour set drawn at a zoom, simplified to within {@link #TOLERANCE} pixels
+     *
+     * @param zoom zoom
+     *
+     * @return contour set
+     */
+    public ContourSet getContourSet( int zoom )
+    {
+        return contourSet.simplify( getTolerance( zoom ) );
+    }
+
+    /**
+     * The projection of {@link #getContourSet(int)} for a zoom
+     *
+     * @param zoom zoom
+     *
+     * @return projection
+     */
+    public ContourProjection getProjection( int zoom )
+    {
+        int z = Math.min( zoom, indexZoom );
+        synchronized( projections ) {
+            if( projections[z] == null ) {
+                projections[z] = ContourProjection.of( getContourSet( z ), geometry );
+            }
+            return projections[z];
+        }
+    }
+
+    /**
+     * The simplification tolerance at a zoom in grid units. Zooms beyond the index zoom use the tolerance of the index zoom.
+     * <p>
+     * This is taken from the most pixels a cell covers on either axis anywhere on the grid. Web Mercator x is linear in longitude but y is stretched by
+     * sec φ, so the height of a cell in pixels is greatest at the row furthest from the equator, up to {@link #MAX_LATITUDE} beyond which the map is
+     * cut off.
+     *
+     * @param zoom zoom
+     *
+     * @return tolerance
+     */
+    public double getTolerance( int zoom )
+    {
+        double world = getWorldSize( Math.min( zoom, indexZoom ) );
+        double φ = Math.max( Math.abs( geometry.getφ( 0 ) ), Math.abs( geometry.getφ( geometry.getHeight() - 1 ) ) );
+        double cellWidth = world * Math.abs( geometry.getΔλ() ) / 360.0;
+        double cellHeight = world * Math.abs( geometry.getΔφ() ) / 360.0 / Math.cos( Math.toRadians( Math.min( φ, MAX_LATITUDE ) ) );
+        return TOLERANCE / Math.max( cellWidth, cellHeight );
+    }
+
+    public GridGeometry getGeometry()
+    {
+        return geometry;
+    }
+
+    /**
+     * The deepest zoom with its own buckets
+     *
+     * @return zoom
+     */
+    public int getIndexZoom()
+    {
+        return indexZoom;
+    }
+
+    /**
+     * The width and height of the world in pixels at a zoom
+     *
+     * @param zoom zoom
+     *
+     * @return size in pixels
+     */
+    public static double getWorldSize( int zoom )
+    {
+        return (double) TILE_SIZE * (1L << zoom);
+    }
+
+    /**
+     * The Web Mercator pixel x of a longitude
+     *
+     * @param λ    longitude
+     * @param zoom zoom
+     *
+     * @return pixel x
+     */
+    public static double getPixelX( double λ, int zoom )
+    {
+        return (TileReference.fix( λ ) + 180.0) / 360.0 * getWorldSize( zoom );
+    }
+
+    /**
+     * The Web Mercator pixel y of a latitude, latitudes beyond {@link #MAX_LATITUDE} being at the edge of the map
+     *
+     * @param φ    latitude
+     * @param zoom zoom
+     *
+     * @return pixel y
+     */
+    public static double getPixelY( double φ, int zoom )
+    {
+        double r = Math.toRadians( Math.max( -MAX_LATITUDE, Math.min( MAX_LATITUDE, φ ) ) );
+        return (1.0 - Math.log( Math.tan( r ) + 1.0 / Math.cos( r ) ) / Math.PI) / 2.0 * getWorldSize( zoom );
+    }
+
+    /**
+     * The pixel x of a point of the contour set for a zoom
+     *
+     * @param point point index
+     * @param zoom  zoom
+     *
+     * @return pixel x
+     */
+    public double getPointX( int point, int zoom )
+    {
+        return getProjection( zoom ).getX( point, zoom );
+    }
+
+    /**
+     * The pixel y of a point of the contour set for a zoom
+     *
+     * @param point point index
+     * @param zoom  zoom
+     *
+     * @return pixel y
+     */
+    public double getPointY( int point, int zoom )
+    {
+        return getProjection( zoom ).getY( point, zoom );
+    }
+
+    /**
+     * Does a segment cross the antimeridian. Such a segment would otherwise span the whole map, so it is split into the part running to one edge of the
+     * map, ending at {@link #getEdgeX(double, double, int)}, and the part from the opposite edge, both meeting the edge at
+     * {@link #getCrossingY(double, double, double, double, int)}.
+     *
+     * @param x0   pixel x of the first point
+     * @param x1   pixel x of the second point
+     * @param zoom zoom
+     *
+     * @return true if the segment wraps around the map
+     */
+    static boolean isWrapped( double x0, double x1, int zoom )
+    {
+        return Math.abs( x1 - x0 ) > getWorldSize( zoom ) * 0.5;
+    }
+
+    /**
+     * The pixel x of the edge of the map at which the first part of a segment crossing the antimeridian ends. The second part starts at the opposite
+     * edge, the world size minus this.
+     *
+     * @param x0   pixel x of the first point
+     * @param x1   pixel x of the second point
+     * @param zoom zoom
+     *
+     * @return the world size if the segment leaves the map eastwards, 0 if westwards
+     */
+    static double getEdgeX( double x0, double x1, int zoom )
+    {
+        return x0 > x1 ? getWorldSize( zoom ) : 0.0;
+    }
+
+    /**
+     * The pixel y at which a segment crosses the antimeridian
+     *
+     * @param x0   pixel x of the first point
+     * @param y0   pixel y of the first point
+     * @param x1   pixel x of the second point
+     * @param y1   pixel y of the second point
+     * @param zoom zoom
+     *
+     * @return pixel y
+     */
+    static double getCrossingY( double x0, double y0, double x1, double y1, int zoom )
+    {
+        double world = getWorldSize( zoom );
+        // Move the second point next to the first, across the edge
+        double edge = getEdgeX( x0, x1, zoom ), x = x0 > x1 ? x1 + world : x1 - world;
+        return y0 + (y1 - y0) * (edge - x0) / (x - x0);
+    }
+
+    /**
+     * Call an action with every segment in the bucket of a tile, in ascending order. Segments index the points of {@link #getContourSet(int)} for the
+     * tile's zoom.
+     * <p>
+     * Below the index zoom only segments whose bounds overlap the tile are passed. Beyond it the bucket is that of the containing tile at the index
+     * zoom, so the caller may need to test each segment against the tile.
+     *
+     * @param tile   tile
+     * @param action receives the index of the first point of each segment
+     */
+    public void forEachSegment( TileReference tile, IntConsumer action )
+    {
+        int z = tile.getZ();
+        int zi = Math.min( z, indexZoom ), shift = z - zi;
+        int b[] = getBuckets( zi ).get( key( tile.getX() >> shift, tile.getY() >> shift ) );
+        if( b != null ) {
+            for( int s : b ) {
+                action.accept( s );
+            }
+        }
+    }
+
+    /**
+     * The number of segments in the bucket of a tile
+     *
+     * @param tile tile
+     *
+     * @return number of segments
+     */
+    public int getSegmentCount( TileReference tile )
+    {
+        int z = tile.getZ();
+        int zi = Math.min( z, indexZoom ), shift = z - zi;
+        int b[] = getBuckets( zi ).get( key( tile.getX() >> shift, tile.getY() >> shift ) );
+        return b == null ? 0 : b.length;
+    }
+
+    static long key( int x, int y )
+    {
+        return ((long) y << 32) | (x & 0xffffffffL);
+    }
+
+    private synchronized Map<Long, int[]> getBuckets( int zoom )
+    {
+        Map<Long, int[]> m = buckets[zoom];
+        if( m == null ) {
+            m = build( zoom );
+            buckets[zoom] = m;
+        }
+        return m;
+    }
+
+    private Map<Long, int[]> build( int zoom )
+    {
+        Map<Long, int[]> m = new HashMap<>();
+        int max = (1 << zoom) - 1;
+        ContourProjection pr = getProjection( zoom );
+        ContourSet s = pr.getContourSet();
+        float px[] = zoom <= ContourProjection.MAX_CACHED_ZOOM ? pr.pixels( zoom ) : null;
+        int ls[] = s.lines();
+        for( int line = 0, lc = s.getLineCount(); line < lc; line++ ) {
+            int p0 = ls[line];
+            double x0 = px == null ? pr.getX( p0, zoom ) : px[p0 << 1], y0 = px == null ? pr.getY( p0, zoom ) : px[(p0 << 1) + 1];
+            for( int p = p0 + 1, pe = ls[line + 1]; p < pe; p++ ) {
+                double x1 = px == null ? pr.getX( p, zoom ) : px[p << 1], y1 = px == null ? pr.getY( p, zoom ) : px[(p << 1) + 1];
+                if( isWrapped( x0, x1, zoom ) ) {
+                    // Index both parts, either side of the antimeridian
+                    double ex = getEdgeX( x0, x1, zoom ), ey = getCrossingY( x0, y0, x1, y1, zoom );
+                    add( m, x0, y0, ex, ey, max, p - 1 );
+                    add( m, getWorldSize( zoom ) - ex, ey, x1, y1, max, p - 1 );
+                }
+                else {
+                    add( m, x0, y0, x1, y1, max, p - 1 );
+                }
+                x0 = x1;
+                y0 = y1;
+            }
+        }
+        return trim( m );
+    }
+
+    /**
+     * Trim the buckets filled by {@link #add(java.util.Map, long, int)} to their contents
+     *
+     * @param m buckets
+     *
+     * @return m
+     */
+    static Map<Long, int[]> trim( Map<Long, int[]> m )
+    {
+        m.replaceAll( ( k, b ) -> Arrays.copyOfRange( b, 1, b[0] + 1 ) );
+        return m;
+    }
+
+    /**
+     * Add a segment to the bucket of every tile its bounds overlap
+     */
+    private static void add( Map<Long, int[]> m, double x0, double y0, double x1, double y1, int max, int segment )
+    {
+        int tx0 = tile( Math.min( x0, x1 ), max ), tx1 = tile( Math.max( x0, x1 ), max );
+        int ty0 = tile( Math.min( y0, y1 ), max ), ty1 = tile( Math.max( y0, y1 ), max );
+        for( int ty = ty0; ty <= ty1; ty++ ) {
+            for( int tx = tx0; tx <= tx1; tx++ ) {
+                add( m, key( tx, ty ), segment );
+            }
+        }
+    }
+
+    private static int tile( double v, int max )
+    {
+        return Math.max( 0, Math.min( max, (int) Math.floor( v / TILE_SIZE ) ) );
+    }
+
+    /**
+     * Add a value to a bucket, element 0 of which holds the count until trimmed
+     */
+    static void add( Map<Long, int[]> m, long key, int segment )
+    {
+        int b[] = m.get( key );
+        if( b == null || b[0] + 1 == b.length ) {
+            b = b == null ? new int[8] : Arrays.copyOf( b, b.length << 1 );
+            m.put( key, b );
+        }
+        b[++b[0]] = segment;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{contourSet=%s, geometry=%s, indexZoom=%d}", getClass().getSimpleName(), contourSet, geometry, indexZoom );
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.DoubleFunction;
+import java.util.function.IntConsumer;
+import onl.area51.mapgen.grid.GridGeometry;
+import onl.area51.mapgen.layer.AbstractLayer;
+import onl.area51.mapgen.renderer.Renderer;
+import onl.area51.mapgen.util.ColorMap;
+import onl.area51.mapgen.util.tile.TileReference;
+
+/**
+ * A map layer drawing a {@link ContourSet} tile by tile on a Web Mercator map.
+ * <p>
+ * Unlike {@link ContourLayer}, which draws the whole contour once for the visible area, each tile draws only the segments a {@link ContourTileIndex}
+ * holds for it, so panning and seeding tiles cost time in proportion to the contour within them. Level i is drawn in colour i+1 of the map, as
+ * {@link IsolineContour} does. Lines are simplified to within half a pixel at each zoom.
+ * <p>
+ * Labels, when shown, are placed by {@link ContourLabels} once for each zoom up to the index zoom and cached. Deeper zooms draw the labels of the
+ * index zoom.
+ *
+ * @author peter
+ */
+public class ContourTileLayer
+        extends AbstractLayer
+{
+
+    private final ContourTileIndex index;
+    private final ColorMap colours;
+    private final ContourLabels labels[];
+    private boolean showLabels;
+    private Font font = ContourLabels.DEFAULT_FONT;
+    private DoubleFunction<String> format = ContourLabels::format;
+    private Color halo = Color.WHITE;
+
+    public ContourTileLayer( ContourSet contourSet, GridGeometry geometry, ColorMap colours, String name )
+    {
+        this( ContourTileIndex.of( contourSet, geometry ), colours, name, true );
+    }
+
+    public ContourTileLayer( ContourTileIndex index, ColorMap colours, String name, boolean enabled )
+    {
+        super( name, enabled );
+        this.index = Objects.requireNonNull( index );
+        this.colours = Objects.requireNonNull( colours );
+        labels = new ContourLabels[Math.min( index.getIndexZoom(), ContourProjection.MAX_CACHED_ZOOM ) + 1];
+    }
+
+    public ContourTileIndex getIndex()
+    {
+        return index;
+    }
+
+    public ColorMap getColours()
+    {
+        return colours;
+    }
+
+    public boolean isShowLabels()
+    {
+        return showLabels;
+    }
+
+    /**
+     * Show the level of each line in labels along it
+     *
+     * @param showLabels true to show labels
+     *
+     * @return this layer
+     */
+    public ContourTileLayer setShowLabels( boolean showLabels )
+    {
+        this.showLabels = showLabels;
+        return this;
+    }
+
+    public Font getFont()
+    {
+        return font;
+    }
+
+    /**
+     * Set the font of the labels
+     *
+     * @param font font
+     *
+     * @return this layer
+     */
+    public ContourTileLayer setFont( Font font )
+    {
+        this.font = Objects.requireNonNull( font );
+        clearLabels();
+        return this;
+    }
+
+    /**
+     * Set how a level is formatted as the text of its labels
+     *
+     * @param format formats a level
+     *
+     * @return this layer
+     */
+    public ContourTileLayer setFormat( DoubleFunction<String> format )
+    {
+        this.format = Objects.requireNonNull( format );
+        clearLabels();
+        return this;
+    }
+
+    public Color getHalo()
+    {
+        return halo;
+    }
+
+    /**
+     * Set the colour drawn around the text of labels so they stand out from the map
+     *
+     * @param halo colour, null for none
+     *
+     * @return this layer
+     */
+    public ContourTileLayer setHalo( Color halo )
+    {
+        this.halo = halo;
+        return this;
+    }
+
+    /**
+     * The labels drawn at a zoom. These are placed the first time the zoom is drawn, zooms beyond the index zoom using the labels of the index zoom.
+     *
+     * @param zoom zoom
+     *
+     * @return labels
+     */
+    public ContourLabels getLabels( int zoom )
+    {
+        int z = Math.min( zoom, labels.length - 1 );
+        synchronized( labels ) {
+            if( labels[z] == null ) {
+                labels[z] = ContourLabels.of( index.getProjection( z ), z, font, format );
+            }
+            return labels[z];
+        }
+    }
+
+    private void clearLabels()
+    {
+        synchronized( labels ) {
+            Arrays.fill( labels, null );
+        }
+    }
+
+    /**
+     * Draw the contours crossing a tile. The graphics are in pixels at the tile's zoom and should be clipped to the tile.
+     *
+     * @param g    Graphics2D
+     * @param tile tile
+     */
+    public void draw( Graphics2D g, TileReference tile )
+    {
+        Painter p = new Painter( g, tile );
+        index.forEachSegment( tile, p );
+        p.flush();
+        if( showLabels ) {
+            getLabels( tile.getZ() ).draw( g, tile, colours, halo );
+        }
+    }
+
+    @Override
+    public void accept( Renderer t )
+    {
+        if( isEnabled() ) {
+            t.forEach( r -> r.drawClipped( g -> draw( g, r.getTileReference() ) ) );
+        }
+    }
+
+    /**
+     * Joins consecutive segments into one path per level
+     */
+    private final class Painter
+            implements IntConsumer
+    {
+
+        private final Graphics2D g;
+        private final int zoom;
+        private final ContourProjection projection;
+        private final ContourSet contourSet;
+        // Projected points, null beyond the cached zooms
+        private final float pixels[];
+        private final int lines[];
+        // Beyond the index zoom the bucket covers more than the tile
+        private final boolean filter;
+        private final double minX, minY, maxX, maxY;
+        private final Path2D.Double path = new Path2D.Double();
+        private int level = -1, levelEnd, last = -2;
+        private boolean joined, empty = true;
+        private double lastX, lastY;
+
+        Painter( Graphics2D g, TileReference tile )
+        {
+            this.g = g;
+            zoom = tile.getZ();
+            projection = index.getProjection( zoom );
+            contourSet = projection.getContourSet();
+            pixels = zoom <= ContourProjection.MAX_CACHED_ZOOM ? projection.pixels( zoom ) : null;
+            lines = contourSet.lines();
+            filter = zoom > index.getIndexZoom();
+            // Allow for the width of the line
+            minX = (double) tile.getX() * Renderer.TILE_SIZE - 1;
+            minY = (double) tile.getY() * Renderer.TILE_SIZE - 1;
+            maxX = minX + Renderer.TILE_SIZE + 2;
+            maxY = minY + Renderer.TILE_SIZE + 2;
+        }
+
+        @Override
+        public void accept( int s )
+        {
+            if( s >= levelEnd ) {
+                flush();
+                while( s >= levelEnd ) {
+                    level++;
+                    levelEnd = lines[contourSet.getEndLine( level )];
+                }
+            }
+
+            boolean next = s == last + 1;
+            double x0 = next ? lastX : x( s ), y0 = next ? lastY : y( s );
+            double x1 = x( s + 1 ), y1 = y( s + 1 );
+            if( ContourTileIndex.isWrapped( x0, x1, zoom ) ) {
+                // Draw both parts, either side of the antimeridian
+                double ex = ContourTileIndex.getEdgeX( x0, x1, zoom ), ey = ContourTileIndex.getCrossingY( x0, y0, x1, y1, zoom );
+                line( x0, y0, ex, ey, next );
+                line( ContourTileIndex.getWorldSize( zoom ) - ex, ey, x1, y1, false );
+            }
+            else {
+                line( x0, y0, x1, y1, next );
+            }
+            last = s;
+            lastX = x1;
+            lastY = y1;
+        }
+
+        /**
+         * Add a line to the path if it may be visible
+         *
+         * @param next true if the line follows on from the last line added
+         */
+        private void line( double x0, double y0, double x1, double y1, boolean next )
+        {
+            if( !filter || (Math.max( x0, x1 ) >= minX && Math.min( x0, x1 ) <= maxX && Math.max( y0, y1 ) >= minY && Math.min( y0, y1 ) <= maxY) ) {
+                if( !(next && joined) ) {
+                    path.moveTo( x0, y0 );
+                }
+                path.lineTo( x1, y1 );
+                joined = true;
+                empty = false;
+            }
+            else {
+                joined = false;
+            }
+        }
+
+        private double x( int p )
+        {
+            return pixels == null ? projection.getX( p, zoom ) : pixels[p << 1];
+        }
+
+        private double y( int p )
+        {
+            return pixels == null ? projection.getY( p, zoom ) : pixels[(p << 1) + 1];
+        }
+
+        void flush()
+        {
+            if( !empty ) {
+                g.setColor( colours.getColor( level + 1 ) );
+                g.draw( path );
+                path.reset();
+                empty = true;
+            }
+            joined = false;
+        }
+    }
+}
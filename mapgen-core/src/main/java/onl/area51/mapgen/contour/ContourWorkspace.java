@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.util.Arrays;
+
+/**
+ * A pool of bit sets used as the working space of contouring.
+ * <p>
+ * Contouring marks which cell edges it has visited. Keeping one bit per edge in a long, and reusing the arrays across draws, keeps the working set a
+ * small fraction of the grid and avoids a large allocation every time a contour is drawn. A few released arrays are retained for reuse, up to a limit
+ * on their total size, beyond which they are left for the garbage collector.
+ * <p>
+ * The pool records the bytes in use and the peak in use so the cost of contouring large fields can be monitored.
+ *
+ * @author peter
+ */
+public final class ContourWorkspace
+{
+
+    /**
+     * The default limit on the bytes retained for reuse
+     */
+    public static final long DEFAULT_RETAINED = 64L << 20;
+
+    private static final ContourWorkspace INSTANCE = new ContourWorkspace( DEFAULT_RETAINED );
+
+    private final long maxRetained;
+    private long free[][] = new long[8][];
+    private int freeCount;
+    private long retained, inUse, peak;
+
+    private ContourWorkspace( long maxRetained )
+    {
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * The workspace shared by all contours
+     *
+     * @return workspace
+     */
+    public static ContourWorkspace getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Create a separate workspace
+     *
+     * @param maxRetained the limit on the bytes retained for reuse
+     *
+     * @return workspace
+     */
+    public static ContourWorkspace create( long maxRetained )
+    {
+        if( maxRetained < 0 ) {
+            throw new IllegalArgumentException( "Retained size must be >=0" );
+        }
+        return new ContourWorkspace( maxRetained );
+    }
+
+    /**
+     * Obtain a cleared bit set
+     *
+     * @param bits number of bits required
+     *
+     * @return bit set, which may be longer than required
+     */
+    long[] acquire( long bits )
+    {
+        int n = (int) ((bits + 63) >>> 6);
+        long ws[] = null;
+        synchronized( this ) {
+            // Smallest retained array that is large enough
+            int best = -1;
+            for( int i = 0; i < freeCount; i++ ) {
+                if( free[i].length >= n && (best < 0 || free[i].length < free[best].length) ) {
+                    best = i;
+                }
+            }
+            if( best >= 0 ) {
+                ws = free[best];
+                free[best] = free[--freeCount];
+                free[freeCount] = null;
+                retained -= bytes( ws );
+            }
+            inUse += bytes( ws == null ? n : ws.length );
+            peak = Math.max( peak, inUse );
+        }
+        if( ws == null ) {
+            return new long[n];
+        }
+        Arrays.fill( ws, 0L );
+        return ws;
+    }
+
+    /**
+     * Return a bit set to the pool. It must not be used afterwards.
+     *
+     * @param ws bit set from {@link #acquire(long)}
+     */
+    synchronized void release( long[] ws )
+    {
+        long b = bytes( ws );
+        inUse -= b;
+        if( retained + b > maxRetained ) {
+            return;
+        }
+        if( freeCount == free.length ) {
+            free = Arrays.copyOf( free, freeCount << 1 );
+        }
+        free[freeCount++] = ws;
+        retained += b;
+    }
+
+    private static long bytes( long[] ws )
+    {
+        return bytes( ws.length );
+    }
+
+    private static long bytes( int longs )
+    {
+        return (long) longs << 3;
+    }
+
+    /**
+     * Is a bit set
+     *
+     * @param ws bit set
+     * @param i  bit
+     *
+     * @return true if set
+     */
+    static boolean get( long[] ws, int i )
+    {
+        return (ws[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Set a bit
+     *
+     * @param ws bit set
+     * @param i  bit
+     */
+    static void set( long[] ws, int i )
+    {
+        ws[i >>> 6] |= 1L << i;
+    }
+
+    /**
+     * The bytes currently in use
+     *
+     * @return bytes
+     */
+    public synchronized long getInUse()
+    {
+        return inUse;
+    }
+
+    /**
+     * The most bytes in use at once since creation or the last {@link #resetPeak()}
+     *
+     * @return bytes
+     */
+    public synchronized long getPeak()
+    {
+        return peak;
+    }
+
+    /**
+     * The bytes held for reuse
+     *
+     * @return bytes
+     */
+    public synchronized long getRetained()
+    {
+        return retained;
+    }
+
+    /**
+     * Reset the peak to the bytes currently in use
+     */
+    public synchronized void resetPeak()
+    {
+        peak = inUse;
+    }
+
+    /**
+     * Release every retained array
+     */
+    public synchronized void trim()
+    {
+        Arrays.fill( free, 0, freeCount, null );
+        freeCount = 0;
+        retained = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format( "%s{inUse=%d, peak=%d, retained=%d}", getClass().getSimpleName(), inUse, peak, retained );
+    }
+}
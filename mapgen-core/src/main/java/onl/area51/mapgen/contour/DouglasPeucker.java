@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies the lines of a {@link ContourSet} using the Douglas-Peucker algorithm.
+ * <p>
+ * Each line keeps its end points. The point furthest from the segment joining them is kept if it is further than the tolerance, and the two halves
+ * either side of it are then treated the same way, so every removed point is within the tolerance of the simplified line. Closed lines which collapse
+ * to fewer than four points are dropped.
+ *
+ * @author peter
+ */
+final class DouglasPeucker
+{
+
+    private DouglasPeucker()
+    {
+    }
+
+    static ContourSet simplify( ContourSet s, double tolerance )
+    {
+        float xy[] = s.points();
+        int ls[] = s.lines();
+        double t2 = tolerance * tolerance;
+        ContourSet.Builder b = new ContourSet.Builder( s.getWidth(), s.getHeight(), s.getLevels() );
+
+        int longest = 0;
+        for( int line = 0, lc = s.getLineCount(); line < lc; line++ ) {
+            longest = Math.max( longest, ls[line + 1] - ls[line] );
+        }
+        boolean keep[] = new boolean[longest];
+        int stack[] = new int[64];
+
+        for( int level = 0, lc = s.getLevelCount(); level < lc; level++ ) {
+            for( int line = s.getFirstLine( level ), le = s.getEndLine( level ); line < le; line++ ) {
+                int p0 = ls[line], n = ls[line + 1] - p0;
+                if( n < 2 ) {
+                    continue;
+                }
+                Arrays.fill( keep, 0, n, false );
+                keep[0] = true;
+                keep[n - 1] = true;
+                int kept = 2, sp = 0;
+                stack[sp++] = 0;
+                stack[sp++] = n - 1;
+                while( sp > 0 ) {
+                    int e = stack[--sp], a = stack[--sp];
+                    int far = furthest( xy, p0 + a, p0 + e, t2 );
+                    if( far >= 0 ) {
+                        far -= p0;
+                        keep[far] = true;
+                        kept++;
+                        if( sp + 4 > stack.length ) {
+                            stack = Arrays.copyOf( stack, stack.length << 1 );
+                        }
+                        stack[sp++] = a;
+                        stack[sp++] = far;
+                        stack[sp++] = far;
+                        stack[sp++] = e;
+                    }
+                }
+
+                if( kept < 4 && s.isClosed( line ) ) {
+                    continue;
+                }
+                b.startLine();
+                for( int i = 0; i < n; i++ ) {
+                    if( keep[i] ) {
+                        int p = (p0 + i) << 1;
+                        b.add( xy[p], xy[p + 1] );
+                    }
+                }
+            }
+            b.endLevel();
+        }
+        return b.build();
+    }
+
+    /**
+     * The point between two others furthest from the segment joining them
+     *
+     * @return the point, -1 if none is further than the tolerance
+     */
+    private static int furthest( float[] xy, int a, int e, double t2 )
+    {
+        double ax = xy[a << 1], ay = xy[(a << 1) + 1];
+        double dx = xy[e << 1] - ax, dy = xy[(e << 1) + 1] - ay;
+        double d2 = dx * dx + dy * dy;
+        int far = -1;
+        double max = t2;
+        for( int p = a + 1; p < e; p++ ) {
+            double px = xy[p << 1] - ax, py = xy[(p << 1) + 1] - ay;
+            // Distance to the segment, or to the point where the segment has closed on itself
+            double t = d2 > 0 ? Math.max( 0, Math.min( 1, (px * dx + py * dy) / d2 ) ) : 0;
+            double ex = px - t * dx, ey = py - t * dy;
+            double dist = ex * ex + ey * ey;
+            if( dist > max ) {
+                max = dist;
+                far = p;
+            }
+        }
+        return far;
+    }
+}
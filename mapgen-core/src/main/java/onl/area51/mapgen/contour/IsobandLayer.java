@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.util.Objects;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.layer.AbstractLayer;
+import onl.area51.mapgen.renderer.Renderer;
+import onl.area51.mapgen.util.ColorMap;
+import onl.area51.mapgen.util.RangedColorMap;
+
+/**
+ * A map layer filling the bands of an {@link IsobandSet}, band i in colour i of a {@link ColorMap}.
+ * <p>
+ * Like {@link ContourLayer} the bands are drawn in grid coordinates multiplied by the scale.
+ *
+ * @author peter
+ */
+public class IsobandLayer
+        extends AbstractLayer
+{
+
+    private final IsobandSet bands;
+    private final ColorMap colours;
+    private float scale = 1f;
+    private volatile Shape paths[];
+
+    /**
+     * Shade a grid with a band for each colour of a map, e.g. {@link RangedColorMap#temp()}
+     *
+     * @param grid grid
+     * @param map  colour map
+     * @param name layer name
+     */
+    public IsobandLayer( Grid grid, RangedColorMap map, String name )
+    {
+        this( IsobandSet.of( grid, map ), map, name, true );
+    }
+
+    public IsobandLayer( IsobandSet bands, ColorMap colours, String name, boolean enabled )
+    {
+        super( name, enabled );
+        this.bands = Objects.requireNonNull( bands );
+        this.colours = Objects.requireNonNull( colours );
+    }
+
+    public IsobandSet getBands()
+    {
+        return bands;
+    }
+
+    public ColorMap getColours()
+    {
+        return colours;
+    }
+
+    public float getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * Set the scale of grid coordinates to image coordinates
+     *
+     * @param scale scale
+     *
+     * @return this layer
+     */
+    public IsobandLayer setScale( float scale )
+    {
+        this.scale = scale;
+        return this;
+    }
+
+    private Shape[] getPaths()
+    {
+        Shape p[] = paths;
+        if( p == null ) {
+            p = new Shape[bands.getBandCount()];
+            for( int i = 0; i < p.length; i++ ) {
+                p[i] = bands.toPath( i );
+            }
+            paths = p;
+        }
+        return p;
+    }
+
+    /**
+     * Fill the bands
+     *
+     * @param g Graphics2D
+     */
+    public void draw( Graphics2D g )
+    {
+        Shape p[] = getPaths();
+        Graphics2D g1 = (Graphics2D) g.create();
+        try {
+            g1.transform( AffineTransform.getScaleInstance( scale, scale ) );
+            for( int i = 0; i < p.length; i++ ) {
+                g1.setColor( colours.getColor( i ) );
+                g1.fill( p[i] );
+            }
+        }
+        finally {
+            g1.dispose();
+        }
+    }
+
+    @Override
+    public void accept( Renderer t )
+    {
+        if( isEnabled() ) {
+            t.render( r -> {
+                r.draw( this::draw );
+            } );
+        }
+    }
+
+}
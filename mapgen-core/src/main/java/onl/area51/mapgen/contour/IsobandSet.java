@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Objects;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.util.RangedValue;
+
+/**
+ * An immutable set of filled contour bands (isobands) of a grid.
+ * <p>
+ * Each band covers the values from its lower bound, inclusive, to its upper bound, exclusive, and consists of polygons. A polygon is a closed outer
+ * ring followed by zero or more holes. Rings are in grid coordinates, the same as {@link ContourSet}, the outer ring anticlockwise and holes clockwise
+ * (with y up) and the last point of a ring is the same as its first. Everything is packed into a single float array with offsets to each ring, the
+ * first ring of each polygon and the first polygon of each band.
+ *
+ * @author peter
+ */
+public final class IsobandSet
+{
+
+    private final int width, height;
+    private final double bounds[];
+    private final int bandStart[];
+    private final int polygonStart[];
+    private final int ringStart[];
+    private final float xy[];
+
+    IsobandSet( int width, int height, double[] bounds, int[] bandStart, int[] polygonStart, int[] ringStart, float[] xy )
+    {
+        this.width = width;
+        this.height = height;
+        this.bounds = bounds;
+        this.bandStart = bandStart;
+        this.polygonStart = polygonStart;
+        this.ringStart = ringStart;
+        this.xy = xy;
+    }
+
+    /**
+     * Generate the bands of a grid between consecutive bounds
+     *
+     * @param grid   grid
+     * @param bounds increasing band bounds, n+1 for n bands. The first may be -Infinity and the last +Infinity
+     *
+     * @return isobands
+     *
+     * @throws IllegalArgumentException if there are less than two bounds or they are not increasing
+     */
+    public static IsobandSet of( Grid grid, double... bounds )
+    {
+        Objects.requireNonNull( grid );
+        if( bounds.length < 2 ) {
+            throw new IllegalArgumentException( "At least two bounds are required" );
+        }
+        for( int i = 1; i < bounds.length; i++ ) {
+            if( !(bounds[i] > bounds[i - 1]) ) {
+                throw new IllegalArgumentException( "Bounds must be increasing" );
+            }
+        }
+        return Isobands.bands( grid, bounds.clone() );
+    }
+
+    /**
+     * Generate a band for each index of a {@link RangedValue}, e.g. a {@link onl.area51.mapgen.util.RangedColorMap}, so band i is every value whose
+     * index is i. The first band extends down to -Infinity and the last up to +Infinity.
+     *
+     * @param grid  grid
+     * @param range range
+     *
+     * @return isobands
+     */
+    public static IsobandSet of( Grid grid, RangedValue range )
+    {
+        int n = range.size();
+        double b[] = new double[n + 1];
+        b[0] = Double.NEGATIVE_INFINITY;
+        for( int i = 1; i < n; i++ ) {
+            b[i] = range.getValue( i );
+        }
+        b[n] = Double.POSITIVE_INFINITY;
+        return of( grid, b );
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getBandCount()
+    {
+        return bounds.length - 1;
+    }
+
+    /**
+     * The lowest value of a band
+     *
+     * @param band band
+     *
+     * @return lower bound, inclusive
+     */
+    public double getLower( int band )
+    {
+        return bounds[band];
+    }
+
+    /**
+     * The upper bound of a band
+     *
+     * @param band band
+     *
+     * @return upper bound, exclusive
+     */
+    public double getUpper( int band )
+    {
+        return bounds[band + 1];
+    }
+
+    /**
+     * The first polygon of a band. The polygons of a band are numbered from this to {@link #getEndPolygon(int)}
+     *
+     * @param band band
+     *
+     * @return polygon
+     */
+    public int getFirstPolygon( int band )
+    {
+        return bandStart[band];
+    }
+
+    /**
+     * The end, exclusive, of the polygons of a band
+     *
+     * @param band band
+     *
+     * @return polygon
+     */
+    public int getEndPolygon( int band )
+    {
+        return bandStart[band + 1];
+    }
+
+    public int getPolygonCount()
+    {
+        return polygonStart.length - 1;
+    }
+
+    /**
+     * The outer ring of a polygon, the rings up to {@link #getEndRing(int)} being its holes
+     *
+     * @param polygon polygon
+     *
+     * @return ring
+     */
+    public int getFirstRing( int polygon )
+    {
+        return polygonStart[polygon];
+    }
+
+    /**
+     * The end, exclusive, of the rings of a polygon
+     *
+     * @param polygon polygon
+     *
+     * @return ring
+     */
+    public int getEndRing( int polygon )
+    {
+        return polygonStart[polygon + 1];
+    }
+
+    public int getRingCount()
+    {
+        return ringStart.length - 1;
+    }
+
+    public int getPointCount( int ring )
+    {
+        return ringStart[ring + 1] - ringStart[ring];
+    }
+
+    public float getX( int ring, int point )
+    {
+        return xy[(ringStart[ring] + point) << 1];
+    }
+
+    public float getY( int ring, int point )
+    {
+        return xy[((ringStart[ring] + point) << 1) + 1];
+    }
+
+    /**
+     * The coordinates of a ring
+     *
+     * @param ring ring
+     *
+     * @return x,y pairs
+     */
+    public float[] getCoordinates( int ring )
+    {
+        return Arrays.copyOfRange( xy, ringStart[ring] << 1, ringStart[ring + 1] << 1 );
+    }
+
+    /**
+     * The signed area of a ring, positive for an outer ring and negative for a hole
+     *
+     * @param ring ring
+     *
+     * @return area in grid cells
+     */
+    public double getArea( int ring )
+    {
+        return area( xy, ringStart[ring], ringStart[ring + 1] );
+    }
+
+    static double area( float[] xy, int start, int end )
+    {
+        double a = 0.0;
+        for( int i = start << 1, e = (end - 1) << 1; i < e; i += 2 ) {
+            a += (double) xy[i] * xy[i + 3] - (double) xy[i + 2] * xy[i + 1];
+        }
+        return a / 2.0;
+    }
+
+    /**
+     * The polygons of a band as a path in grid coordinates
+     *
+     * @param band band
+     *
+     * @return path
+     */
+    public Path2D.Float toPath( int band )
+    {
+        Path2D.Float p = new Path2D.Float( Path2D.WIND_EVEN_ODD );
+        for( int r = polygonStart[bandStart[band]], re = polygonStart[bandStart[band + 1]]; r < re; r++ ) {
+            int i = ringStart[r] << 1, e = ringStart[r + 1] << 1;
+            p.moveTo( xy[i], xy[i + 1] );
+            for( i += 2; i < e; i += 2 ) {
+                p.lineTo( xy[i], xy[i + 1] );
+            }
+            p.closePath();
+        }
+        return p;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{width=%d, height=%d, bands=%d, polygons=%d, rings=%d, points=%d}",
+                              getClass().getSimpleName(), width, height, getBandCount(), getPolygonCount(), getRingCount(), xy.length >> 1 );
+    }
+}
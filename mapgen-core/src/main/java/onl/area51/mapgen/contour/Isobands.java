@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.util.Arrays;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridBlockIndex;
+
+/**
+ * Generates an {@link IsobandSet}.
+ * <p>
+ * For each band the boundary of the region within the band is built from directed segments, the region always being on the left. Within a cell these
+ * are the contour segments of the lower bound, as {@link MarchingSquares} generates them, and those of the upper bound reversed. Edges of cells are
+ * shared by two cells in opposite directions so cancel out, except on the boundary of the grid or of missing data where the part of the edge within
+ * the band is added. Only cells within blocks of the {@link GridBlockIndex} whose range meets the band are visited.
+ * <p>
+ * The segments are then chained into rings by matching end points. Anticlockwise rings are outer rings and clockwise ones holes, each hole being
+ * assigned to the smallest outer ring containing it.
+ *
+ * @author peter
+ */
+final class Isobands
+{
+
+    private final int w, h, cw, ch;
+    private final double v[];
+    private final GridBlockIndex index;
+
+    // Segments of the current band, x0,y0,x1,y1
+    private float seg[] = new float[1024];
+    private int segCount;
+    private float px, py;
+
+    // Rings of the current band
+    private float ringXY[] = new float[1024];
+    private int ringStart[] = new int[64];
+    private int ringCount, ringPoints;
+
+    // The result
+    private final int bandStart[];
+    private int polygonStart[] = new int[64];
+    private int polygonCount;
+    private int outRingStart[] = new int[64];
+    private int outRingCount;
+    private float xy[] = new float[1024];
+    private int points;
+
+    private Isobands( Grid grid, int bands )
+    {
+        w = grid.getWidth();
+        h = grid.getHeight();
+        cw = w - 1;
+        ch = h - 1;
+        v = MarchingSquares.values( grid );
+        index = GridBlockIndex.create( DenseGrid.of( v, w, h ), GridBlockIndex.DEFAULT_BLOCK_SIZE );
+        bandStart = new int[bands + 1];
+    }
+
+    static IsobandSet bands( Grid grid, double[] bounds )
+    {
+        int bands = bounds.length - 1;
+        Isobands b = new Isobands( grid, bands );
+        if( b.cw > 0 && b.ch > 0 ) {
+            for( int i = 0; i < bands; i++ ) {
+                b.band( bounds[i], bounds[i + 1] );
+                b.bandStart[i + 1] = b.polygonCount;
+            }
+        }
+        int ps[] = Arrays.copyOf( b.polygonStart, b.polygonCount + 1 );
+        ps[b.polygonCount] = b.outRingCount;
+        int rs[] = Arrays.copyOf( b.outRingStart, b.outRingCount + 1 );
+        rs[b.outRingCount] = b.points;
+        return new IsobandSet( b.w, b.h, bounds, b.bandStart, ps, rs, Arrays.copyOf( b.xy, b.points << 1 ) );
+    }
+
+    private void band( double lo, double hi )
+    {
+        segCount = 0;
+        int bs = index.getBlockSize();
+        index.forEachBlock( lo, hi, ( bx, by ) -> {
+            for( int y = by * bs, ye = Math.min( y + bs, ch ); y < ye; y++ ) {
+                for( int x = bx * bs, xe = Math.min( x + bs, cw ); x < xe; x++ ) {
+                    cell( x, y, lo, hi );
+                }
+            }
+        } );
+        chain();
+        polygons();
+    }
+
+    private boolean isValid( int x, int y )
+    {
+        if( x < 0 || y < 0 || x >= cw || y >= ch ) {
+            return false;
+        }
+        int i = y * w + x;
+        double a = v[i], b = v[i + 1], c = v[i + w + 1], d = v[i + w];
+        return a == a && b == b && c == c && d == d;
+    }
+
+    private void cell( int x, int y, double lo, double hi )
+    {
+        int i = y * w + x;
+        double a = v[i], b = v[i + 1], c = v[i + w + 1], d = v[i + w];
+        if( a != a || b != b || c != c || d != d ) {
+            return;
+        }
+        double min = Math.min( Math.min( a, b ), Math.min( c, d ) );
+        double max = Math.max( Math.max( a, b ), Math.max( c, d ) );
+        if( max < lo || min >= hi ) {
+            return;
+        }
+        if( min < lo ) {
+            chords( x, y, MarchingSquares.caseOf( a, b, c, d, lo ), lo, false );
+        }
+        if( max >= hi ) {
+            chords( x, y, MarchingSquares.caseOf( a, b, c, d, hi ), hi, true );
+        }
+        if( !isValid( x, y - 1 ) ) {
+            side( a, b, lo, hi, x, y, true, false );
+        }
+        if( !isValid( x + 1, y ) ) {
+            side( b, c, lo, hi, x + 1, y, false, false );
+        }
+        if( !isValid( x, y + 1 ) ) {
+            side( c, d, lo, hi, x, y + 1, true, true );
+        }
+        if( !isValid( x - 1, y ) ) {
+            side( d, a, lo, hi, x, y, false, true );
+        }
+    }
+
+    /**
+     * Add the contour segments of a level within a cell
+     */
+    private void chords( int x, int y, int k, double level, boolean reverse )
+    {
+        for( int e = 0; e < 4; e++ ) {
+            int o = MarchingSquares.exit( k, e );
+            if( o >= 0 ) {
+                point( x, y, e, level );
+                float x0 = px, y0 = py;
+                point( x, y, o, level );
+                if( reverse ) {
+                    segment( px, py, x0, y0 );
+                }
+                else {
+                    segment( x0, y0, px, py );
+                }
+            }
+        }
+    }
+
+    private void point( int x, int y, int e, double level )
+    {
+        switch( e ) {
+            case 0:
+                px = MarchingSquares.crossX( v, w, x, y, level );
+                py = y;
+                break;
+            case 1:
+                px = x + 1;
+                py = MarchingSquares.crossY( v, w, x + 1, y, level );
+                break;
+            case 2:
+                px = MarchingSquares.crossX( v, w, x, y + 1, level );
+                py = y + 1;
+                break;
+            default:
+                px = x;
+                py = MarchingSquares.crossY( v, w, x, y, level );
+                break;
+        }
+    }
+
+    /**
+     * Add the part of a cell edge within the band. The edge runs from p to q and starts at (x,y), which is the top or left end regardless of direction.
+     *
+     * @param vp         value at p
+     * @param vq         value at q
+     * @param horizontal true for a horizontal edge
+     * @param reverse    true if p is the bottom or right end
+     */
+    private void side( double vp, double vq, double lo, double hi, int x, int y, boolean horizontal, boolean reverse )
+    {
+        int ex = horizontal ? x + 1 : x, ey = horizontal ? y : y + 1;
+        float x0, y0, x1, y1;
+        if( vp >= lo && vp < hi ) {
+            x0 = reverse ? ex : x;
+            y0 = reverse ? ey : y;
+        }
+        else if( vp < lo ? vq < lo : vq >= hi ) {
+            // Both ends on the same side of the band
+            return;
+        }
+        else {
+            cross( x, y, horizontal, vp < lo ? lo : hi );
+            x0 = px;
+            y0 = py;
+        }
+        if( vq >= lo && vq < hi ) {
+            x1 = reverse ? x : ex;
+            y1 = reverse ? y : ey;
+        }
+        else {
+            cross( x, y, horizontal, vq < lo ? lo : hi );
+            x1 = px;
+            y1 = py;
+        }
+        segment( x0, y0, x1, y1 );
+    }
+
+    private void cross( int x, int y, boolean horizontal, double level )
+    {
+        if( horizontal ) {
+            px = MarchingSquares.crossX( v, w, x, y, level );
+            py = y;
+        }
+        else {
+            px = x;
+            py = MarchingSquares.crossY( v, w, x, y, level );
+        }
+    }
+
+    private void segment( float x0, float y0, float x1, float y1 )
+    {
+        if( x0 == x1 && y0 == y1 ) {
+            return;
+        }
+        int i = segCount << 2;
+        if( i + 4 > seg.length ) {
+            seg = Arrays.copyOf( seg, seg.length << 1 );
+        }
+        seg[i] = x0;
+        seg[i + 1] = y0;
+        seg[i + 2] = x1;
+        seg[i + 3] = y1;
+        segCount++;
+    }
+
+    private static long key( float x, float y )
+    {
+        return ((long) Float.floatToIntBits( x ) << 32) | (Float.floatToIntBits( y ) & 0xffffffffL);
+    }
+
+    private static int hash( long k, int mask )
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        return (int) k & mask;
+    }
+
+    /**
+     * Chain the segments into rings
+     */
+    private void chain()
+    {
+        ringCount = 0;
+        ringPoints = 0;
+        int n = segCount;
+        int mask = Integer.highestOneBit( Math.max( 2, n ) * 2 ) - 1;
+        int head[] = new int[mask + 1];
+        Arrays.fill( head, -1 );
+        int next[] = new int[n];
+        long start[] = new long[n];
+        for( int s = 0; s < n; s++ ) {
+            start[s] = key( seg[s << 2], seg[(s << 2) + 1] );
+            int b = hash( start[s], mask );
+            next[s] = head[b];
+            head[b] = s;
+        }
+
+        boolean used[] = new boolean[n];
+        for( int s = 0; s < n; s++ ) {
+            if( used[s] ) {
+                continue;
+            }
+            int rs = ringPoints;
+            ringPoint( seg[s << 2], seg[(s << 2) + 1] );
+            int cur = s;
+            while( cur >= 0 ) {
+                used[cur] = true;
+                float x = seg[(cur << 2) + 2], y = seg[(cur << 2) + 3];
+                ringPoint( x, y );
+                long k = key( x, y );
+                if( k == start[s] ) {
+                    break;
+                }
+                cur = head[hash( k, mask )];
+                while( cur >= 0 && (used[cur] || start[cur] != k) ) {
+                    cur = next[cur];
+                }
+            }
+            // A ring needs three distinct points and, as a ring always closes, this only drops slivers
+            if( ringPoints - rs >= 4 ) {
+                if( ringCount + 2 > ringStart.length ) {
+                    ringStart = Arrays.copyOf( ringStart, ringStart.length << 1 );
+                }
+                ringStart[ringCount++] = rs;
+                ringStart[ringCount] = ringPoints;
+            }
+            else {
+                ringPoints = rs;
+            }
+        }
+    }
+
+    private void ringPoint( float x, float y )
+    {
+        int i = ringPoints << 1;
+        if( i + 2 > ringXY.length ) {
+            ringXY = Arrays.copyOf( ringXY, ringXY.length << 1 );
+        }
+        ringXY[i] = x;
+        ringXY[i + 1] = y;
+        ringPoints++;
+    }
+
+    /**
+     * Group the rings of the current band into polygons
+     */
+    private void polygons()
+    {
+        double area[] = new double[ringCount];
+        float bounds[] = new float[ringCount << 2];
+        int shells = 0;
+        for( int r = 0; r < ringCount; r++ ) {
+            area[r] = IsobandSet.area( ringXY, ringStart[r], ringStart[r + 1] );
+            if( area[r] > 0 ) {
+                shells++;
+            }
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+            for( int i = ringStart[r] << 1, e = ringStart[r + 1] << 1; i < e; i += 2 ) {
+                minX = Math.min( minX, ringXY[i] );
+                maxX = Math.max( maxX, ringXY[i] );
+                minY = Math.min( minY, ringXY[i + 1] );
+                maxY = Math.max( maxY, ringXY[i + 1] );
+            }
+            bounds[r << 2] = minX;
+            bounds[(r << 2) + 1] = minY;
+            bounds[(r << 2) + 2] = maxX;
+            bounds[(r << 2) + 3] = maxY;
+        }
+        if( shells == 0 ) {
+            return;
+        }
+
+        // The shell containing each hole
+        int owner[] = new int[ringCount];
+        for( int r = 0; r < ringCount; r++ ) {
+            owner[r] = -1;
+            if( area[r] < 0 ) {
+                // Midpoint of the first segment is less likely to touch the shell than a vertex
+                int i = ringStart[r] << 1;
+                float x = (ringXY[i] + ringXY[i + 2]) / 2, y = (ringXY[i + 1] + ringXY[i + 3]) / 2;
+                double best = Double.MAX_VALUE;
+                for( int s = 0; s < ringCount; s++ ) {
+                    int b = s << 2;
+                    if( area[s] > 0 && area[s] < best
+                        && x >= bounds[b] && x <= bounds[b + 2] && y >= bounds[b + 1] && y <= bounds[b + 3]
+                        && contains( s, x, y ) ) {
+                        owner[r] = s;
+                        best = area[s];
+                    }
+                }
+            }
+        }
+
+        for( int s = 0; s < ringCount; s++ ) {
+            if( area[s] > 0 ) {
+                if( polygonCount + 2 > polygonStart.length ) {
+                    polygonStart = Arrays.copyOf( polygonStart, polygonStart.length << 1 );
+                }
+                polygonStart[polygonCount++] = outRingCount;
+                copyRing( s );
+                for( int r = 0; r < ringCount; r++ ) {
+                    if( owner[r] == s ) {
+                        copyRing( r );
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean contains( int ring, float x, float y )
+    {
+        boolean in = false;
+        for( int i = ringStart[ring] << 1, e = (ringStart[ring + 1] - 1) << 1; i < e; i += 2 ) {
+            float x0 = ringXY[i], y0 = ringXY[i + 1], x1 = ringXY[i + 2], y1 = ringXY[i + 3];
+            if( (y0 > y) != (y1 > y) && x < x0 + (y - y0) * (x1 - x0) / (y1 - y0) ) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    private void copyRing( int r )
+    {
+        if( outRingCount + 2 > outRingStart.length ) {
+            outRingStart = Arrays.copyOf( outRingStart, outRingStart.length << 1 );
+        }
+        outRingStart[outRingCount++] = points;
+        int s = ringStart[r] << 1, n = (ringStart[r + 1] << 1) - s;
+        if( (points << 1) + n > xy.length ) {
+            xy = Arrays.copyOf( xy, Math.max( xy.length << 1, (points << 1) + n ) );
+        }
+        System.arraycopy( ringXY, s, xy, points << 1, n );
+        points += n >> 1;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridStatistics;
+import onl.area51.mapgen.util.ColorMap;
+
+/**
+ * A {@link Contour} which contours the data into a {@link ContourSet} once, when the data is set, and then only draws that set.
+ * <p>
+ * The levels and colours are the same as {@link BasicContour}, level i being drawn in colour i+1 of the map, but the lines are drawn in grid
+ * coordinates, x being the column and y the row, multiplied by the scale.
+ *
+ * @author peter
+ */
+public class IsolineContour
+        implements Contour
+{
+
+    private static final double Z_MAX_MAX = GridStatistics.MISSING_VALUE;
+
+    private final ColorMap cmap;
+    private boolean logInterpolation;
+    private float scale = 1f;
+    private ContourSet contourSet;
+    private volatile Shape paths[];
+
+    IsolineContour( ColorMap cmap )
+    {
+        this.cmap = cmap;
+    }
+
+    @Override
+    public void setData( Grid data, int x, int y )
+    {
+        GridStatistics stats = GridStatistics.calculate( data );
+        double zMax = Math.min( stats.getMax(), Z_MAX_MAX );
+        double zMin = Math.max( stats.getMin(), -Z_MAX_MAX );
+        setContourSet( ContourSet.of( data, ContourSet.levels( zMin, zMax, cmap.size(), logInterpolation ) ) );
+    }
+
+    /**
+     * The contours being drawn
+     *
+     * @return contour set, null if no data has been set
+     */
+    public ContourSet getContourSet()
+    {
+        return contourSet;
+    }
+
+    /**
+     * Draw an existing set of contours
+     *
+     * @param contourSet contour set
+     */
+    public void setContourSet( ContourSet contourSet )
+    {
+        this.contourSet = contourSet;
+        paths = null;
+    }
+
+    @Override
+    public float getScale()
+    {
+        return scale;
+    }
+
+    @Override
+    public void setScale( float scale )
+    {
+        this.scale = scale;
+    }
+
+    @Override
+    public void setLogInterpolation( boolean logInterpolation )
+    {
+        this.logInterpolation = logInterpolation;
+    }
+
+    @Override
+    public boolean isLogInterpolation()
+    {
+        return logInterpolation;
+    }
+
+    private Shape[] getPaths()
+    {
+        Shape p[] = paths;
+        if( p == null ) {
+            ContourSet s = contourSet;
+            p = new Shape[s.getLevelCount()];
+            for( int i = 0; i < p.length; i++ ) {
+                p[i] = s.toPath( i );
+            }
+            paths = p;
+        }
+        return p;
+    }
+
+    @Override
+    public void draw( Graphics2D g )
+    {
+        if( contourSet == null ) {
+            return;
+        }
+
+        Shape p[] = getPaths();
+        Graphics2D g1 = (Graphics2D) g.create();
+        try {
+            g1.transform( AffineTransform.getScaleInstance( scale, scale ) );
+            g1.setStroke( new BasicStroke( 1 / scale, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND ) );
+            for( int i = 0; i < p.length; i++ ) {
+                g1.setColor( cmap.getColor( i + 1 ) );
+                g1.draw( p[i] );
+            }
+        }
+        finally {
+            g1.dispose();
+        }
+    }
+}
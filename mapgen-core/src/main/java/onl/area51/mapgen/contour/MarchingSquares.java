@@ -0,0 +1,568 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.grid.GridBlockIndex;
+import onl.area51.mapgen.grid.GridStatistics;
+
+/**
+ * Generates a {@link ContourSet} using marching squares.
+ * <p>
+ * Each cell is the square between four grid points. For each level the corners at or above the level give the cell one of 16 cases, each joining
+ * pairs of the cell's edges. Segments are oriented with the higher values on the left so every crossing of an edge is the exit of one cell and the
+ * entry of its neighbour. Lines are then traced by following exits from cell to cell, first from the grid boundary or missing data, giving open lines,
+ * then from any segment left, giving closed lines. Saddle cells are resolved using the mean of the corners.
+ * <p>
+ * Only blocks of the {@link GridBlockIndex} whose range spans a level are visited for that level.
+ * <p>
+ * Large grids are split into bands of rows which are traced in parallel, each with its own workspace. A band treats its top and bottom rows as a
+ * boundary, recording the seam edge where each line leaves or enters it, and the pieces are then joined at the seams one level at a time. The grid
+ * itself is only read, so any number of contours may run at once.
+ *
+ * @author peter
+ */
+final class MarchingSquares
+{
+
+    private static final byte INVALID = -1;
+
+    /**
+     * Added to a saddle case when the centre is at or above the level
+     */
+    private static final int CENTRE = 16;
+
+    /**
+     * The exit edge for each case and entry edge, -1 if no segment enters there. Edges are numbered clockwise from the top, corners clockwise from the
+     * top left, edge e running from corner e to corner e+1.
+     */
+    private static final byte EXIT[] = new byte[32 << 2];
+
+    static {
+        Arrays.fill( EXIT, (byte) -1 );
+        for( int c = 1; c < 15; c++ ) {
+            if( c != 5 && c != 10 ) {
+                int entry = -1, exit = -1;
+                for( int e = 0; e < 4; e++ ) {
+                    boolean a = (c & (1 << e)) != 0, b = (c & (1 << ((e + 1) & 3))) != 0;
+                    if( a && !b ) {
+                        entry = e;
+                    }
+                    else if( !a && b ) {
+                        exit = e;
+                    }
+                }
+                link( c, entry, exit );
+            }
+        }
+        // Saddles: with the centre above the level cut off the corners below it, otherwise the corners above
+        link( 5 | CENTRE, 0, 1 );
+        link( 5 | CENTRE, 2, 3 );
+        link( 5, 0, 3 );
+        link( 5, 2, 1 );
+        link( 10 | CENTRE, 3, 0 );
+        link( 10 | CENTRE, 1, 2 );
+        link( 10, 1, 0 );
+        link( 10, 3, 2 );
+    }
+
+    private static void link( int c, int entry, int exit )
+    {
+        EXIT[(c << 2) + entry] = (byte) exit;
+    }
+
+    /**
+     * The edge a segment leaves a cell
+     *
+     * @param k     case of the cell
+     * @param entry edge the segment enters the cell
+     *
+     * @return exit edge, -1 if no segment enters at that edge
+     */
+    static int exit( int k, int entry )
+    {
+        return EXIT[(k << 2) + entry];
+    }
+
+    /**
+     * The case of a cell
+     *
+     * @param a     top left value
+     * @param b     top right value
+     * @param c     bottom right value
+     * @param d     bottom left value
+     * @param level level
+     *
+     * @return case
+     */
+    static int caseOf( double a, double b, double c, double d, double level )
+    {
+        int k = (a >= level ? 1 : 0) | (b >= level ? 2 : 0) | (c >= level ? 4 : 0) | (d >= level ? 8 : 0);
+        if( (k == 5 || k == 10) && (a + b + c + d) * 0.25 >= level ) {
+            k |= CENTRE;
+        }
+        return k;
+    }
+
+    /**
+     * The values of a grid with all missing data as NaN
+     *
+     * @param grid grid
+     *
+     * @return copy of the values
+     */
+    static double[] values( Grid grid )
+    {
+        double v[] = DenseGrid.copyOf( grid ).array();
+        for( int i = 0; i < v.length; i++ ) {
+            if( GridStatistics.isMissing( v[i] ) ) {
+                v[i] = Double.NaN;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Where a level crosses the edge from (x,y) to (x+1,y). Shared edges are always interpolated in the same direction so both cells give the same
+     * point.
+     *
+     * @return x coordinate of the crossing
+     */
+    static float crossX( double[] v, int w, int x, int y, double level )
+    {
+        int i = y * w + x;
+        return (float) (x + (level - v[i]) / (v[i + 1] - v[i])) + 0.0f;
+    }
+
+    /**
+     * Where a level crosses the edge from (x,y) to (x,y+1)
+     *
+     * @return y coordinate of the crossing
+     */
+    static float crossY( double[] v, int w, int x, int y, double level )
+    {
+        int i = y * w + x;
+        return (float) (y + (level - v[i]) / (v[i + w] - v[i])) + 0.0f;
+    }
+
+    /**
+     * Below this many cells a grid is contoured as a single band
+     */
+    private static final long PARALLEL_CELLS = 1 << 16;
+
+    private final int w, h, cw, ch;
+    private final double v[];
+    private final GridBlockIndex index;
+    // Band of cell rows y0..y1 (exclusive) and its position
+    private final int band, by0, by1, y0, y1;
+    private final byte cases[];
+    private final long visited[];
+    private int blocks[] = new int[64];
+    private int blockCount;
+    private double level;
+    // Seam edge each line starts and ends at, -1 if none
+    private int startSeam[] = new int[64], endSeam[] = new int[64];
+    private int lines;
+    private ContourSet result;
+
+    private MarchingSquares( int w, int h, double[] v, GridBlockIndex index, int band, int by0, int by1 )
+    {
+        this.w = w;
+        this.h = h;
+        cw = w - 1;
+        ch = h - 1;
+        this.v = v;
+        this.index = index;
+
+        this.band = band;
+        this.by0 = by0;
+        this.by1 = by1;
+        int bs = index.getBlockSize();
+        y0 = by0 * bs;
+        y1 = Math.min( by1 * bs, ch );
+
+        int cells = cw * (y1 - y0);
+        cases = new byte[cells];
+        // 4 bits per cell, one per edge
+        visited = ContourWorkspace.getInstance().acquire( ((long) cells << 2) + 64 );
+    }
+
+    /**
+     * Return the workspace to the pool once every level has been traced
+     */
+    private void release()
+    {
+        ContourWorkspace.getInstance().release( visited );
+    }
+
+    static ContourSet contour( Grid grid, double[] levels )
+    {
+        return contour( grid, levels, ForkJoinPool.commonPool() );
+    }
+
+    static ContourSet contour( Grid grid, double[] levels, ForkJoinPool pool )
+    {
+        int cw = grid.getWidth() - 1, ch = grid.getHeight() - 1;
+        int rows = (ch + GridBlockIndex.DEFAULT_BLOCK_SIZE - 1) / GridBlockIndex.DEFAULT_BLOCK_SIZE;
+        // Several bands per thread so an uneven field still balances
+        int bands = (long) cw * ch < PARALLEL_CELLS ? 1 : Math.min( rows, pool.getParallelism() << 2 );
+        return contour( grid, levels, pool, (rows + bands - 1) / Math.max( 1, bands ) );
+    }
+
+    /**
+     * Contour a grid in bands of rows
+     *
+     * @param grid       grid
+     * @param levels     contour levels
+     * @param pool       pool to run the bands in
+     * @param bandBlocks number of block rows in each band
+     *
+     * @return contour set
+     */
+    static ContourSet contour( Grid grid, double[] levels, ForkJoinPool pool, int bandBlocks )
+    {
+        int w = grid.getWidth(), h = grid.getHeight();
+        ContourSet.Builder b = new ContourSet.Builder( w, h, levels );
+        if( w < 2 || h < 2 ) {
+            return b.build();
+        }
+
+        double v[] = values( grid );
+        GridBlockIndex index = GridBlockIndex.create( DenseGrid.of( v, w, h ), GridBlockIndex.DEFAULT_BLOCK_SIZE );
+        int bs = index.getBlockSize();
+        int rows = (h - 1 + bs - 1) / bs;
+        int per = Math.max( 1, Math.min( rows, bandBlocks ) );
+        int n = (rows + per - 1) / per;
+
+        if( n == 1 ) {
+            MarchingSquares m = new MarchingSquares( w, h, v, index, 0, 0, rows );
+            try {
+                for( double l : levels ) {
+                    m.contour( l, b );
+                    b.endLevel();
+                }
+            }
+            finally {
+                m.release();
+            }
+            return b.build();
+        }
+
+        MarchingSquares bands[] = new MarchingSquares[n];
+        pool.invoke( new ForEach( 0, n, i -> {
+                              MarchingSquares m = new MarchingSquares( w, h, v, index, i, i * per, Math.min( rows, (i + 1) * per ) );
+                              ContourSet.Builder mb = new ContourSet.Builder( w, h, levels );
+                              try {
+                                  for( double l : levels ) {
+                                      m.contour( l, mb );
+                                      mb.endLevel();
+                                  }
+                              }
+                              finally {
+                                  m.release();
+                              }
+                              m.result = mb.build();
+                              bands[i] = m;
+                          } ) );
+
+        ContourSet parts[] = new ContourSet[levels.length];
+        pool.invoke( new ForEach( 0, levels.length, l -> parts[l] = stitch( bands, l ) ) );
+
+        for( ContourSet part : parts ) {
+            float xy[] = part.points();
+            int ls[] = part.lines();
+            for( int line = 0, lc = part.getLineCount(); line < lc; line++ ) {
+                b.startLine();
+                for( int p = ls[line], pe = ls[line + 1]; p < pe; p++ ) {
+                    b.add( xy[p << 1], xy[(p << 1) + 1] );
+                }
+            }
+            b.endLevel();
+        }
+        return b.build();
+    }
+
+    /**
+     * Join the pieces of one level's lines that cross the seams between bands.
+     * <p>
+     * Lines that do not start at a seam are followed from band to band first, then whatever is left forms closed lines.
+     *
+     * @param bands the bands, in order
+     * @param level level index
+     *
+     * @return the lines of the level
+     */
+    private static ContourSet stitch( MarchingSquares[] bands, int level )
+    {
+        MarchingSquares first = bands[0];
+        int cw = first.cw;
+        ContourSet.Builder b = new ContourSet.Builder( first.w, first.h, new double[]{first.result.getLevel( level )} );
+
+        int count = 0;
+        for( MarchingSquares m : bands ) {
+            count += m.result.getEndLine( level ) - m.result.getFirstLine( level );
+        }
+        int pieceBand[] = new int[count], pieceLine[] = new int[count];
+        int starts[] = new int[(bands.length - 1) * cw];
+        Arrays.fill( starts, -1 );
+        for( int i = 0, p = 0; i < bands.length; i++ ) {
+            MarchingSquares m = bands[i];
+            for( int line = m.result.getFirstLine( level ), le = m.result.getEndLine( level ); line < le; line++, p++ ) {
+                pieceBand[p] = i;
+                pieceLine[p] = line;
+                if( m.startSeam[line] >= 0 ) {
+                    starts[m.startSeam[line]] = p;
+                }
+            }
+        }
+
+        boolean used[] = new boolean[count];
+        for( int pass = 0; pass < 2; pass++ ) {
+            for( int p = 0; p < count; p++ ) {
+                // Open lines first, then closed
+                if( !used[p] && (pass == 1 || bands[pieceBand[p]].startSeam[pieceLine[p]] < 0) ) {
+                    b.startLine();
+                    int q = p;
+                    boolean head = true;
+                    do {
+                        used[q] = true;
+                        MarchingSquares m = bands[pieceBand[q]];
+                        float xy[] = m.result.points();
+                        int ls[] = m.result.lines();
+                        int line = pieceLine[q];
+                        // The first point of a continuation is the last point of the piece before it
+                        for( int i = ls[line] + (head ? 0 : 1), ie = ls[line + 1]; i < ie; i++ ) {
+                            b.add( xy[i << 1], xy[(i << 1) + 1] );
+                        }
+                        head = false;
+                        q = m.endSeam[line] < 0 ? -1 : starts[m.endSeam[line]];
+                    } while( q >= 0 && q != p );
+                }
+            }
+        }
+        return b.build();
+    }
+
+    private void contour( double level, ContourSet.Builder b )
+    {
+        this.level = level;
+        blockCount = 0;
+        index.forEachBlock( level, level, by0, by1, ( bx, by ) -> {
+                        if( blockCount == blocks.length ) {
+                            blocks = Arrays.copyOf( blocks, blockCount << 1 );
+                        }
+                        blocks[blockCount++] = (by << 16) | bx;
+                    } );
+
+        int bs = index.getBlockSize();
+        for( int pass = 0; pass < 3; pass++ ) {
+            for( int i = 0; i < blockCount; i++ ) {
+                int x0 = (blocks[i] & 0xffff) * bs, ys = (blocks[i] >>> 16) * bs;
+                for( int y = ys, ye = Math.min( ys + bs, y1 ); y < ye; y++ ) {
+                    for( int x = x0, xe = Math.min( x0 + bs, cw ); x < xe; x++ ) {
+                        int c = (y - y0) * cw + x;
+                        switch( pass ) {
+                            case 0:
+                                cases[c] = classify( x, y );
+                                break;
+                            case 1:
+                                // Open lines start where the neighbour across the entry edge is outside the grid or band, or missing
+                                trace( x, y, b, true );
+                                break;
+                            default:
+                                // Everything left is closed
+                                trace( x, y, b, false );
+                                // Leave the workspace clear for the next level
+                                cases[c] = 0;
+                                visited[c >> 4] &= ~(0xfL << ((c & 15) << 2));
+                                break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private byte classify( int x, int y )
+    {
+        int i = y * w + x;
+        double a = v[i], b = v[i + 1], c = v[i + w + 1], d = v[i + w];
+        if( a != a || b != b || c != c || d != d ) {
+            return INVALID;
+        }
+        return (byte) caseOf( a, b, c, d, level );
+    }
+
+    private void trace( int x, int y, ContourSet.Builder b, boolean open )
+    {
+        int c = (y - y0) * cw + x;
+        int k = cases[c];
+        if( k <= 0 ) {
+            return;
+        }
+        for( int e = 0; e < 4; e++ ) {
+            if( EXIT[(k << 2) + e] >= 0 && !isVisited( c, e ) && (!open || isBoundary( x, y, e )) ) {
+                follow( x, y, e, b );
+            }
+        }
+    }
+
+    /**
+     * Is the cell across an edge outside the grid or band, or missing
+     */
+    private boolean isBoundary( int x, int y, int e )
+    {
+        switch( e ) {
+            case 0:
+                return y == y0 || cases[(y - 1 - y0) * cw + x] == INVALID;
+            case 1:
+                return x == cw - 1 || cases[(y - y0) * cw + x + 1] == INVALID;
+            case 2:
+                return y == y1 - 1 || cases[(y + 1 - y0) * cw + x] == INVALID;
+            default:
+                return x == 0 || cases[(y - y0) * cw + x - 1] == INVALID;
+        }
+    }
+
+    /**
+     * The seam edge between the cell (x,y) in another band and the neighbouring cell in this band
+     *
+     * @return seam edge, -1 if the cell is outside the grid or missing
+     */
+    private int seam( int x, int y )
+    {
+        if( y < 0 || y >= ch || classify( x, y ) == INVALID ) {
+            return -1;
+        }
+        return (y < y0 ? band - 1 : band) * cw + x;
+    }
+
+    private void follow( int x, int y, int e, ContourSet.Builder b )
+    {
+        if( lines == startSeam.length ) {
+            startSeam = Arrays.copyOf( startSeam, lines << 1 );
+            endSeam = Arrays.copyOf( endSeam, lines << 1 );
+        }
+        int line = lines++;
+        startSeam[line] = e == 0 && y == y0 ? seam( x, y - 1 ) : e == 2 && y == y1 - 1 ? seam( x, y + 1 ) : -1;
+        endSeam[line] = -1;
+
+        b.startLine();
+        addPoint( x, y, e, b );
+        while( true ) {
+            int c = (y - y0) * cw + x;
+            setVisited( c, e );
+            int o = EXIT[(cases[c] << 2) + e];
+            addPoint( x, y, o, b );
+            switch( o ) {
+                case 0:
+                    y--;
+                    break;
+                case 1:
+                    x++;
+                    break;
+                case 2:
+                    y++;
+                    break;
+                default:
+                    x--;
+                    break;
+            }
+            if( y < y0 || y >= y1 ) {
+                // Continued by another band
+                endSeam[line] = seam( x, y );
+                return;
+            }
+            if( x < 0 || x >= cw ) {
+                return;
+            }
+            c = (y - y0) * cw + x;
+            e = (o + 2) & 3;
+            // Run into missing data, or back to the start of a closed line
+            if( cases[c] == INVALID || isVisited( c, e ) ) {
+                return;
+            }
+        }
+    }
+
+    private boolean isVisited( int c, int e )
+    {
+        return (visited[c >> 4] & (1L << (((c & 15) << 2) + e))) != 0;
+    }
+
+    private void setVisited( int c, int e )
+    {
+        visited[c >> 4] |= 1L << (((c & 15) << 2) + e);
+    }
+
+    /**
+     * Add the point where the level crosses an edge of a cell
+     */
+    private void addPoint( int x, int y, int e, ContourSet.Builder b )
+    {
+        switch( e ) {
+            case 0:
+                b.add( crossX( v, w, x, y, level ), y );
+                break;
+            case 1:
+                b.add( x + 1, crossY( v, w, x + 1, y, level ) );
+                break;
+            case 2:
+                b.add( crossX( v, w, x, y + 1, level ), y + 1 );
+                break;
+            default:
+                b.add( x, crossY( v, w, x, y, level ) );
+                break;
+        }
+    }
+
+    /**
+     * Runs an action for each index in a range, splitting the range across the pool
+     */
+    private static final class ForEach
+            extends RecursiveAction
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IntConsumer action;
+
+        ForEach( int from, int to, IntConsumer action )
+        {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( to - from > 1 ) {
+                int mid = (from + to) >>> 1;
+                invokeAll( new ForEach( from, mid, action ), new ForEach( mid, to, action ) );
+            }
+            else if( to > from ) {
+                action.accept( from );
+            }
+        }
+    }
+}
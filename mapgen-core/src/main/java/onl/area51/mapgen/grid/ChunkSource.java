@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * The backing store of a {@link ChunkedGrid}, from which rectangular chunks of data are read on demand.
+ *
+ * @author peter
+ */
+@FunctionalInterface
+public interface ChunkSource
+{
+
+    /**
+     * Read a rectangle of data
+     *
+     * @param l   left of chunk
+     * @param t   top of chunk
+     * @param w   width of chunk
+     * @param h   height of chunk
+     * @param dst destination, w*h values in row-major order
+     *
+     * @throws IOException on failure
+     */
+    void read( int l, int t, int w, int h, double[] dst )
+            throws IOException;
+
+    /**
+     * A source reading from a grid, usually a {@link MappedGrid} so the data stays off heap until it is needed.
+     *
+     * @param grid Grid
+     *
+     * @return ChunkSource
+     */
+    static ChunkSource of( Grid grid )
+    {
+        Objects.requireNonNull( grid );
+        DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        return ( l, t, w, h, dst ) -> {
+            for( int y = 0; y < h; y++ ) {
+                if( dense != null ) {
+                    dense.getRow( t + y, l, w, dst, y * w );
+                }
+                else {
+                    for( int x = 0; x < w; x++ ) {
+                        dst[(y * w) + x] = grid.getValue( l + x, t + y );
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A {@link DenseGrid} whose data is split into square chunks which are loaded from a {@link ChunkSource} when first accessed.
+ * <p>
+ * Only a bounded number of chunks are kept, the least recently used being discarded when that is exceeded, so a grid larger than the heap can be used
+ * and rendering a region of it only loads the chunks that region touches.
+ *
+ * @author peter
+ */
+public final class ChunkedGrid
+        implements DenseGrid
+{
+
+    /**
+     * The default chunk size
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final ChunkSource source;
+    private final GridMask mask;
+    private final int w, h, chunkSize, maxChunks, chunksWide;
+    private final Map<Integer, Chunk> chunks;
+    private volatile Chunk last;
+    private long loadCount;
+
+    private ChunkedGrid( ChunkSource source, GridMask mask, int w, int h, int chunkSize, int maxChunks )
+    {
+        this.source = source;
+        this.mask = mask;
+        this.w = w;
+        this.h = h;
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+        this.chunksWide = (w + chunkSize - 1) / chunkSize;
+        chunks = new LinkedHashMap<Integer, Chunk>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Integer, Chunk> eldest )
+            {
+                return size() > ChunkedGrid.this.maxChunks;
+            }
+        };
+    }
+
+    /**
+     * Create a grid with the default chunk size
+     *
+     * @param source    source of the data
+     * @param w         width
+     * @param h         height
+     * @param maxChunks maximum number of chunks to keep in memory
+     *
+     * @return ChunkedGrid
+     */
+    public static ChunkedGrid of( ChunkSource source, int w, int h, int maxChunks )
+    {
+        return of( source, w, h, DEFAULT_CHUNK_SIZE, maxChunks );
+    }
+
+    /**
+     * Create a grid
+     *
+     * @param source    source of the data
+     * @param w         width
+     * @param h         height
+     * @param chunkSize width and height of each chunk
+     * @param maxChunks maximum number of chunks to keep in memory
+     *
+     * @return ChunkedGrid
+     *
+     * @throws IllegalArgumentException if any dimension or maxChunks is less than 1
+     */
+    public static ChunkedGrid of( ChunkSource source, int w, int h, int chunkSize, int maxChunks )
+    {
+        return of( source, null, w, h, chunkSize, maxChunks );
+    }
+
+    private static ChunkedGrid of( ChunkSource source, GridMask mask, int w, int h, int chunkSize, int maxChunks )
+    {
+        Objects.requireNonNull( source );
+        if( w < 1 || h < 1 || chunkSize < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        if( maxChunks < 1 ) {
+            throw new IllegalArgumentException( "maxChunks must be >=1" );
+        }
+        return new ChunkedGrid( source, mask, w, h, chunkSize, maxChunks );
+    }
+
+    /**
+     * Create a chunked view of another grid, usually a {@link MappedGrid}. The view has the same mask as the grid.
+     *
+     * @param grid      Grid
+     * @param maxChunks maximum number of chunks to keep in memory
+     *
+     * @return ChunkedGrid
+     */
+    public static ChunkedGrid of( Grid grid, int maxChunks )
+    {
+        return of( ChunkSource.of( grid ), grid.getMask(), grid.getWidth(), grid.getHeight(), DEFAULT_CHUNK_SIZE, maxChunks );
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public GridMask getMask()
+    {
+        return mask;
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public int getMaxChunks()
+    {
+        return maxChunks;
+    }
+
+    /**
+     * The number of chunks currently in memory
+     *
+     * @return
+     */
+    public int getChunkCount()
+    {
+        synchronized( chunks ) {
+            return chunks.size();
+        }
+    }
+
+    /**
+     * The number of times a chunk has been read from the source
+     *
+     * @return
+     */
+    public long getLoadCount()
+    {
+        synchronized( chunks ) {
+            return loadCount;
+        }
+    }
+
+    /**
+     * Discard all chunks in memory
+     */
+    public void clear()
+    {
+        synchronized( chunks ) {
+            chunks.clear();
+            last = null;
+        }
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        Chunk c = getChunk( x / chunkSize, y / chunkSize );
+        return c.data[((y - c.t) * c.w) + x - c.l];
+    }
+
+    @Override
+    public double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        int cy = y / chunkSize;
+        int p = x, e = x + n;
+        while( p < e ) {
+            Chunk c = getChunk( p / chunkSize, cy );
+            int len = Math.min( e, c.l + c.w ) - p;
+            System.arraycopy( c.data, ((y - c.t) * c.w) + p - c.l, dst, off + p - x, len );
+            p += len;
+        }
+        return dst;
+    }
+
+    private Chunk getChunk( int cx, int cy )
+    {
+        Chunk c = last;
+        if( c != null && c.cx == cx && c.cy == cy ) {
+            return c;
+        }
+
+        Integer key = (cy * chunksWide) + cx;
+        synchronized( chunks ) {
+            c = chunks.get( key );
+        }
+
+        if( c == null ) {
+            // Load outside of the lock so other threads are not blocked on I/O. Two threads may load the same chunk but only one is kept
+            Chunk n = load( cx, cy );
+            synchronized( chunks ) {
+                loadCount++;
+                c = chunks.get( key );
+                if( c == null ) {
+                    chunks.put( key, n );
+                    c = n;
+                }
+            }
+        }
+
+        last = c;
+        return c;
+    }
+
+    private Chunk load( int cx, int cy )
+    {
+        int l = cx * chunkSize, t = cy * chunkSize;
+        int cw = Math.min( chunkSize, w - l ), ch = Math.min( chunkSize, h - t );
+        double data[] = new double[cw * ch];
+        try {
+            source.read( l, t, cw, ch, data );
+        }
+        catch( IOException ex ) {
+            throw new UncheckedIOException( ex );
+        }
+        return new Chunk( cx, cy, l, t, cw, data );
+    }
+
+    private static final class Chunk
+    {
+
+        final int cx, cy, l, t, w;
+        final double data[];
+
+        Chunk( int cx, int cy, int l, int t, int w, double[] data )
+        {
+            this.cx = cx;
+            this.cy = cy;
+            this.l = l;
+            this.t = t;
+            this.w = w;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+
+/**
+ * A {@link Grid} whose values are held in contiguous row-major storage.
+ * <p>
+ * Unlike the generic {@link Grid} a DenseGrid supports bulk access to whole rows or regions so hot loops can work on primitive arrays rather than
+ * calling {@link #getValue(int, int)} for every cell.
+ *
+ * @author peter
+ */
+public interface DenseGrid
+        extends Grid
+{
+
+    /**
+     * Copy a row into an array
+     *
+     * @param y   row
+     * @param dst destination, must be at least {@link #getWidth()} in length
+     *
+     * @return dst
+     */
+    default double[] getRow( int y, double[] dst )
+    {
+        return getRow( y, 0, getWidth(), dst, 0 );
+    }
+
+    /**
+     * Copy part of a row into an array
+     *
+     * @param y   row
+     * @param x   first column
+     * @param n   number of columns
+     * @param dst destination
+     * @param off offset within dst to write the first value
+     *
+     * @return dst
+     */
+    double[] getRow( int y, int x, int n, double[] dst, int off );
+
+    /**
+     * Copy a rectangular region into an array in row-major order
+     *
+     * @param l   left of region
+     * @param t   top of region
+     * @param w   width of region
+     * @param h   height of region
+     * @param dst destination, must be at least w*h in length. If null a new array is allocated
+     *
+     * @return dst
+     *
+     * @throws IllegalArgumentException if the region is not fully contained within this grid
+     */
+    default double[] copyRegion( int l, int t, int w, int h, double[] dst )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        if( l < 0 || t < 0 || (l + w) > getWidth() || (t + h) > getHeight() ) {
+            throw new IllegalArgumentException( "Region is not contained within this grid" );
+        }
+        double d[] = dst == null ? new double[w * h] : dst;
+        for( int y = 0, off = 0; y < h; y++, off += w ) {
+            getRow( t + y, l, w, d, off );
+        }
+        return d;
+    }
+
+    /**
+     * Wrap an array as a DenseGrid. The array is not copied so changes to it will be visible in the grid.
+     *
+     * @param a array
+     * @param w width
+     * @param h height
+     *
+     * @return DenseGrid
+     *
+     * @throws IllegalArgumentException if (w*h) is greater than the length of the array or if w or h is less than 1
+     */
+    static DoubleGrid of( double[] a, int w, int h )
+    {
+        return new DoubleGrid( a, w, h );
+    }
+
+    /**
+     * Wrap an array as a DenseGrid. The array is not copied so changes to it will be visible in the grid.
+     *
+     * @param a array
+     * @param w width
+     * @param h height
+     *
+     * @return DenseGrid
+     *
+     * @throws IllegalArgumentException if (w*h) is greater than the length of the array or if w or h is less than 1
+     */
+    static FloatGrid of( float[] a, int w, int h )
+    {
+        return new FloatGrid( a, w, h );
+    }
+
+    /**
+     * Create an empty DenseGrid
+     *
+     * @param w width
+     * @param h height
+     *
+     * @return DenseGrid with all values 0
+     *
+     * @throws IllegalArgumentException if width or height is less than 1
+     */
+    static DoubleGrid create( int w, int h )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        return new DoubleGrid( new double[w * h], w, h );
+    }
+
+    /**
+     * Return a grid as a DenseGrid. If it already is one then it's returned as is, a {@link GridExpression} is materialised, otherwise a copy is made.
+     *
+     * @param g Grid
+     *
+     * @return DenseGrid
+     */
+    static DenseGrid of( Grid g )
+    {
+        Objects.requireNonNull( g );
+        if( g instanceof GridExpression ) {
+            return ((GridExpression) g).materialise();
+        }
+        return g instanceof DenseGrid ? (DenseGrid) g : copyOf( g );
+    }
+
+    /**
+     * Copy a grid into a new DenseGrid
+     *
+     * @param g Grid
+     *
+     * @return DenseGrid
+     */
+    static DoubleGrid copyOf( Grid g )
+    {
+        Objects.requireNonNull( g );
+        int w = g.getWidth(), h = g.getHeight();
+        double a[] = new double[w * h];
+        if( g instanceof DenseGrid ) {
+            ((DenseGrid) g).copyRegion( 0, 0, w, h, a );
+        }
+        else {
+            for( int y = 0, i = 0; y < h; y++ ) {
+                for( int x = 0; x < w; x++, i++ ) {
+                    a[i] = g.getValue( x, y );
+                }
+            }
+        }
+        return new DoubleGrid( a, w, h );
+    }
+}
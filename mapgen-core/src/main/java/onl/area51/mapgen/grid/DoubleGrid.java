@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A {@link DenseGrid} backed by a double array
+ *
+ * @author peter
+ */
+public final class DoubleGrid
+        implements DenseGrid
+{
+
+    private final double[] a;
+    private final int w, h;
+
+    DoubleGrid( double[] a, int w, int h )
+    {
+        Objects.requireNonNull( a );
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        if( ((long) w * h) > a.length ) {
+            throw new IllegalArgumentException( "Grid is larger than array size" );
+        }
+        this.a = a;
+        this.w = w;
+        this.h = h;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        return a[(y * w) + x];
+    }
+
+    /**
+     * Set the value at a specified point
+     *
+     * @param x
+     * @param y
+     * @param v
+     */
+    public void setValue( int x, int y, double v )
+    {
+        a[(y * w) + x] = v;
+    }
+
+    @Override
+    public double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        System.arraycopy( a, (y * w) + x, dst, off, n );
+        return dst;
+    }
+
+    /**
+     * Replace a row
+     *
+     * @param y   row
+     * @param src source, must be at least {@link #getWidth()} in length
+     */
+    public void setRow( int y, double[] src )
+    {
+        System.arraycopy( src, 0, a, y * w, w );
+    }
+
+    /**
+     * Set every value in this grid
+     *
+     * @param v value
+     */
+    public void fill( double v )
+    {
+        Arrays.fill( a, 0, w * h, v );
+    }
+
+    /**
+     * The underlying array. This is not a copy so changes to it will be visible in the grid.
+     *
+     * @return array in row-major order
+     */
+    public double[] array()
+    {
+        return a;
+    }
+
+}
@@ -17,10 +17,14 @@ package onl.area51.mapgen.grid;
 
 import java.util.Objects;
 import java.util.function.BiConsumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.IntPredicate;
 import java.util.function.ToDoubleBiFunction;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import onl.area51.mapgen.util.tile.TileReference;
 
 /**
  * A Grid consisting of a set of rows and columns which can be traversed
@@ -57,6 +61,34 @@ public interface Grid
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * The cells of this grid holding valid data.
+     * <p>
+     * Code processing every cell should skip those that are not valid using the mask rather than testing each value. Cells not valid in the mask read as
+     * NaN.
+     *
+     * @return mask, or null if there is no mask in which case missing data is indicated only by the values
+     */
+    default GridMask getMask()
+    {
+        return null;
+    }
+
+    /**
+     * A view of this grid with a mask
+     *
+     * @param mask mask of the same size as this grid
+     *
+     * @return grid whose cells not valid in the mask read as NaN
+     *
+     * @throws IllegalArgumentException if the mask is not the same size
+     */
+    default Grid withMask( GridMask mask )
+    {
+        Objects.requireNonNull( mask );
+        return new MaskedGrid( this, mask );
+    }
+
     /**
      * The value at a specified point
      *
@@ -137,7 +169,7 @@ public interface Grid
      */
     default Stream<GridDataPoint> dataStream( int z )
     {
-        return Grid.this.stream( z ).map( p -> GridDataPoint.of( p, getValue( p ) ) );
+        return GridSupport.dataStream( this, z, 0, getHeight(), null, 0, getWidth(), null );
     }
 
     /**
@@ -164,7 +196,7 @@ public interface Grid
      */
     default Stream<GridDataPoint> dataStream( int z, IntPredicate x, IntPredicate y )
     {
-        return GridSupport.stream( z, 0, getHeight(), y, 0, getWidth(), x ).map( p -> GridDataPoint.of( p, getValue( p ) ) );
+        return GridSupport.dataStream( this, z, 0, getHeight(), y, 0, getWidth(), x );
     }
 
     /**
@@ -191,7 +223,233 @@ public interface Grid
     }
 
     /**
-     * Return a subset of this grid
+     * Pass every cell within this grid to a consumer. Unlike {@link #forEach(java.util.function.BiConsumer)} or the streams this allocates nothing.
+     *
+     * @param action consumer
+     */
+    default void forEachCell( GridCellConsumer action )
+    {
+        GridSupport.forEachCell( this, 1, null, null, action );
+    }
+
+    /**
+     * Pass every step'th cell on each axis to a consumer. This is used to thin out the grid, e.g. at low zoom levels.
+     *
+     * @param step   step between cells, 1 for every cell
+     * @param action consumer
+     */
+    default void forEachCell( int step, GridCellConsumer action )
+    {
+        GridSupport.forEachCell( this, step, null, null, action );
+    }
+
+    /**
+     * Pass every cell that passes the axis filters to a consumer.
+     *
+     * @param x      filter of x axis
+     * @param y      filter of y axis
+     * @param action consumer
+     */
+    default void forEachCell( IntPredicate x, IntPredicate y, GridCellConsumer action )
+    {
+        GridSupport.forEachCell( this, 1, x, y, action );
+    }
+
+    /**
+     * Pass every step'th cell on each axis that passes the axis filters to a consumer.
+     *
+     * @param step   step between cells, 1 for every cell
+     * @param x      filter of x axis
+     * @param y      filter of y axis
+     * @param action consumer
+     */
+    default void forEachCell( int step, IntPredicate x, IntPredicate y, GridCellConsumer action )
+    {
+        GridSupport.forEachCell( this, step, x, y, action );
+    }
+
+    /**
+     * A reusable cursor over every cell in this grid
+     *
+     * @return cursor
+     */
+    default GridCursor cursor()
+    {
+        return new GridCursor( this, 0, 1, null, null );
+    }
+
+    /**
+     * A reusable cursor over this grid
+     *
+     * @param z    zoom, reported by the cursor
+     * @param step step between cells, 1 for every cell
+     * @param x    filter of x axis, null for all columns
+     * @param y    filter of y axis, null for all rows
+     *
+     * @return cursor
+     */
+    default GridCursor cursor( int z, int step, IntPredicate x, IntPredicate y )
+    {
+        return new GridCursor( this, z, step, x, y );
+    }
+
+    /**
+     * The summary statistics of this grid. These are calculated once and cached against this instance, so if the values of this grid are changed then
+     * {@link GridStatistics#invalidate(onl.area51.mapgen.grid.Grid)} must be called.
+     *
+     * @return statistics
+     */
+    default GridStatistics getStatistics()
+    {
+        return GridStatistics.of( this );
+    }
+
+    /**
+     * The summed-area table of this grid, for the sum or mean of any rectangle in constant time. This is built once and cached against this instance.
+     *
+     * @return table
+     */
+    default SummedAreaTable getSummedAreaTable()
+    {
+        return SummedAreaTable.of( this );
+    }
+
+    /**
+     * A lazy expression applying a function to every value in this grid
+     *
+     * @param op function
+     *
+     * @return expression
+     *
+     * @see GridExpression
+     */
+    default GridExpression map( DoubleUnaryOperator op )
+    {
+        return GridExpression.of( this ).map( op );
+    }
+
+    /**
+     * A lazy expression combining this grid with another of the same size
+     *
+     * @param other other grid
+     * @param op    function applied to the values from this grid and other
+     *
+     * @return expression
+     *
+     * @throws IllegalArgumentException if the grids are not the same size
+     * @see GridExpression
+     */
+    default GridExpression combine( Grid other, DoubleBinaryOperator op )
+    {
+        return GridExpression.of( this ).combine( other, op );
+    }
+
+    /**
+     * A lazy expression replacing values in this grid with NaN if they fail a predicate
+     *
+     * @param keep predicate, true to keep the value
+     *
+     * @return expression
+     *
+     * @see GridExpression
+     */
+    default GridExpression mask( DoublePredicate keep )
+    {
+        return GridExpression.of( this ).mask( keep );
+    }
+
+    /**
+     * A lazy expression replacing values in this grid with NaN if the value at the same location in another grid fails a predicate
+     *
+     * @param mask grid of the same size
+     * @param keep predicate applied to the mask, true to keep the value
+     *
+     * @return expression
+     *
+     * @throws IllegalArgumentException if the grids are not the same size
+     * @see GridExpression
+     */
+    default GridExpression mask( Grid mask, DoublePredicate keep )
+    {
+        return GridExpression.of( this ).mask( mask, keep );
+    }
+
+    /**
+     * A lazy expression limiting the values in this grid to a range
+     *
+     * @param min minimum value
+     * @param max maximum value
+     *
+     * @return expression
+     *
+     * @see GridExpression
+     */
+    default GridExpression clamp( double min, double max )
+    {
+        return GridExpression.of( this ).clamp( min, max );
+    }
+
+    /**
+     * A lazy expression replacing each value v with v*factor+offset, e.g. to convert units
+     *
+     * @param factor factor
+     * @param offset offset added after the factor
+     *
+     * @return expression
+     *
+     * @see GridExpression
+     */
+    default GridExpression scale( double factor, double offset )
+    {
+        return GridExpression.of( this ).scale( factor, offset );
+    }
+
+    /**
+     * Sample this grid between cells using bilinear interpolation
+     *
+     * @param x column, cell centres are at integer positions
+     * @param y row, cell centres are at integer positions
+     *
+     * @return value
+     */
+    default double sample( double x, double y )
+    {
+        return Interpolation.BILINEAR.sample( this, x, y );
+    }
+
+    /**
+     * Sample this grid between cells
+     *
+     * @param x             column, cell centres are at integer positions
+     * @param y             row, cell centres are at integer positions
+     * @param interpolation interpolation to use
+     *
+     * @return value
+     */
+    default double sample( double x, double y, Interpolation interpolation )
+    {
+        return interpolation.sample( this, x, y );
+    }
+
+    /**
+     * Resample this grid onto a Web Mercator tile
+     *
+     * @param tile          tile
+     * @param geometry      layout of this grid
+     * @param interpolation interpolation to use
+     *
+     * @return TILE_SIZE*TILE_SIZE values in row-major order, NaN where the tile is outside of this grid
+     *
+     * @see GridResampler
+     */
+    default double[] resampleToTile( TileReference tile, GridGeometry geometry, Interpolation interpolation )
+    {
+        return GridResampler.of( geometry, interpolation ).resampleToTile( this, tile, null );
+    }
+
+    /**
+     * Return a subset of this grid. The subset is a view, so changes to this grid are visible through it. Subsets of subsets read directly from the
+     * original grid.
      *
      * @param l left of subset
      * @param t top of subset
@@ -210,28 +468,7 @@ public interface Grid
         if( l < 0 || t < 0 || (l + w) > getWidth() || (t + h) > getHeight() ) {
             throw new IllegalArgumentException( "Grid subset is not contained within this grid" );
         }
-        Grid parent = this;
-        return new Grid()
-        {
-            @Override
-            public int getWidth()
-            {
-                return w;
-            }
-
-            @Override
-            public int getHeight()
-            {
-                return h;
-            }
-
-            @Override
-            public double getValue( int x, int y )
-            {
-                return parent.getValue( l + x, t + y );
-            }
-
-        };
+        return SubsetGrid.of( this, l, t, w, h );
     }
 
     /**
@@ -309,6 +546,8 @@ public interface Grid
 
     /**
      * Creates a Grid with data from a single dimensioned array.
+     * <p>
+     * The array is not copied, the returned grid is a {@link DenseGrid} wrapping it.
      *
      * @param a array
      * @param w width
@@ -320,39 +559,7 @@ public interface Grid
      */
     static Grid of( double[] a, int w, int h )
     {
-        Objects.requireNonNull( a );
-        if( w < 1 || h < 1 ) {
-            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
-        }
-        if( (w * h) > a.length ) {
-            throw new IllegalArgumentException( "Grid is larger than array size" );
-        }
-        return new Grid()
-        {
-
-            @Override
-            public int getWidth()
-            {
-                return w;
-            }
-
-            @Override
-            public int getHeight()
-            {
-                return h;
-            }
-
-            @Override
-            public double getValue( int x, int y )
-            {
-                int i = (y * w) + x;
-                if( i < 0 || i >= a.length ) {
-                    throw new ArrayIndexOutOfBoundsException( "Index " + i + " out of bounds 0<=i<" + a.length );
-                }
-                return a[i];
-            }
-
-        };
+        return DenseGrid.of( a, w, h );
     }
 
     /**
@@ -413,6 +620,8 @@ public interface Grid
 
     /**
      * Creates a Grid with data from a single dimensioned array.
+     * <p>
+     * The array is not copied, the returned grid is a {@link DenseGrid} wrapping it.
      *
      * @param a array
      * @param w width
@@ -424,39 +633,7 @@ public interface Grid
      */
     static Grid of( float[] a, int w, int h )
     {
-        Objects.requireNonNull( a );
-        if( w < 1 || h < 1 ) {
-            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
-        }
-        if( (w * h) > a.length ) {
-            throw new IllegalArgumentException( "Grid is larger than array size" );
-        }
-        return new Grid()
-        {
-
-            @Override
-            public int getWidth()
-            {
-                return w;
-            }
-
-            @Override
-            public int getHeight()
-            {
-                return h;
-            }
-
-            @Override
-            public double getValue( int x, int y )
-            {
-                int i = (y * w) + x;
-                if( i < 0 || i >= a.length ) {
-                    throw new ArrayIndexOutOfBoundsException( "Index " + i + " out of bounds 0<=i<" + a.length );
-                }
-                return a[i];
-            }
-
-        };
+        return DenseGrid.of( a, w, h );
     }
 
     /**
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A min/max quadtree over the values of a {@link Grid}.
+ * <p>
+ * The grid is divided into square blocks and the range of values within each block recorded. Blocks are then merged 2x2 into coarser levels up to a
+ * single root, so finding every block whose range spans a value only descends into quadrants that can contain it. Contouring uses this to skip whole
+ * blocks that no contour level can cross.
+ * <p>
+ * Each block includes the row and column following it, so any cell, or edge between two cells, whose top left corner is within a block has all of its
+ * corners within that block's range. NaN values are ignored but all other values, including missing data sentinels, are included.
+ * <p>
+ * Use {@link #of(onl.area51.mapgen.grid.Grid)} to obtain the index for a grid as it is cached against the grid instance.
+ *
+ * @author peter
+ */
+public final class GridBlockIndex
+{
+
+    /**
+     * The default block size
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private static final GridCache<GridBlockIndex> CACHE = GridCache.create( g -> new GridBlockIndex( g, DEFAULT_BLOCK_SIZE ) );
+
+    /**
+     * Receives the block coordinates of matching blocks
+     */
+    @FunctionalInterface
+    public static interface BlockConsumer
+    {
+
+        void accept( int bx, int by );
+    }
+
+    private final int blockSize;
+    /**
+     * Width and height of each level, level 0 being the blocks
+     */
+    private final int[] ws, hs;
+    private final double[][] mins, maxs;
+
+    private GridBlockIndex( Grid grid, int blockSize )
+    {
+        this.blockSize = blockSize;
+        int w = grid.getWidth(), h = grid.getHeight();
+        int bw = (w + blockSize - 1) / blockSize, bh = (h + blockSize - 1) / blockSize;
+
+        int levels = 1;
+        for( int s = Math.max( bw, bh ); s > 1; s = (s + 1) >> 1 ) {
+            levels++;
+        }
+        ws = new int[levels];
+        hs = new int[levels];
+        mins = new double[levels][];
+        maxs = new double[levels][];
+
+        ws[0] = bw;
+        hs[0] = bh;
+        double min[] = new double[bw * bh], max[] = new double[bw * bh];
+        mins[0] = min;
+        maxs[0] = max;
+        DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        IntStream.range( 0, bh )
+                .parallel()
+                .forEach( by -> {
+                    double row[] = new double[w];
+                    int base = by * bw;
+                    for( int i = base; i < base + bw; i++ ) {
+                        min[i] = Double.POSITIVE_INFINITY;
+                        max[i] = Double.NEGATIVE_INFINITY;
+                    }
+                    for( int y = by * blockSize, ye = Math.min( h, y + blockSize + 1 ); y < ye; y++ ) {
+                        if( dense != null ) {
+                            dense.getRow( y, row );
+                        }
+                        else {
+                            for( int x = 0; x < w; x++ ) {
+                                row[x] = grid.getValue( x, y );
+                            }
+                        }
+                        for( int bx = 0; bx < bw; bx++ ) {
+                            double mn = min[base + bx], mx = max[base + bx];
+                            for( int x = bx * blockSize, xe = Math.min( w, x + blockSize + 1 ); x < xe; x++ ) {
+                                double v = row[x];
+                                // NaN fails both tests
+                                if( v < mn ) {
+                                    mn = v;
+                                }
+                                if( v > mx ) {
+                                    mx = v;
+                                }
+                            }
+                            min[base + bx] = mn;
+                            max[base + bx] = mx;
+                        }
+                    }
+                } );
+
+        for( int l = 1; l < levels; l++ ) {
+            int pw = ws[l - 1], ph = hs[l - 1];
+            int lw = (pw + 1) >> 1, lh = (ph + 1) >> 1;
+            double pmin[] = mins[l - 1], pmax[] = maxs[l - 1];
+            double lmin[] = new double[lw * lh], lmax[] = new double[lw * lh];
+            for( int y = 0; y < lh; y++ ) {
+                for( int x = 0; x < lw; x++ ) {
+                    double mn = Double.POSITIVE_INFINITY, mx = Double.NEGATIVE_INFINITY;
+                    for( int cy = y << 1, cye = Math.min( ph, cy + 2 ); cy < cye; cy++ ) {
+                        for( int cx = x << 1, cxe = Math.min( pw, cx + 2 ); cx < cxe; cx++ ) {
+                            mn = Math.min( mn, pmin[(cy * pw) + cx] );
+                            mx = Math.max( mx, pmax[(cy * pw) + cx] );
+                        }
+                    }
+                    lmin[(y * lw) + x] = mn;
+                    lmax[(y * lw) + x] = mx;
+                }
+            }
+            ws[l] = lw;
+            hs[l] = lh;
+            mins[l] = lmin;
+            maxs[l] = lmax;
+        }
+    }
+
+    /**
+     * Get the index of a grid with the default block size. This is built once and then cached for as long as the grid is reachable.
+     *
+     * @param grid Grid
+     *
+     * @return index
+     */
+    public static GridBlockIndex of( Grid grid )
+    {
+        return CACHE.get( grid );
+    }
+
+    /**
+     * Remove the cached index, and everything else cached against a grid. This must be called if the values in a mutable grid are changed.
+     *
+     * @param grid Grid
+     */
+    public static void invalidate( Grid grid )
+    {
+        GridCache.invalidate( grid );
+    }
+
+    /**
+     * Build an index without using the cache
+     *
+     * @param grid      Grid
+     * @param blockSize width and height of each block
+     *
+     * @return index
+     */
+    public static GridBlockIndex create( Grid grid, int blockSize )
+    {
+        Objects.requireNonNull( grid );
+        if( blockSize < 1 ) {
+            throw new IllegalArgumentException( "Block size must be >=1" );
+        }
+        return new GridBlockIndex( grid, blockSize );
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * The number of blocks across the grid
+     *
+     * @return
+     */
+    public int getBlocksWide()
+    {
+        return ws[0];
+    }
+
+    /**
+     * The number of blocks down the grid
+     *
+     * @return
+     */
+    public int getBlocksHigh()
+    {
+        return hs[0];
+    }
+
+    /**
+     * The minimum value within a block
+     *
+     * @param bx block column
+     * @param by block row
+     *
+     * @return minimum, positive infinity if the block has no values
+     */
+    public double getMin( int bx, int by )
+    {
+        return mins[0][(by * ws[0]) + bx];
+    }
+
+    /**
+     * The maximum value within a block
+     *
+     * @param bx block column
+     * @param by block row
+     *
+     * @return maximum, negative infinity if the block has no values
+     */
+    public double getMax( int bx, int by )
+    {
+        return maxs[0][(by * ws[0]) + bx];
+    }
+
+    /**
+     * Does the range of a block intersect a range of values
+     *
+     * @param bx block column
+     * @param by block row
+     * @param lo lowest value
+     * @param hi highest value
+     *
+     * @return
+     */
+    public boolean spans( int bx, int by, double lo, double hi )
+    {
+        int i = (by * ws[0]) + bx;
+        return mins[0][i] <= hi && maxs[0][i] >= lo;
+    }
+
+    /**
+     * Find every block whose range contains a value
+     *
+     * @param v      value
+     * @param action consumer of matching blocks
+     */
+    public void forEachBlock( double v, BlockConsumer action )
+    {
+        forEachBlock( v, v, action );
+    }
+
+    /**
+     * Find every block whose range intersects a range of values
+     *
+     * @param lo     lowest value
+     * @param hi     highest value
+     * @param action consumer of matching blocks
+     */
+    public void forEachBlock( double lo, double hi, BlockConsumer action )
+    {
+        visit( mins.length - 1, 0, 0, lo, hi, 0, hs[0], action );
+    }
+
+    /**
+     * Find every block within a band of block rows whose range intersects a range of values
+     *
+     * @param lo     lowest value
+     * @param hi     highest value
+     * @param by0    first block row
+     * @param by1    end block row (exclusive)
+     * @param action consumer of matching blocks
+     */
+    public void forEachBlock( double lo, double hi, int by0, int by1, BlockConsumer action )
+    {
+        visit( mins.length - 1, 0, 0, lo, hi, Math.max( 0, by0 ), Math.min( hs[0], by1 ), action );
+    }
+
+    private void visit( int l, int x, int y, double lo, double hi, int by0, int by1, BlockConsumer action )
+    {
+        int i = (y * ws[l]) + x;
+        if( mins[l][i] > hi || maxs[l][i] < lo || (y << l) >= by1 || ((y + 1) << l) <= by0 ) {
+            return;
+        }
+        if( l == 0 ) {
+            action.accept( x, y );
+            return;
+        }
+        int cl = l - 1;
+        for( int cy = y << 1, cye = Math.min( hs[cl], cy + 2 ); cy < cye; cy++ ) {
+            for( int cx = x << 1, cxe = Math.min( ws[cl], cx + 2 ); cx < cxe; cx++ ) {
+                visit( cl, cx, cy, lo, hi, by0, by1, action );
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A cache of something derived from a grid, such as its statistics, held against the grid instance for as long as the grid is reachable.
+ * <p>
+ * A cache cannot see changes to the values of a mutable grid so {@link #invalidate(onl.area51.mapgen.grid.Grid)} removes everything derived from a
+ * grid from every cache at once.
+ *
+ * @author peter
+ * @param <T> type of value
+ */
+final class GridCache<T>
+{
+
+    private static final List<GridCache<?>> CACHES = new CopyOnWriteArrayList<>();
+
+    private final Map<Grid, Object> cache = Collections.synchronizedMap( new WeakHashMap<>() );
+    private final Function<Grid, T> factory;
+    private final boolean weak;
+
+    private GridCache( Function<Grid, T> factory, boolean weak )
+    {
+        this.factory = factory;
+        this.weak = weak;
+        CACHES.add( this );
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param <T>     type of value
+     * @param factory creates the value for a grid
+     *
+     * @return cache
+     */
+    static <T> GridCache<T> create( Function<Grid, T> factory )
+    {
+        return new GridCache<>( factory, false );
+    }
+
+    /**
+     * Create a cache which holds its values weakly. This is required if a value references its grid, as otherwise the grid would never be released.
+     *
+     * @param <T>     type of value
+     * @param factory creates the value for a grid
+     *
+     * @return cache
+     */
+    static <T> GridCache<T> weak( Function<Grid, T> factory )
+    {
+        return new GridCache<>( factory, true );
+    }
+
+    /**
+     * Get the value for a grid, creating it if required
+     *
+     * @param grid Grid
+     *
+     * @return value
+     */
+    T get( Grid grid )
+    {
+        Objects.requireNonNull( grid );
+        T v = unwrap( cache.get( grid ) );
+        if( v == null ) {
+            // Calculate outside of the lock, a duplicate calculation is harmless
+            v = factory.apply( grid );
+            synchronized( cache ) {
+                T e = unwrap( cache.get( grid ) );
+                if( e != null ) {
+                    return e;
+                }
+                cache.put( grid, weak ? new WeakReference<>( v ) : v );
+            }
+        }
+        return v;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private T unwrap( Object o )
+    {
+        return (T) (o instanceof WeakReference ? ((WeakReference<?>) o).get() : o);
+    }
+
+    /**
+     * Remove everything cached against a grid
+     *
+     * @param grid Grid
+     */
+    static void invalidate( Grid grid )
+    {
+        for( GridCache<?> c : CACHES ) {
+            c.cache.remove( grid );
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * Receives the location and value of a cell within a {@link Grid} without boxing either.
+ *
+ * @author peter
+ */
+@FunctionalInterface
+public interface GridCellConsumer
+{
+
+    /**
+     * Accept a cell
+     *
+     * @param x column
+     * @param y row
+     * @param v value at this cell
+     */
+    void accept( int x, int y, double v );
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A reusable, mutable cursor over the cells of a {@link Grid}.
+ * <p>
+ * A cursor allocates nothing as it moves so a full pass over a grid creates no garbage. As the cursor is itself the {@link GridDataPoint} it must not
+ * be retained once {@link #next()} has been called again.
+ * <pre>
+ * GridCursor c = grid.cursor();
+ * while( c.next() ) {
+ *     sum += c.getValue();
+ * }
+ * </pre>
+ * <p>
+ * This is the one traversal of a grid, {@link Grid#forEachCell(onl.area51.mapgen.grid.GridCellConsumer)} and the streams are built on it.
+ *
+ * @author peter
+ */
+public final class GridCursor
+        implements GridDataPoint
+{
+
+    private final Grid grid;
+    private final int z;
+    private final int step;
+    private final int xs, xe;
+    private final IntPredicate xf;
+    private int ys;
+    private final int ye;
+    private final IntPredicate yf;
+    private int x, y;
+    private boolean rowValid;
+    private double value;
+
+    /**
+     * Create a cursor
+     *
+     * @param grid Grid to traverse
+     * @param z    zoom, used only by {@link #getZ()}
+     * @param step visit every step'th row and column, 1 for every cell
+     * @param xf   filter of x axis, null for all columns
+     * @param yf   filter of y axis, null for all rows
+     */
+    GridCursor( Grid grid, int z, int step, IntPredicate xf, IntPredicate yf )
+    {
+        this( grid, z, step, 0, grid.getWidth(), xf, 0, grid.getHeight(), yf );
+    }
+
+    /**
+     * Create a cursor over a rectangle of cells
+     *
+     * @param grid Grid to read values from, null for a cursor over locations only whose value is always NaN
+     * @param z    zoom, used only by {@link #getZ()}
+     * @param step visit every step'th row and column, 1 for every cell
+     * @param xs   start of x range
+     * @param xe   end (exclusive) of x range
+     * @param xf   filter of x axis, null for all columns
+     * @param ys   start of y range
+     * @param ye   end (exclusive) of y range
+     * @param yf   filter of y axis, null for all rows
+     */
+    GridCursor( Grid grid, int z, int step, int xs, int xe, IntPredicate xf, int ys, int ye, IntPredicate yf )
+    {
+        if( step < 1 ) {
+            throw new IllegalArgumentException( "Step must be >=1" );
+        }
+        this.grid = grid;
+        this.z = z;
+        this.step = step;
+        this.xs = xs;
+        this.xe = xe;
+        this.xf = xf;
+        this.ys = ys;
+        this.ye = ye;
+        this.yf = yf;
+        reset();
+    }
+
+    /**
+     * Reset the cursor so that the next call to {@link #next()} moves to the first cell
+     */
+    public void reset()
+    {
+        x = xs - step;
+        y = ys - step;
+        rowValid = false;
+        value = Double.NaN;
+    }
+
+    /**
+     * Move to the next cell
+     *
+     * @return true if the cursor is on a cell, false if there are no more cells
+     */
+    public boolean next()
+    {
+        while( true ) {
+            if( rowValid ) {
+                for( x += step; x < xe; x += step ) {
+                    if( xf == null || xf.test( x ) ) {
+                        value = grid == null ? Double.NaN : grid.getValue( x, y );
+                        return true;
+                    }
+                }
+            }
+            if( y >= ye - step ) {
+                y = Math.max( y, ye );
+                rowValid = false;
+                return false;
+            }
+            y += step;
+            x = xs - step;
+            rowValid = yf == null || yf.test( y );
+        }
+    }
+
+    /**
+     * Split off the first half of the rows of a cursor which has not yet moved
+     *
+     * @return cursor over the first half of the rows, this cursor then covering the rest, or null if this cursor has moved or has only one row
+     */
+    GridCursor trySplit()
+    {
+        int rows = count( ys, ye );
+        if( y >= ys || rows < 2 ) {
+            return null;
+        }
+        int mid = ys + ((rows >>> 1) * step);
+        GridCursor prefix = new GridCursor( grid, z, step, xs, xe, xf, ys, mid, yf );
+        ys = mid;
+        reset();
+        return prefix;
+    }
+
+    /**
+     * The number of cells still to be visited, ignoring the filters
+     *
+     * @return number of cells
+     */
+    long remaining()
+    {
+        long cols = count( xs, xe );
+        if( y < ys ) {
+            return count( ys, ye ) * cols;
+        }
+        long r = count( y + step, ye ) * cols;
+        if( rowValid ) {
+            r += count( x + step, xe );
+        }
+        return r;
+    }
+
+    /**
+     * Is a filter applied on either axis
+     *
+     * @return true if {@link #remaining()} is only an upper bound
+     */
+    boolean isFiltered()
+    {
+        return xf != null || yf != null;
+    }
+
+    private int count( int from, int to )
+    {
+        return from < to ? ((to - from) + step - 1) / step : 0;
+    }
+
+    @Override
+    public int getZ()
+    {
+        return z;
+    }
+
+    @Override
+    public int getX()
+    {
+        return x;
+    }
+
+    @Override
+    public int getY()
+    {
+        return y;
+    }
+
+    @Override
+    public double getValue()
+    {
+        return value;
+    }
+
+}
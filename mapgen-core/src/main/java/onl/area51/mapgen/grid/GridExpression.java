@@ -0,0 +1,513 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * A lazily evaluated grid derived from one or more other grids.
+ * <p>
+ * Expressions are built with {@link Grid#map(java.util.function.DoubleUnaryOperator)},
+ * {@link Grid#combine(onl.area51.mapgen.grid.Grid, java.util.function.DoubleBinaryOperator)}, {@link Grid#mask(java.util.function.DoublePredicate)}
+ * and {@link Grid#clamp(double, double)} and form a tree of operators. Nothing is calculated until a value is requested, at which point the whole tree
+ * is evaluated a row at a time into a single buffer so no intermediate grids are created. For example wind speed from the U and V components:
+ * <pre>
+ * Grid speed = u.combine( v, GridOperator.HYPOT );
+ * </pre>
+ * {@link #scale(double, double)}, {@link #clamp(double, double)} and combining with a {@link GridOperator} run through {@link GridKernels} so are
+ * vectorised where the JVM supports it, arbitrary operators are applied one value at a time.
+ * <p>
+ * If the result is going to be read many times then {@link #materialise()} it, after which the expression reads from the cached result.
+ *
+ * @author peter
+ */
+public abstract class GridExpression
+        implements DenseGrid
+{
+
+    private final int w, h;
+    private volatile DoubleGrid materialised;
+    private volatile GridMask mask;
+    private volatile boolean maskResolved;
+
+    GridExpression( int w, int h )
+    {
+        this.w = w;
+        this.h = h;
+    }
+
+    /**
+     * An expression of a grid. If the grid is already an expression it is returned as is.
+     *
+     * @param grid Grid
+     *
+     * @return expression
+     */
+    public static GridExpression of( Grid grid )
+    {
+        Objects.requireNonNull( grid );
+        return grid instanceof GridExpression ? (GridExpression) grid : new Source( grid );
+    }
+
+    @Override
+    public final int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public final int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public final double getValue( int x, int y )
+    {
+        DoubleGrid m = materialised;
+        return m == null ? eval( x, y ) : m.getValue( x, y );
+    }
+
+    @Override
+    public final double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        DoubleGrid m = materialised;
+        if( m == null ) {
+            evalRow( y, x, n, dst, off );
+        }
+        else {
+            m.getRow( y, x, n, dst, off );
+        }
+        return dst;
+    }
+
+    /**
+     * The mask of an expression combines the masks of the grids it is derived from, so a cell is only valid if it is valid in all of them
+     *
+     * @return mask, null if none of the grids have a mask
+     */
+    @Override
+    public final GridMask getMask()
+    {
+        if( !maskResolved ) {
+            mask = resolveMask();
+            maskResolved = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Resolve the mask of this node from its operands
+     *
+     * @return mask or null
+     */
+    abstract GridMask resolveMask();
+
+    /**
+     * Evaluate a single cell
+     *
+     * @param x
+     * @param y
+     *
+     * @return value
+     */
+    abstract double eval( int x, int y );
+
+    /**
+     * Evaluate part of a row into a buffer
+     *
+     * @param y   row
+     * @param x   first column
+     * @param n   number of columns
+     * @param dst destination
+     * @param off offset in dst of first column
+     */
+    abstract void evalRow( int y, int x, int n, double[] dst, int off );
+
+    /**
+     * Has this expression been materialised
+     *
+     * @return true if materialised
+     */
+    public final boolean isMaterialised()
+    {
+        return materialised != null;
+    }
+
+    /**
+     * Evaluate this expression in parallel into a {@link DoubleGrid}. The result is cached so subsequent calls, and reads from this expression, will use
+     * it.
+     *
+     * @return materialised grid
+     */
+    public final DoubleGrid materialise()
+    {
+        return materialise( true );
+    }
+
+    /**
+     * Evaluate this expression into a {@link DoubleGrid}. The result is cached so subsequent calls, and reads from this expression, will use it.
+     *
+     * @param parallel true to evaluate rows in parallel
+     *
+     * @return materialised grid
+     */
+    public final DoubleGrid materialise( boolean parallel )
+    {
+        DoubleGrid m = materialised;
+        if( m == null ) {
+            synchronized( this ) {
+                m = materialised;
+                if( m == null ) {
+                    DoubleGrid g = DenseGrid.create( w, h );
+                    double a[] = g.array();
+                    IntStream rows = IntStream.range( 0, h );
+                    (parallel ? rows.parallel() : rows).forEach( y -> evalRow( y, 0, w, a, y * w ) );
+                    materialised = m = g;
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Reduce every value in this expression to a single value without materialising it.
+     *
+     * @param identity identity value of op
+     * @param op       associative operator as rows are reduced in parallel
+     *
+     * @return result
+     */
+    public final double reduce( double identity, DoubleBinaryOperator op )
+    {
+        return IntStream.range( 0, h )
+                .parallel()
+                .mapToDouble( y -> {
+                    double row[] = getRow( y, new double[w] );
+                    double r = identity;
+                    for( int x = 0; x < w; x++ ) {
+                        r = op.applyAsDouble( r, row[x] );
+                    }
+                    return r;
+                } )
+                .reduce( identity, op );
+    }
+
+    @Override
+    public GridExpression map( DoubleUnaryOperator op )
+    {
+        return new Unary( this, op );
+    }
+
+    @Override
+    public GridExpression combine( Grid other, DoubleBinaryOperator op )
+    {
+        return new Combine( this, of( other ), op );
+    }
+
+    @Override
+    public GridExpression mask( DoublePredicate keep )
+    {
+        return new Mask( this, null, keep );
+    }
+
+    @Override
+    public GridExpression mask( Grid mask, DoublePredicate keep )
+    {
+        return new Mask( this, of( mask ), keep );
+    }
+
+    @Override
+    public GridExpression clamp( double min, double max )
+    {
+        if( min > max ) {
+            throw new IllegalArgumentException( "Min must be <= max" );
+        }
+        return new Clamp( this, min, max );
+    }
+
+    @Override
+    public GridExpression scale( double factor, double offset )
+    {
+        return new Scale( this, factor, offset );
+    }
+
+    private static void checkSize( Grid a, Grid b )
+    {
+        if( a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight() ) {
+            throw new IllegalArgumentException( "Grids must be the same size" );
+        }
+    }
+
+    /**
+     * Leaf of an expression
+     */
+    private static final class Source
+            extends GridExpression
+    {
+
+        private final Grid grid;
+
+        Source( Grid grid )
+        {
+            super( grid.getWidth(), grid.getHeight() );
+            this.grid = grid;
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            return grid.getMask();
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            return grid.getValue( x, y );
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            if( grid instanceof DenseGrid ) {
+                ((DenseGrid) grid).getRow( y, x, n, dst, off );
+            }
+            else {
+                for( int i = 0; i < n; i++ ) {
+                    dst[off + i] = grid.getValue( x + i, y );
+                }
+            }
+        }
+    }
+
+    private static final class Unary
+            extends GridExpression
+    {
+
+        private final GridExpression src;
+        private final DoubleUnaryOperator op;
+
+        Unary( GridExpression src, DoubleUnaryOperator op )
+        {
+            super( src.getWidth(), src.getHeight() );
+            this.src = src;
+            this.op = Objects.requireNonNull( op );
+        }
+
+        @Override
+        public GridExpression map( DoubleUnaryOperator op )
+        {
+            // Fuse consecutive maps into a single node
+            return isMaterialised() ? super.map( op ) : new Unary( src, this.op.andThen( op ) );
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            return src.getMask();
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            return op.applyAsDouble( src.getValue( x, y ) );
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            src.getRow( y, x, n, dst, off );
+            for( int i = off, e = off + n; i < e; i++ ) {
+                dst[i] = op.applyAsDouble( dst[i] );
+            }
+        }
+    }
+
+    private static final class Clamp
+            extends GridExpression
+    {
+
+        private final GridExpression src;
+        private final double min, max;
+
+        Clamp( GridExpression src, double min, double max )
+        {
+            super( src.getWidth(), src.getHeight() );
+            this.src = src;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            return src.getMask();
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            double v = src.getValue( x, y );
+            return v < min ? min : v > max ? max : v;
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            src.getRow( y, x, n, dst, off );
+            GridKernels.getInstance().clamp( dst, off, n, min, max );
+        }
+    }
+
+    private static final class Scale
+            extends GridExpression
+    {
+
+        private final GridExpression src;
+        private final double factor, offset;
+
+        Scale( GridExpression src, double factor, double offset )
+        {
+            super( src.getWidth(), src.getHeight() );
+            this.src = src;
+            this.factor = factor;
+            this.offset = offset;
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            return src.getMask();
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            return src.getValue( x, y ) * factor + offset;
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            src.getRow( y, x, n, dst, off );
+            GridKernels.getInstance().scale( dst, off, n, factor, offset );
+        }
+    }
+
+    private static final class Combine
+            extends GridExpression
+    {
+
+        private final GridExpression a, b;
+        private final DoubleBinaryOperator op;
+        private final Scratch scratch = new Scratch();
+
+        Combine( GridExpression a, GridExpression b, DoubleBinaryOperator op )
+        {
+            super( a.getWidth(), a.getHeight() );
+            checkSize( a, b );
+            this.a = a;
+            this.b = b;
+            this.op = Objects.requireNonNull( op );
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            return GridMask.and( a.getMask(), b.getMask() );
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            return op.applyAsDouble( a.getValue( x, y ), b.getValue( x, y ) );
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            a.getRow( y, x, n, dst, off );
+            double t[] = b.getRow( y, x, n, scratch.get( n ), 0 );
+            if( op instanceof GridOperator ) {
+                GridKernels.getInstance().apply( (GridOperator) op, dst, off, t, 0, n );
+            }
+            else {
+                for( int i = 0; i < n; i++ ) {
+                    dst[off + i] = op.applyAsDouble( dst[off + i], t[i] );
+                }
+            }
+        }
+    }
+
+    private static final class Mask
+            extends GridExpression
+    {
+
+        private final GridExpression src, mask;
+        private final DoublePredicate keep;
+        private final Scratch scratch = new Scratch();
+
+        Mask( GridExpression src, GridExpression mask, DoublePredicate keep )
+        {
+            super( src.getWidth(), src.getHeight() );
+            if( mask != null ) {
+                checkSize( src, mask );
+            }
+            this.src = src;
+            this.mask = mask;
+            this.keep = Objects.requireNonNull( keep );
+        }
+
+        @Override
+        GridMask resolveMask()
+        {
+            // Cells removed by the predicate are only known by evaluating it so remain valid in the mask, reading as NaN
+            return src.getMask();
+        }
+
+        @Override
+        double eval( int x, int y )
+        {
+            double v = src.getValue( x, y );
+            return keep.test( mask == null ? v : mask.getValue( x, y ) ) ? v : Double.NaN;
+        }
+
+        @Override
+        void evalRow( int y, int x, int n, double[] dst, int off )
+        {
+            src.getRow( y, x, n, dst, off );
+            if( mask == null ) {
+                for( int i = off, e = off + n; i < e; i++ ) {
+                    if( !keep.test( dst[i] ) ) {
+                        dst[i] = Double.NaN;
+                    }
+                }
+            }
+            else {
+                double m[] = mask.getRow( y, x, n, scratch.get( n ), 0 );
+                for( int i = 0; i < n; i++ ) {
+                    if( !keep.test( m[i] ) ) {
+                        dst[off + i] = Double.NaN;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Smoothing filters for grids, e.g. to remove noise from a field before contouring it.
+ * <p>
+ * Gaussian and box filters are separable so are applied as a pass along each row followed by one down each column. Both passes run in parallel over
+ * bands of rows, each thread reusing its own scratch buffers between bands and calls. Missing values, i.e. NaN, missing or masked cells, are excluded from the filter with the
+ * remaining weights renormalised, and remain missing in the result. Cells near the edges of the grid use only the part of the kernel within the grid.
+ *
+ * @author peter
+ */
+public class GridFilters
+{
+
+    /**
+     * Target number of cells processed by a single band
+     */
+    private static final int BAND_CELLS = 1 << 16;
+
+    /**
+     * Rows being worked on by a band
+     */
+    private static final Scratch ROWS = new Scratch();
+
+    /**
+     * The window of values for a median
+     */
+    private static final Scratch WINDOW = new Scratch();
+
+    private GridFilters()
+    {
+    }
+
+    /**
+     * A normalised gaussian kernel, extending to 3 standard deviations either side
+     *
+     * @param σ standard deviation in cells
+     *
+     * @return kernel of odd length
+     */
+    public static double[] gaussianKernel( double σ )
+    {
+        if( !(σ > 0.0) ) {
+            throw new IllegalArgumentException( "Standard deviation must be >0" );
+        }
+        int r = (int) Math.ceil( 3.0 * σ );
+        double k[] = new double[(2 * r) + 1];
+        double s = 0.0;
+        for( int i = -r; i <= r; i++ ) {
+            s += k[i + r] = Math.exp( -(i * i) / (2.0 * σ * σ) );
+        }
+        for( int i = 0; i < k.length; i++ ) {
+            k[i] /= s;
+        }
+        return k;
+    }
+
+    /**
+     * A normalised box kernel
+     *
+     * @param r radius in cells
+     *
+     * @return kernel of length 2r+1
+     */
+    public static double[] boxKernel( int r )
+    {
+        if( r < 0 ) {
+            throw new IllegalArgumentException( "Radius must be >=0" );
+        }
+        double k[] = new double[(2 * r) + 1];
+        Arrays.fill( k, 1.0 / k.length );
+        return k;
+    }
+
+    /**
+     * Apply a gaussian filter
+     *
+     * @param src Grid
+     * @param σ   standard deviation in cells
+     *
+     * @return filtered grid
+     */
+    public static DoubleGrid gaussian( Grid src, double σ )
+    {
+        return convolve( src, gaussianKernel( σ ), null );
+    }
+
+    /**
+     * Apply a box, or moving average, filter
+     *
+     * @param src Grid
+     * @param r   radius in cells
+     *
+     * @return filtered grid
+     */
+    public static DoubleGrid box( Grid src, int r )
+    {
+        return convolve( src, boxKernel( r ), null );
+    }
+
+    /**
+     * Apply a separable filter, the same kernel being used along both axes
+     *
+     * @param src    Grid
+     * @param kernel kernel of odd length, centred on the middle element
+     * @param dst    destination of the same size as src, null to create one. This may not be src.
+     *
+     * @return dst
+     */
+    public static DoubleGrid convolve( Grid src, double[] kernel, DoubleGrid dst )
+    {
+        return convolve( src, kernel, dst, null );
+    }
+
+    /**
+     * Apply a separable filter, the same kernel being used along both axes, reusing a buffer for the result of the first pass. This avoids allocating
+     * a buffer the size of the grid on each call when filtering many grids of the same size.
+     *
+     * @param src     Grid
+     * @param kernel  kernel of odd length, centred on the middle element
+     * @param dst     destination of the same size as src, null to create one. This may not be src.
+     * @param scratch buffer of at least as many values as there are cells in src, null to create one. Its contents are overwritten.
+     *
+     * @return dst
+     */
+    public static DoubleGrid convolve( Grid src, double[] kernel, DoubleGrid dst, double[] scratch )
+    {
+        Objects.requireNonNull( src );
+        Objects.requireNonNull( kernel );
+        if( (kernel.length & 1) == 0 ) {
+            throw new IllegalArgumentException( "Kernel length must be odd" );
+        }
+        DoubleGrid out = target( src, dst );
+        int w = src.getWidth(), h = src.getHeight(), r = kernel.length >> 1;
+        if( scratch != null && scratch.length < ((long) w * h) ) {
+            throw new IllegalArgumentException( "Scratch buffer must be at least the size of the grid" );
+        }
+        double tmp[] = scratch == null ? new double[w * h] : scratch;
+
+        // Rows: convolve each row into tmp
+        bands( w, h, ( ys, ye ) -> {
+            double row[] = ROWS.get( w );
+            for( int y = ys; y < ye; y++ ) {
+                readRow( src, y, row, 0 );
+                int o = y * w;
+                for( int x = 0; x < w; x++ ) {
+                    double s = 0.0, n = 0.0;
+                    for( int i = Math.max( 0, x - r ), e = Math.min( w - 1, x + r ); i <= e; i++ ) {
+                        double v = row[i];
+                        if( v == v ) {
+                            double k = kernel[i - x + r];
+                            s += k * v;
+                            n += k;
+                        }
+                    }
+                    tmp[o + x] = n > 0.0 ? s / n : Double.NaN;
+                }
+            }
+        } );
+
+        // Columns: each output row is a weighted sum of rows of tmp, cells missing in the source stay missing
+        double a[] = out.array();
+        bands( w, h, ( ys, ye ) -> {
+            // The source row, then the weighted sum and total weight for each column
+            double b[] = ROWS.get( 3 * w );
+            int sum = w, norm = 2 * w;
+            for( int y = ys; y < ye; y++ ) {
+                Arrays.fill( b, w, 3 * w, 0.0 );
+                for( int j = Math.max( 0, y - r ), e = Math.min( h - 1, y + r ); j <= e; j++ ) {
+                    double k = kernel[j - y + r];
+                    for( int x = 0, o = j * w; x < w; x++, o++ ) {
+                        double v = tmp[o];
+                        if( v == v ) {
+                            b[sum + x] += k * v;
+                            b[norm + x] += k;
+                        }
+                    }
+                }
+                readRow( src, y, b, 0 );
+                for( int x = 0, o = y * w; x < w; x++, o++ ) {
+                    a[o] = b[x] == b[x] && b[norm + x] > 0.0 ? b[sum + x] / b[norm + x] : Double.NaN;
+                }
+            }
+        } );
+        return out;
+    }
+
+    /**
+     * Apply a median filter, which removes outliers whilst preserving edges
+     *
+     * @param src Grid
+     * @param r   radius in cells, the window being 2r+1 cells square
+     * @param dst destination of the same size as src, null to create one. This may not be src.
+     *
+     * @return dst
+     */
+    public static DoubleGrid median( Grid src, int r, DoubleGrid dst )
+    {
+        Objects.requireNonNull( src );
+        if( r < 0 ) {
+            throw new IllegalArgumentException( "Radius must be >=0" );
+        }
+        DoubleGrid out = target( src, dst );
+        int w = src.getWidth(), h = src.getHeight(), d = (2 * r) + 1;
+        double a[] = out.array();
+        bands( w, h, ( ys, ye ) -> {
+            // A window of rows, row j being held at (j % d) * w
+            double rows[] = ROWS.get( d * w );
+            int loaded[] = new int[d];
+            Arrays.fill( loaded, -1 );
+            double window[] = WINDOW.get( d * d );
+            for( int y = ys; y < ye; y++ ) {
+                int j0 = Math.max( 0, y - r ), j1 = Math.min( h - 1, y + r );
+                for( int j = j0; j <= j1; j++ ) {
+                    if( loaded[j % d] != j ) {
+                        readRow( src, j, rows, (j % d) * w );
+                        loaded[j % d] = j;
+                    }
+                }
+                int centre = (y % d) * w;
+                for( int x = 0, o = y * w; x < w; x++, o++ ) {
+                    if( rows[centre + x] != rows[centre + x] ) {
+                        a[o] = Double.NaN;
+                        continue;
+                    }
+                    int n = 0;
+                    for( int j = j0; j <= j1; j++ ) {
+                        int row = (j % d) * w;
+                        for( int i = Math.max( 0, x - r ), e = Math.min( w - 1, x + r ); i <= e; i++ ) {
+                            double v = rows[row + i];
+                            if( v == v ) {
+                                window[n++] = v;
+                            }
+                        }
+                    }
+                    Arrays.sort( window, 0, n );
+                    a[o] = (n & 1) == 1 ? window[n >> 1] : (window[(n >> 1) - 1] + window[n >> 1]) / 2.0;
+                }
+            }
+        } );
+        return out;
+    }
+
+    private static DoubleGrid target( Grid src, DoubleGrid dst )
+    {
+        if( dst == null ) {
+            return DenseGrid.create( src.getWidth(), src.getHeight() );
+        }
+        // Also catch a different grid over the same array
+        if( dst == src || (src instanceof DoubleGrid && ((DoubleGrid) src).array() == dst.array()) ) {
+            throw new IllegalArgumentException( "Destination cannot be the source" );
+        }
+        if( dst.getWidth() != src.getWidth() || dst.getHeight() != src.getHeight() ) {
+            throw new IllegalArgumentException( "Destination is not the same size as the source" );
+        }
+        return dst;
+    }
+
+    /**
+     * Read a row into a buffer with missing values replaced by NaN
+     */
+    private static void readRow( Grid src, int y, double[] dst, int off )
+    {
+        int w = src.getWidth();
+        if( src instanceof DenseGrid ) {
+            ((DenseGrid) src).getRow( y, 0, w, dst, off );
+        }
+        else {
+            for( int x = 0; x < w; x++ ) {
+                dst[off + x] = src.getValue( x, y );
+            }
+        }
+        for( int i = off, e = off + w; i < e; i++ ) {
+            if( GridStatistics.isMissing( dst[i] ) ) {
+                dst[i] = Double.NaN;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private static interface Band
+    {
+
+        void apply( int ys, int ye );
+    }
+
+    private static void bands( int w, int h, Band band )
+    {
+        int rows = Math.max( 1, BAND_CELLS / w );
+        IntStream.range( 0, (h + rows - 1) / rows )
+                .parallel()
+                .forEach( b -> band.apply( b * rows, Math.min( h, (b + 1) * rows ) ) );
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * The geographic layout of a regular latitude/longitude grid.
+ * <p>
+ * Column 0 is centred on longitude λ0 and row 0 on latitude φ0, with each subsequent column and row Δλ and Δφ degrees further on. Δφ is usually negative
+ * as most data sets start at the northern edge. A grid whose columns span the full 360° wraps, so positions either side of the seam use both edges.
+ * <p>
+ * Geometries are equal when their layouts are, so they can be used as keys when caching anything derived from the layout rather than the data.
+ *
+ * @author peter
+ */
+public final class GridGeometry
+{
+
+    private final double λ0, φ0, Δλ, Δφ;
+    private final int w, h;
+    private final boolean wrap;
+
+    private GridGeometry( double λ0, double φ0, double Δλ, double Δφ, int w, int h )
+    {
+        this.λ0 = λ0;
+        this.φ0 = φ0;
+        this.Δλ = Δλ;
+        this.Δφ = Δφ;
+        this.w = w;
+        this.h = h;
+        this.wrap = Math.abs( Math.abs( Δλ * w ) - 360.0 ) < Math.abs( Δλ ) * 1e-6;
+    }
+
+    /**
+     * Create a geometry
+     *
+     * @param λ0 longitude of the centre of column 0
+     * @param φ0 latitude of the centre of row 0
+     * @param Δλ degrees of longitude between columns
+     * @param Δφ degrees of latitude between rows
+     * @param w  number of columns
+     * @param h  number of rows
+     *
+     * @return geometry
+     *
+     * @throws IllegalArgumentException if the dimensions are less than 1 or a step is 0
+     */
+    public static GridGeometry of( double λ0, double φ0, double Δλ, double Δφ, int w, int h )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        if( Δλ == 0.0 || Δφ == 0.0 || Double.isNaN( Δλ ) || Double.isNaN( Δφ ) ) {
+            throw new IllegalArgumentException( "Grid steps must be non zero" );
+        }
+        return new GridGeometry( λ0, φ0, Δλ, Δφ, w, h );
+    }
+
+    /**
+     * A geometry covering the whole globe, with row 0 at the north pole and column 0 at λ0
+     *
+     * @param λ0 longitude of the centre of column 0
+     * @param w  number of columns
+     * @param h  number of rows, the first and last being at the poles
+     *
+     * @return geometry
+     */
+    public static GridGeometry global( double λ0, int w, int h )
+    {
+        return of( λ0, 90.0, 360.0 / w, h > 1 ? -180.0 / (h - 1) : -180.0, w, h );
+    }
+
+    public double getλ0()
+    {
+        return λ0;
+    }
+
+    public double getφ0()
+    {
+        return φ0;
+    }
+
+    public double getΔλ()
+    {
+        return Δλ;
+    }
+
+    public double getΔφ()
+    {
+        return Δφ;
+    }
+
+    public int getWidth()
+    {
+        return w;
+    }
+
+    public int getHeight()
+    {
+        return h;
+    }
+
+    /**
+     * Does this grid span all longitudes
+     *
+     * @return
+     */
+    public boolean isWrapped()
+    {
+        return wrap;
+    }
+
+    /**
+     * The column of a longitude. For a wrapped grid this is in the range 0 to width.
+     *
+     * @param λ longitude
+     *
+     * @return column, cell centres are at integer positions
+     */
+    public double getX( double λ )
+    {
+        double x = (λ - λ0) / Δλ;
+        if( wrap ) {
+            x %= w;
+            if( x < 0 ) {
+                x += w;
+            }
+        }
+        else {
+            // Allow for a grid defined in 0..360 being asked for -180..180 or vice versa
+            double alt = (λ + (λ < λ0 ? 360.0 : -360.0) - λ0) / Δλ;
+            if( (x < -0.5 || x > w - 0.5) && alt >= -0.5 && alt <= w - 0.5 ) {
+                x = alt;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * The row of a latitude
+     *
+     * @param φ latitude
+     *
+     * @return row, cell centres are at integer positions
+     */
+    public double getY( double φ )
+    {
+        return (φ - φ0) / Δφ;
+    }
+
+    /**
+     * The longitude of a column
+     *
+     * @param x column
+     *
+     * @return longitude
+     */
+    public double getλ( double x )
+    {
+        return λ0 + (x * Δλ);
+    }
+
+    /**
+     * The latitude of a row
+     *
+     * @param y row
+     *
+     * @return latitude
+     */
+    public double getφ( double y )
+    {
+        return φ0 + (y * Δφ);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        long h1 = Double.doubleToLongBits( λ0 ) * 31 + Double.doubleToLongBits( φ0 );
+        long h2 = Double.doubleToLongBits( Δλ ) * 31 + Double.doubleToLongBits( Δφ );
+        return (int) (h1 ^ (h1 >>> 32)) * 31 + (int) (h2 ^ (h2 >>> 32)) * 17 + w * 7 + h;
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if( this == obj ) {
+            return true;
+        }
+        if( obj == null || getClass() != obj.getClass() ) {
+            return false;
+        }
+        GridGeometry o = (GridGeometry) obj;
+        return w == o.w && h == o.h
+               && Double.compare( λ0, o.λ0 ) == 0
+               && Double.compare( φ0, o.φ0 ) == 0
+               && Double.compare( Δλ, o.Δλ ) == 0
+               && Double.compare( Δφ, o.Δφ ) == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GridGeometry[λ0=" + λ0 + ",φ0=" + φ0 + ",Δλ=" + Δλ + ",Δφ=" + Δφ + ",w=" + w + ",h=" + h + "]";
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * The inner loops of the grid operations which work on whole rows of values.
+ * <p>
+ * This class is the scalar implementation which runs on any JVM. The mapgen-core jar is a multi-release jar and, when running on Java 17 or later with
+ * {@code --add-modules jdk.incubator.vector}, {@link #getInstance()} returns an implementation using the Vector API instead, which on AVX2 hardware
+ * processes four doubles per instruction. Set the system property {@code onl.area51.mapgen.grid.scalar} to true to force the scalar kernels.
+ * <p>
+ * The vector kernels may sum values in a different order, so results can differ in the last few bits from the scalar ones.
+ *
+ * @author peter
+ */
+public class GridKernels
+{
+
+    private static final String VECTOR_KERNELS = "onl.area51.mapgen.grid.VectorGridKernels";
+
+    private static final GridKernels INSTANCE = load();
+
+    /**
+     * Number of values written by {@link #moments(double[], int, int, double, double, double[])}
+     */
+    public static final int MOMENTS = 7;
+
+    GridKernels()
+    {
+    }
+
+    private static GridKernels load()
+    {
+        if( !Boolean.getBoolean( "onl.area51.mapgen.grid.scalar" ) ) {
+            try {
+                return (GridKernels) Class.forName( VECTOR_KERNELS ).getDeclaredConstructor().newInstance();
+            }
+            catch( ReflectiveOperationException | LinkageError ex ) {
+                // Not on Java 17+ or jdk.incubator.vector not present so use the scalar kernels
+            }
+        }
+        return new GridKernels();
+    }
+
+    /**
+     * The kernels for this JVM
+     *
+     * @return kernels
+     */
+    public static GridKernels getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Are these kernels vectorised
+     *
+     * @return true if using the Vector API
+     */
+    public boolean isVectorised()
+    {
+        return false;
+    }
+
+    /**
+     * Replace each value v with v*factor+offset
+     *
+     * @param a      values
+     * @param off    offset of first value
+     * @param n      number of values
+     * @param factor factor
+     * @param offset offset added after the factor
+     */
+    public void scale( double[] a, int off, int n, double factor, double offset )
+    {
+        for( int i = off, e = off + n; i < e; i++ ) {
+            a[i] = a[i] * factor + offset;
+        }
+    }
+
+    /**
+     * Limit each value to a range. NaN is left as is.
+     *
+     * @param a   values
+     * @param off offset of first value
+     * @param n   number of values
+     * @param min minimum value
+     * @param max maximum value
+     */
+    public void clamp( double[] a, int off, int n, double min, double max )
+    {
+        for( int i = off, e = off + n; i < e; i++ ) {
+            double v = a[i];
+            a[i] = v < min ? min : v > max ? max : v;
+        }
+    }
+
+    /**
+     * Replace each value in a with op(a,b)
+     *
+     * @param op   operator
+     * @param a    first operand and result
+     * @param aoff offset of first value in a
+     * @param b    second operand
+     * @param boff offset of first value in b
+     * @param n    number of values
+     */
+    public void apply( GridOperator op, double[] a, int aoff, double[] b, int boff, int n )
+    {
+        for( int i = 0; i < n; i++ ) {
+            a[aoff + i] = op.applyAsDouble( a[aoff + i], b[boff + i] );
+        }
+    }
+
+    /**
+     * Add a*x to y
+     *
+     * @param a    factor
+     * @param x    values to add
+     * @param xoff offset of first value in x
+     * @param y    values added to
+     * @param yoff offset of first value in y
+     * @param n    number of values
+     */
+    public void axpy( double a, double[] x, int xoff, double[] y, int yoff, int n )
+    {
+        for( int i = 0; i < n; i++ ) {
+            y[yoff + i] += a * x[xoff + i];
+        }
+    }
+
+    /**
+     * Add weight[i]*src[index[i]] to dst[off+i]
+     *
+     * @param src    source values
+     * @param index  index into src for each value
+     * @param weight weight for each value
+     * @param dst    destination
+     * @param off    offset of first value in dst
+     * @param n      number of values
+     */
+    public void gather( double[] src, int[] index, double[] weight, double[] dst, int off, int n )
+    {
+        for( int i = 0; i < n; i++ ) {
+            dst[off + i] += weight[i] * src[index[i]];
+        }
+    }
+
+    /**
+     * The moments of the valid values. A value is valid if its magnitude is less than limit, so NaN is never valid.
+     * <p>
+     * On return m contains the count of valid values, count of NaN, then the sum, min and max of the valid values, and the sum of (v-shift) and of
+     * (v-shift)² used for the variance.
+     *
+     * @param a     values
+     * @param off   offset of first value
+     * @param n     number of values
+     * @param shift value subtracted before the sums of squares
+     * @param limit magnitude at and above which a value is missing
+     * @param m     destination of {@link #MOMENTS} values
+     */
+    public void moments( double[] a, int off, int n, double shift, double limit, double[] m )
+    {
+        long count = 0, nan = 0;
+        double sum = 0.0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, s1 = 0.0, s2 = 0.0;
+        for( int i = off, e = off + n; i < e; i++ ) {
+            double v = a[i];
+            if( v != v ) {
+                nan++;
+            }
+            else if( Math.abs( v ) < limit ) {
+                count++;
+                sum += v;
+                if( v < min ) {
+                    min = v;
+                }
+                if( v > max ) {
+                    max = v;
+                }
+                double d = v - shift;
+                s1 += d;
+                s2 += d * d;
+            }
+        }
+        m[0] = count;
+        m[1] = nan;
+        m[2] = sum;
+        m[3] = min;
+        m[4] = max;
+        m[5] = s1;
+        m[6] = s2;
+    }
+
+    /**
+     * The index of each value within equal width bins starting at min. Values at or below min are 0, values at or above max, or NaN, are maxIndex.
+     *
+     * @param a        values
+     * @param off      offset of first value
+     * @param n        number of values
+     * @param min      start of the first bin
+     * @param max      end of the range
+     * @param step     width of each bin
+     * @param maxIndex largest index
+     * @param dst      destination
+     * @param doff     offset of first index in dst
+     */
+    public void index( double[] a, int off, int n, double min, double max, double step, int maxIndex, int[] dst, int doff )
+    {
+        for( int i = 0; i < n; i++ ) {
+            double v = a[off + i];
+            dst[doff + i] = v <= min ? 0 : v < max ? Math.min( (int) ((v - min) / step), maxIndex ) : maxIndex;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+
+/**
+ * Which cells of a grid hold valid data, such as the bitmap section of a GRIB2 record.
+ * <p>
+ * The mask is held as a bit per cell in row-major order, set for valid cells, so runs of valid or missing cells are found a 64 bit word at a time with
+ * {@link #nextValid(int, int)} and {@link #nextInvalid(int, int)}:
+ * <pre>
+ * for( int x = mask.nextValid( y, 0 ); x &lt; w; x = mask.nextValid( y, e ) ) {
+ *     e = mask.nextInvalid( y, x );
+ *     // cells x..e-1 are valid
+ * }
+ * </pre>
+ *
+ * @author peter
+ * @see Grid#getMask()
+ */
+public final class GridMask
+{
+
+    private final long[] bits;
+    private final int w, h;
+    private final long validCount;
+
+    private GridMask( long[] bits, int w, int h )
+    {
+        this.bits = bits;
+        this.w = w;
+        this.h = h;
+        long c = 0;
+        for( long b: bits ) {
+            c += Long.bitCount( b );
+        }
+        validCount = c;
+    }
+
+    /**
+     * Create a mask
+     *
+     * @param valid true for each valid cell in row-major order
+     * @param w     width
+     * @param h     height
+     *
+     * @return mask
+     */
+    public static GridMask of( boolean[] valid, int w, int h )
+    {
+        Objects.requireNonNull( valid );
+        check( w, h );
+        if( ((long) w * h) > valid.length ) {
+            throw new IllegalArgumentException( "Grid is larger than array size" );
+        }
+        int n = w * h;
+        long bits[] = new long[(n + 63) >>> 6];
+        for( int i = 0; i < n; i++ ) {
+            if( valid[i] ) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return new GridMask( bits, w, h );
+    }
+
+    /**
+     * Create a mask from the values of a grid, where NaN and missing values are invalid
+     *
+     * @param grid Grid
+     *
+     * @return mask
+     *
+     * @see GridStatistics#isMissing(double)
+     */
+    public static GridMask of( Grid grid )
+    {
+        int w = grid.getWidth(), h = grid.getHeight();
+        long bits[] = new long[(int) (((long) w * h + 63) >>> 6)];
+        double row[] = new double[w];
+        DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        for( int y = 0, i = 0; y < h; y++ ) {
+            if( dense != null ) {
+                dense.getRow( y, row );
+            }
+            else {
+                for( int x = 0; x < w; x++ ) {
+                    row[x] = grid.getValue( x, y );
+                }
+            }
+            for( int x = 0; x < w; x++, i++ ) {
+                if( !GridStatistics.isMissing( row[x] ) ) {
+                    bits[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return new GridMask( bits, w, h );
+    }
+
+    /**
+     * The mask of a rectangle within this mask
+     *
+     * @param l left
+     * @param t top
+     * @param w width
+     * @param h height
+     *
+     * @return mask
+     */
+    public GridMask subset( int l, int t, int w, int h )
+    {
+        check( w, h );
+        if( l < 0 || t < 0 || (l + w) > this.w || (t + h) > this.h ) {
+            throw new IllegalArgumentException( "Mask subset is not contained within this mask" );
+        }
+        long b[] = new long[(int) (((long) w * h + 63) >>> 6)];
+        for( int y = 0; y < h; y++ ) {
+            int base = (y * w) - l;
+            for( int x = nextValid( t + y, l ), e; x < l + w; x = nextValid( t + y, e ) ) {
+                e = Math.min( l + w, nextInvalid( t + y, x ) );
+                for( int i = base + x, ie = base + e; i < ie; i++ ) {
+                    b[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return new GridMask( b, w, h );
+    }
+
+    /**
+     * Combine two masks so a cell is valid only if it is valid in both. Either may be null for a grid without a mask.
+     *
+     * @param a mask
+     * @param b mask
+     *
+     * @return mask, null if both are null
+     *
+     * @throws IllegalArgumentException if the masks are not the same size
+     */
+    public static GridMask and( GridMask a, GridMask b )
+    {
+        if( a == null || b == a ) {
+            return b;
+        }
+        if( b == null ) {
+            return a;
+        }
+        if( a.w != b.w || a.h != b.h ) {
+            throw new IllegalArgumentException( "Masks must be the same size" );
+        }
+        long bits[] = new long[a.bits.length];
+        for( int i = 0; i < bits.length; i++ ) {
+            bits[i] = a.bits[i] & b.bits[i];
+        }
+        return new GridMask( bits, a.w, a.h );
+    }
+
+    private static void check( int w, int h )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+    }
+
+    public int getWidth()
+    {
+        return w;
+    }
+
+    public int getHeight()
+    {
+        return h;
+    }
+
+    /**
+     * The number of valid cells
+     *
+     * @return
+     */
+    public long getValidCount()
+    {
+        return validCount;
+    }
+
+    /**
+     * The number of valid cells in a row
+     *
+     * @param y row
+     *
+     * @return
+     */
+    public int getValidCount( int y )
+    {
+        int c = 0;
+        for( int x = nextValid( y, 0 ), e; x < w; x = nextValid( y, e ) ) {
+            e = nextInvalid( y, x );
+            c += e - x;
+        }
+        return c;
+    }
+
+    /**
+     * Is a cell valid
+     *
+     * @param x
+     * @param y
+     *
+     * @return
+     */
+    public boolean isValid( int x, int y )
+    {
+        int i = (y * w) + x;
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Find the next valid cell in a row
+     *
+     * @param y row
+     * @param x first column to test
+     *
+     * @return column of the next valid cell at or after x, or the width if there are none
+     */
+    public int nextValid( int y, int x )
+    {
+        return next( y, x, 0L );
+    }
+
+    /**
+     * Find the next invalid cell in a row
+     *
+     * @param y row
+     * @param x first column to test
+     *
+     * @return column of the next invalid cell at or after x, or the width if there are none
+     */
+    public int nextInvalid( int y, int x )
+    {
+        return next( y, x, -1L );
+    }
+
+    private int next( int y, int x, long invert )
+    {
+        if( x >= w ) {
+            return w;
+        }
+        int base = y * w;
+        int i = base + x, end = base + w;
+        int wi = i >>> 6;
+        long word = (bits[wi] ^ invert) & (-1L << i);
+        while( true ) {
+            if( word != 0 ) {
+                int r = (wi << 6) + Long.numberOfTrailingZeros( word );
+                return r < end ? r - base : w;
+            }
+            wi++;
+            if( (wi << 6) >= end ) {
+                return w;
+            }
+            word = bits[wi] ^ invert;
+        }
+    }
+}
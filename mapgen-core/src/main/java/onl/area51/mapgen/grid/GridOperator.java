@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Binary operators which {@link GridExpression} can apply a whole row at a time using {@link GridKernels}.
+ * <p>
+ * Any {@link DoubleBinaryOperator} can be passed to {@link Grid#combine(onl.area51.mapgen.grid.Grid, java.util.function.DoubleBinaryOperator)} but
+ * only these can be vectorised, so prefer them where possible:
+ * <pre>
+ * Grid speed = u.combine( v, GridOperator.HYPOT );
+ * </pre>
+ *
+ * @author peter
+ */
+public enum GridOperator
+        implements DoubleBinaryOperator
+{
+    ADD {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return a + b;
+        }
+    },
+    SUBTRACT {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return a - b;
+        }
+    },
+    MULTIPLY {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return a * b;
+        }
+    },
+    DIVIDE {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return a / b;
+        }
+    },
+    MIN {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return Math.min( a, b );
+        }
+    },
+    MAX {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return Math.max( a, b );
+        }
+    },
+    HYPOT {
+        @Override
+        public double applyAsDouble( double a, double b )
+        {
+            return Math.hypot( a, b );
+        }
+    };
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import onl.area51.mapgen.renderer.Renderer;
+
+/**
+ * A multi-resolution pyramid of a {@link Grid}.
+ * <p>
+ * Level 0 is the grid itself whilst each subsequent level halves the resolution on both axes, so a cell at level n covers a block of 2<sup>n</sup> by
+ * 2<sup>n</sup> cells in the original grid. Levels are built on demand, each in parallel from the level before it, and then cached so low zoom
+ * renders and thumbnails can work on a few thousand cells rather than the full grid.
+ * <p>
+ * NaN and missing values are ignored, a cell covering no valid values being NaN. Blocks at the right and bottom edges of a grid with an odd size are
+ * reduced from the cells they do cover.
+ *
+ * @author peter
+ */
+public final class GridPyramid
+{
+
+    /**
+     * How a block of cells is reduced to a single value
+     */
+    public static enum Reduction
+    {
+        /**
+         * The mean of the valid values in the block
+         */
+        MEAN,
+        /**
+         * The minimum valid value in the block
+         */
+        MIN,
+        /**
+         * The maximum valid value in the block
+         */
+        MAX,
+        /**
+         * The value of the top left cell in the block
+         */
+        NEAREST
+    }
+
+    /**
+     * The pyramids are held weakly as they reference their grid, so they are shared whilst something is using them
+     */
+    private static final Map<Reduction, GridCache<GridPyramid>> CACHE = new EnumMap<>( Reduction.class );
+
+    static {
+        for( Reduction r : Reduction.values() ) {
+            CACHE.put( r, GridCache.weak( g -> new GridPyramid( g, r ) ) );
+        }
+    }
+
+    private final Grid grid;
+    private final Reduction reduction;
+    private final Grid[] levels;
+    /**
+     * For {@link Reduction#MEAN} the number of valid cells of the original grid within each cell of a level, null for level 0
+     */
+    private final int[][] counts;
+
+    private GridPyramid( Grid grid, Reduction reduction )
+    {
+        this.grid = grid;
+        this.reduction = reduction;
+
+        int n = 1;
+        for( int w = grid.getWidth(), h = grid.getHeight(); w > 1 || h > 1; w = (w + 1) >>> 1, h = (h + 1) >>> 1 ) {
+            n++;
+        }
+        levels = new Grid[n];
+        levels[0] = grid;
+        counts = new int[n][];
+    }
+
+    /**
+     * Get the pyramid for a grid. Whilst a pyramid is in use then the same instance, and therefore its levels, is returned for the same grid.
+     *
+     * @param grid      Grid
+     * @param reduction how to reduce blocks of cells
+     *
+     * @return pyramid
+     */
+    public static GridPyramid of( Grid grid, Reduction reduction )
+    {
+        Objects.requireNonNull( reduction );
+        return CACHE.get( reduction ).get( grid );
+    }
+
+    /**
+     * Remove the cached pyramids, and everything else cached against a grid. This must be called if the values in a mutable grid are changed.
+     *
+     * @param grid Grid
+     */
+    public static void invalidate( Grid grid )
+    {
+        GridCache.invalidate( grid );
+    }
+
+    /**
+     * The original grid
+     *
+     * @return grid
+     */
+    public Grid getGrid()
+    {
+        return grid;
+    }
+
+    public Reduction getReduction()
+    {
+        return reduction;
+    }
+
+    /**
+     * The number of levels, the last of which is a single cell
+     *
+     * @return number of levels
+     */
+    public int getLevelCount()
+    {
+        return levels.length;
+    }
+
+    /**
+     * The number of cells in the original grid covered by one cell on each axis at a level
+     *
+     * @param level level
+     *
+     * @return scale
+     */
+    public static int getScale( int level )
+    {
+        return 1 << level;
+    }
+
+    /**
+     * Get a level, building it if required
+     *
+     * @param level level, 0 for the original grid
+     *
+     * @return Grid at that level
+     *
+     * @throws IllegalArgumentException if the level does not exist
+     */
+    public Grid getLevel( int level )
+    {
+        if( level < 0 || level >= levels.length ) {
+            throw new IllegalArgumentException( "Invalid level " + level );
+        }
+        synchronized( levels ) {
+            // Each level is built from the one before it
+            for( int l = 1; l <= level; l++ ) {
+                if( levels[l] == null ) {
+                    levels[l] = reduce( l );
+                }
+            }
+            return levels[level];
+        }
+    }
+
+    /**
+     * The coarsest level that still has at least the required number of columns
+     *
+     * @param columns required number of columns
+     *
+     * @return level
+     */
+    public int getLevelForColumns( int columns )
+    {
+        int level = 0;
+        for( int w = grid.getWidth(); level < levels.length - 1 && ((w + 1) >>> 1) >= columns; w = (w + 1) >>> 1 ) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * The coarsest level good enough for rendering the whole world at a zoom, i.e. with at least one cell per pixel. This assumes the grid spans 360
+     * degrees of longitude.
+     *
+     * @param zoom map zoom
+     *
+     * @return level
+     */
+    public int getLevelForZoom( int zoom )
+    {
+        return getLevelForColumns( Renderer.TILE_SIZE << zoom );
+    }
+
+    /**
+     * The coarsest level good enough for the zoom of a renderer
+     *
+     * @param r Renderer
+     *
+     * @return Grid
+     *
+     * @see #getLevelForZoom(int)
+     */
+    public Grid getLevel( Renderer r )
+    {
+        return getLevel( getLevelForZoom( r.getZoom() ) );
+    }
+
+    /**
+     * A level at the resolution of the original grid, each cell reading the value of the cell of the level which covers it
+     *
+     * @param level level
+     *
+     * @return view of the level
+     */
+    Grid expand( int level )
+    {
+        Grid g = getLevel( level );
+        int w = grid.getWidth(), h = grid.getHeight();
+        return new Grid()
+        {
+            @Override
+            public int getWidth()
+            {
+                return w;
+            }
+
+            @Override
+            public int getHeight()
+            {
+                return h;
+            }
+
+            @Override
+            public double getValue( int x, int y )
+            {
+                return g.getValue( x >> level, y >> level );
+            }
+        };
+    }
+
+    /**
+     * Reduce the previous level by 2x2 blocks. As each cell of a {@link Reduction#MEAN} level records how many cells of the original grid it is the
+     * mean of, the result is the same as reducing the original grid directly.
+     *
+     * @param level level to build
+     *
+     * @return level
+     */
+    private Grid reduce( int level )
+    {
+        Grid src = levels[level - 1];
+        DenseGrid dense = src instanceof DenseGrid ? (DenseGrid) src : null;
+        int srcCount[] = counts[level - 1];
+        int w = src.getWidth(), h = src.getHeight();
+        int lw = (w + 1) >>> 1, lh = (h + 1) >>> 1;
+        DoubleGrid dst = DenseGrid.create( lw, lh );
+        double a[] = dst.array();
+        int count[] = reduction == Reduction.MEAN ? new int[lw * lh] : null;
+
+        IntStream.range( 0, lh ).parallel().forEach( ly -> {
+            int o = ly * lw;
+            int y0 = ly << 1, y1 = Math.min( y0 + 2, h );
+            if( reduction == Reduction.NEAREST ) {
+                for( int lx = 0; lx < lw; lx++ ) {
+                    a[o + lx] = src.getValue( lx << 1, y0 );
+                }
+                return;
+            }
+
+            Arrays.fill( a, o, o + lw, reduction == Reduction.MEAN ? 0.0 : Double.NaN );
+            double row[] = new double[w];
+            for( int y = y0; y < y1; y++ ) {
+                if( dense != null ) {
+                    dense.getRow( y, row );
+                }
+                else {
+                    for( int x = 0; x < w; x++ ) {
+                        row[x] = src.getValue( x, y );
+                    }
+                }
+                for( int x = 0; x < w; x++ ) {
+                    double v = row[x];
+                    if( GridStatistics.isMissing( v ) ) {
+                        continue;
+                    }
+                    int i = o + (x >> 1);
+                    if( reduction == Reduction.MEAN ) {
+                        // A cell of the previous level is the mean of n cells of the original grid
+                        int n = srcCount == null ? 1 : srcCount[(y * w) + x];
+                        a[i] += v * n;
+                        count[i] += n;
+                    }
+                    else if( a[i] != a[i] || (reduction == Reduction.MIN ? v < a[i] : v > a[i]) ) {
+                        a[i] = v;
+                    }
+                }
+            }
+
+            if( reduction == Reduction.MEAN ) {
+                for( int i = o; i < o + lw; i++ ) {
+                    a[i] = count[i] == 0 ? Double.NaN : a[i] / count[i];
+                }
+            }
+        } );
+
+        counts[level] = count;
+        return dst;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import onl.area51.mapgen.renderer.Renderer;
+import onl.area51.mapgen.util.tile.TileReference;
+
+/**
+ * Resamples a latitude/longitude grid onto Web Mercator map tiles.
+ * <p>
+ * Mercator tiles are separable: every pixel in a tile column shares a longitude and every pixel in a tile row shares a latitude. So for each zoom level
+ * the source columns and weights are calculated once per tile column and the source rows and weights once per tile row, and cached. Every later tile
+ * using them is then just a gather of the source values.
+ * <p>
+ * Each source row is first interpolated horizontally into a row of tile pixels, then the tile row is the weighted sum of those rows. Both steps run
+ * through {@link GridKernels} so are vectorised where the JVM supports it.
+ * <p>
+ * The tables depend only on the {@link GridGeometry} and {@link Interpolation}, so one resampler is shared by every grid with the same layout, e.g.
+ * each forecast hour of a model run.
+ *
+ * @author peter
+ */
+public final class GridResampler
+{
+
+    private static final int MAX_RESAMPLERS = 16;
+    private static final int MAX_TABLES = 1024;
+
+    private static final Map<GridGeometry, EnumMap<Interpolation, GridResampler>> RESAMPLERS = new LinkedHashMap<GridGeometry, EnumMap<Interpolation, GridResampler>>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<GridGeometry, EnumMap<Interpolation, GridResampler>> eldest )
+        {
+            return size() > MAX_RESAMPLERS;
+        }
+    };
+
+    private final GridGeometry geometry;
+    private final Interpolation interpolation;
+    private final Map<Long, Axis> columns = new Tables();
+    private final Map<Long, Axis> rows = new Tables();
+
+    private GridResampler( GridGeometry geometry, Interpolation interpolation )
+    {
+        this.geometry = geometry;
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * The resampler for a geometry
+     *
+     * @param geometry      layout of the grids to be resampled
+     * @param interpolation interpolation to use
+     *
+     * @return shared resampler
+     */
+    public static GridResampler of( GridGeometry geometry, Interpolation interpolation )
+    {
+        Objects.requireNonNull( geometry );
+        Objects.requireNonNull( interpolation );
+        synchronized( RESAMPLERS ) {
+            return RESAMPLERS.computeIfAbsent( geometry, k -> new EnumMap<>( Interpolation.class ) )
+                    .computeIfAbsent( interpolation, i -> new GridResampler( geometry, i ) );
+        }
+    }
+
+    public GridGeometry getGeometry()
+    {
+        return geometry;
+    }
+
+    public Interpolation getInterpolation()
+    {
+        return interpolation;
+    }
+
+    /**
+     * Resample a grid onto a tile
+     *
+     * @param grid Grid with this resampler's geometry
+     * @param tile tile
+     * @param dst  destination of TILE_SIZE*TILE_SIZE values in row-major order, null to allocate one. Pixels outside of the grid are NaN.
+     *
+     * @return dst
+     *
+     * @throws IllegalArgumentException if the grid does not match the geometry
+     */
+    public double[] resampleToTile( Grid grid, TileReference tile, double[] dst )
+    {
+        if( grid.getWidth() != geometry.getWidth() || grid.getHeight() != geometry.getHeight() ) {
+            throw new IllegalArgumentException( "Grid does not match geometry" );
+        }
+        final int size = Renderer.TILE_SIZE;
+        double d[] = dst == null ? new double[size * size] : dst;
+
+        Axis cols = getColumns( tile.getZ(), tile.getX() );
+        Axis rs = getRows( tile.getZ(), tile.getY() );
+        int taps = interpolation.getTaps();
+
+        // Only the columns the tile needs are read from each source row, so grids which are not dense are not copied
+        DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        GridKernels kernels = GridKernels.getInstance();
+        double buf[] = new double[cols.max < 0 ? 0 : grid.getWidth()];
+        // Source rows interpolated onto the tile columns
+        double hrow[][] = new double[taps][size];
+        int bufRow[] = new int[taps];
+        Arrays.fill( bufRow, -1 );
+
+        for( int py = 0, o = 0; py < size; py++ ) {
+            int rb = py * taps;
+            if( rs.index[rb] < 0 || cols.max < 0 ) {
+                Arrays.fill( d, o, o + size, Double.NaN );
+                o += size;
+                continue;
+            }
+
+            // Interpolate the source rows needed, reusing those already done for the previous tile row
+            for( int j = 0; j < taps; j++ ) {
+                int r = rs.index[rb + j];
+                if( bufRow[j] != r ) {
+                    if( dense != null ) {
+                        dense.getRow( r, cols.min, cols.max - cols.min + 1, buf, cols.min );
+                    }
+                    else {
+                        for( int x = cols.min; x <= cols.max; x++ ) {
+                            buf[x] = grid.getValue( x, r );
+                        }
+                    }
+                    double h[] = hrow[j];
+                    Arrays.fill( h, 0.0 );
+                    for( int i = 0; i < taps; i++ ) {
+                        kernels.gather( buf, cols.planeIndex[i], cols.planeWeight[i], h, 0, size );
+                    }
+                    bufRow[j] = r;
+                }
+            }
+
+            Arrays.fill( d, o, o + size, 0.0 );
+            for( int j = 0; j < taps; j++ ) {
+                kernels.axpy( rs.weight[rb + j], hrow[j], 0, d, o, size );
+            }
+            if( cols.outside ) {
+                for( int px = 0; px < size; px++ ) {
+                    if( cols.index[px * taps] < 0 ) {
+                        d[o + px] = Double.NaN;
+                    }
+                }
+            }
+            o += size;
+        }
+        return d;
+    }
+
+    private Axis getColumns( int z, int tx )
+    {
+        Long key = key( z, tx );
+        synchronized( columns ) {
+            Axis a = columns.get( key );
+            if( a != null ) {
+                return a;
+            }
+        }
+        double scale = (double) Renderer.TILE_SIZE * (1L << z);
+        int w = geometry.getWidth();
+        Axis a = new Axis( interpolation.getTaps() );
+        for( int p = 0; p < Renderer.TILE_SIZE; p++ ) {
+            double λ = ((tx * (double) Renderer.TILE_SIZE + p + 0.5) / scale * 360.0) - 180.0;
+            double x = geometry.getX( λ );
+            a.set( p, x, geometry.isWrapped() || (x >= -0.5 && x <= w - 0.5), w, geometry.isWrapped() );
+        }
+        synchronized( columns ) {
+            columns.put( key, a );
+        }
+        return a;
+    }
+
+    private Axis getRows( int z, int ty )
+    {
+        Long key = key( z, ty );
+        synchronized( rows ) {
+            Axis a = rows.get( key );
+            if( a != null ) {
+                return a;
+            }
+        }
+        double scale = (double) Renderer.TILE_SIZE * (1L << z);
+        int h = geometry.getHeight();
+        Axis a = new Axis( interpolation.getTaps() );
+        for( int p = 0; p < Renderer.TILE_SIZE; p++ ) {
+            double y = (ty * (double) Renderer.TILE_SIZE) + p + 0.5;
+            double φ = Math.toDegrees( Math.atan( Math.sinh( Math.PI - (2.0 * Math.PI * y) / scale ) ) );
+            double r = geometry.getY( φ );
+            a.set( p, r, r >= -0.5 && r <= h - 0.5, h, false );
+        }
+        synchronized( rows ) {
+            rows.put( key, a );
+        }
+        return a;
+    }
+
+    private static Long key( int z, int t )
+    {
+        return ((long) z << 32) | (t & 0xffffffffL);
+    }
+
+    /**
+     * The source cells and weights for each pixel along one axis of a tile
+     */
+    private final class Axis
+    {
+
+        final int taps;
+        final int index[];
+        final double weight[];
+        // The same by tap so a tap can be gathered for the whole tile at once. Pixels outside have weight 0
+        final int planeIndex[][];
+        final double planeWeight[][];
+        int min = Integer.MAX_VALUE, max = -1;
+        boolean outside;
+
+        Axis( int taps )
+        {
+            this.taps = taps;
+            index = new int[Renderer.TILE_SIZE * taps];
+            weight = new double[Renderer.TILE_SIZE * taps];
+            planeIndex = new int[taps][Renderer.TILE_SIZE];
+            planeWeight = new double[taps][Renderer.TILE_SIZE];
+        }
+
+        void set( int p, double x, boolean inside, int n, boolean wrap )
+        {
+            int b = p * taps;
+            if( !inside ) {
+                index[b] = -1;
+                outside = true;
+                return;
+            }
+            interpolation.weights( x, weight, b );
+            int f = interpolation.first( x );
+            for( int i = 0; i < taps; i++ ) {
+                int c = f + i;
+                if( wrap ) {
+                    c %= n;
+                    if( c < 0 ) {
+                        c += n;
+                    }
+                }
+                else {
+                    c = c < 0 ? 0 : c >= n ? n - 1 : c;
+                }
+                index[b + i] = c;
+                planeIndex[i][p] = c;
+                planeWeight[i][p] = weight[b + i];
+                min = Math.min( min, c );
+                max = Math.max( max, c );
+            }
+        }
+    }
+
+    private static final class Tables
+            extends LinkedHashMap<Long, Axis>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        Tables()
+        {
+            super( 16, 0.75f, true );
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, Axis> eldest )
+        {
+            return size() > MAX_TABLES;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link Spliterator} which maps each cell visited by a {@link GridCursor} to an object.
+ * <p>
+ * This replaces nested {@link java.util.stream.IntStream}'s so rows are not boxed and there is no intermediate stream per row. It splits by row so
+ * parallel streams divide the grid into horizontal bands.
+ *
+ * @author peter
+ * @param <T> type of element
+ */
+final class GridSpliterator<T>
+        implements Spliterator<T>
+{
+
+    private final GridCursor cursor;
+    private final Function<GridCursor, T> mapper;
+
+    /**
+     * Create a spliterator
+     *
+     * @param cursor cursor which has not yet moved
+     * @param mapper maps the cell the cursor is on to an element of the stream
+     */
+    GridSpliterator( GridCursor cursor, Function<GridCursor, T> mapper )
+    {
+        this.cursor = cursor;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean tryAdvance( Consumer<? super T> action )
+    {
+        if( cursor.next() ) {
+            action.accept( mapper.apply( cursor ) );
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining( Consumer<? super T> action )
+    {
+        while( cursor.next() ) {
+            action.accept( mapper.apply( cursor ) );
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit()
+    {
+        GridCursor prefix = cursor.trySplit();
+        return prefix == null ? null : new GridSpliterator<>( prefix, mapper );
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return cursor.remaining();
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return cursor.isFiltered()
+               ? ORDERED | NONNULL | IMMUTABLE
+               : ORDERED | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+    }
+
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Summary statistics of the values within a {@link Grid}.
+ * <p>
+ * The statistics are calculated in parallel over bands of rows: one pass for the count, sum, min, max, mean and standard deviation and a second for a
+ * histogram from which percentiles are approximated. NaN values and those whose magnitude is at least {@link #MISSING_VALUE} are not included in the
+ * statistics but are counted separately. Cells excluded by the grid's {@link GridMask} are skipped and counted as missing.
+ * <p>
+ * Use {@link #of(onl.area51.mapgen.grid.Grid)} to obtain the statistics for a grid as they are cached against the grid instance, so colour maps and
+ * legends using the same grid will share one calculation. The cache cannot see changes to the values of a mutable grid, so code which may be given a
+ * grid that has since changed, such as contouring, uses {@link #calculate(onl.area51.mapgen.grid.Grid)}.
+ *
+ * @author peter
+ */
+public final class GridStatistics
+{
+
+    /**
+     * Values whose magnitude is at least this are considered to be missing data
+     */
+    public static final double MISSING_VALUE = 1.0E+10;
+
+    /**
+     * The number of bins in the histogram
+     */
+    public static final int HISTOGRAM_BINS = 1024;
+
+    /**
+     * Target number of cells processed by a single task
+     */
+    private static final int TASK_CELLS = 1 << 16;
+
+    private static final GridCache<GridStatistics> CACHE = GridCache.create( GridStatistics::calculate );
+
+    private final long count;
+    private final long nanCount;
+    private final long missingCount;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double variance;
+    private final long[] histogram;
+
+    private GridStatistics( Accumulator a, long[] histogram )
+    {
+        this.count = a.count;
+        this.nanCount = a.nan;
+        this.missingCount = a.missing;
+        this.sum = a.sum;
+        this.min = a.min;
+        this.max = a.max;
+        this.mean = a.count == 0 ? 0.0 : a.mean;
+        this.variance = a.count < 2 ? 0.0 : a.m2 / a.count;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Get the statistics of a grid. These are calculated once and then cached for as long as the grid is reachable.
+     *
+     * @param grid Grid
+     *
+     * @return statistics
+     */
+    public static GridStatistics of( Grid grid )
+    {
+        return CACHE.get( grid );
+    }
+
+    /**
+     * Remove the cached statistics, and everything else cached against a grid. This must be called if the values in a mutable grid are changed.
+     *
+     * @param grid Grid
+     */
+    public static void invalidate( Grid grid )
+    {
+        GridCache.invalidate( grid );
+    }
+
+    /**
+     * Calculate the statistics of a grid without using the cache
+     *
+     * @param grid Grid
+     *
+     * @return statistics
+     */
+    public static GridStatistics calculate( Grid grid )
+    {
+        Objects.requireNonNull( grid );
+        int rows = Math.max( 1, TASK_CELLS / grid.getWidth() );
+        Accumulator a = new MomentTask( grid, 0, grid.getHeight(), rows ).invoke().finish();
+
+        long h[] = new long[HISTOGRAM_BINS];
+        if( a.count > 0 ) {
+            h = new HistogramTask( grid, 0, grid.getHeight(), rows, a.min, a.max ).invoke();
+        }
+        return new GridStatistics( a, h );
+    }
+
+    /**
+     * Is a value considered to be missing data
+     *
+     * @param v value
+     *
+     * @return true if NaN or its magnitude is at least {@link #MISSING_VALUE}
+     */
+    public static boolean isMissing( double v )
+    {
+        return !(Math.abs( v ) < MISSING_VALUE);
+    }
+
+    /**
+     * The number of values included in the statistics
+     *
+     * @return count
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * The number of NaN values
+     *
+     * @return count
+     */
+    public long getNaNCount()
+    {
+        return nanCount;
+    }
+
+    /**
+     * The number of values considered to be missing, excluding NaN
+     *
+     * @return count
+     */
+    public long getMissingCount()
+    {
+        return missingCount;
+    }
+
+    /**
+     * The sum of the values
+     *
+     * @return sum
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * The minimum value
+     *
+     * @return min, positive infinity if there are no values
+     */
+    public double getMin()
+    {
+        return min;
+    }
+
+    /**
+     * The maximum value
+     *
+     * @return max, negative infinity if there are no values
+     */
+    public double getMax()
+    {
+        return max;
+    }
+
+    /**
+     * The arithmetic mean
+     *
+     * @return mean, 0 if there are no values
+     */
+    public double getAverage()
+    {
+        return mean;
+    }
+
+    /**
+     * The population variance
+     *
+     * @return variance
+     */
+    public double getVariance()
+    {
+        return variance;
+    }
+
+    /**
+     * The population standard deviation
+     *
+     * @return standard deviation
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt( variance );
+    }
+
+    /**
+     * A histogram of {@link #HISTOGRAM_BINS} equal width bins between {@link #getMin()} and {@link #getMax()} inclusive.
+     *
+     * @return copy of the histogram
+     */
+    public long[] getHistogram()
+    {
+        return histogram.clone();
+    }
+
+    /**
+     * A histogram with a specified number of bins between {@link #getMin()} and {@link #getMax()}.
+     * <p>
+     * This is derived from the full histogram so when bins does not divide {@link #HISTOGRAM_BINS} the counts are approximate.
+     *
+     * @param bins number of bins
+     *
+     * @return histogram
+     */
+    public long[] getHistogram( int bins )
+    {
+        if( bins < 1 ) {
+            throw new IllegalArgumentException( "Invalid number of bins" );
+        }
+        long r[] = new long[bins];
+        for( int i = 0; i < HISTOGRAM_BINS; i++ ) {
+            r[(int) (((long) i * bins) / HISTOGRAM_BINS)] += histogram[i];
+        }
+        return r;
+    }
+
+    /**
+     * An approximate percentile, interpolated from the histogram
+     *
+     * @param p percentile 0..100
+     *
+     * @return value, NaN if there are no values
+     */
+    public double getPercentile( double p )
+    {
+        if( p < 0.0 || p > 100.0 ) {
+            throw new IllegalArgumentException( "Percentile must be 0<=p<=100" );
+        }
+        if( count == 0 ) {
+            return Double.NaN;
+        }
+        double target = (p / 100.0) * count;
+        double width = (max - min) / HISTOGRAM_BINS;
+        long c = 0;
+        for( int i = 0; i < HISTOGRAM_BINS; i++ ) {
+            long n = histogram[i];
+            if( n > 0 && c + n >= target ) {
+                return min + (width * (i + ((target - c) / n)));
+            }
+            c += n;
+        }
+        return max;
+    }
+
+    /**
+     * The median, approximated from the histogram
+     *
+     * @return median
+     */
+    public double getMedian()
+    {
+        return getPercentile( 50.0 );
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s{count=%d, nan=%d, missing=%d, sum=%f, min=%f, average=%f, max=%f, stddev=%f}",
+                              getClass().getSimpleName(),
+                              count, nanCount, missingCount, sum, min, mean, max, getStandardDeviation() );
+    }
+
+    /**
+     * Calls a function for each value in a band of rows
+     */
+    private static abstract class BandTask<T>
+            extends RecursiveTask<T>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final Grid grid;
+        protected final int rows;
+        private final int ys, ye;
+
+        BandTask( Grid grid, int ys, int ye, int rows )
+        {
+            this.grid = grid;
+            this.ys = ys;
+            this.ye = ye;
+            this.rows = rows;
+        }
+
+        protected abstract BandTask<T> create( int ys, int ye );
+
+        protected abstract T createResult();
+
+        protected abstract void accept( T r, double v );
+
+        /**
+         * Accept a run of values from a row
+         *
+         * @param r    result
+         * @param row  row
+         * @param from first value
+         * @param to   end of the run (exclusive)
+         */
+        protected void accept( T r, double[] row, int from, int to )
+        {
+            for( int x = from; x < to; x++ ) {
+                accept( r, row[x] );
+            }
+        }
+
+        /**
+         * Cells excluded by the grid's mask
+         *
+         * @param r result
+         * @param n number of cells
+         */
+        protected void masked( T r, int n )
+        {
+        }
+
+        protected abstract T combine( T a, T b );
+
+        @Override
+        protected final T compute()
+        {
+            if( (ye - ys) > rows ) {
+                int mid = (ys + ye) >>> 1;
+                BandTask<T> a = create( ys, mid );
+                BandTask<T> b = create( mid, ye );
+                b.fork();
+                T ra = a.compute();
+                return combine( ra, b.join() );
+            }
+
+            T r = createResult();
+            int w = grid.getWidth();
+            GridMask mask = grid.getMask();
+            DenseGrid d = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+            double row[] = new double[w];
+            for( int y = ys; y < ye; y++ ) {
+                if( d != null ) {
+                    d.getRow( y, row );
+                }
+                else {
+                    for( int x = 0; x < w; x++ ) {
+                        row[x] = grid.getValue( x, y );
+                    }
+                }
+                if( mask == null ) {
+                    accept( r, row, 0, w );
+                }
+                else {
+                    // Only visit runs of valid cells
+                    int valid = 0;
+                    for( int x = mask.nextValid( y, 0 ), e; x < w; x = mask.nextValid( y, e ) ) {
+                        e = mask.nextInvalid( y, x );
+                        valid += e - x;
+                        accept( r, row, x, e );
+                    }
+                    masked( r, w - valid );
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Accumulates the count, sum, min, max and the sums used for the variance.
+     * <p>
+     * The sums are taken relative to the first value seen so the variance remains accurate for large values, then combined using the parallel algorithm
+     * of Chan et al.
+     */
+    private static final class Accumulator
+    {
+
+        long count, nan, missing;
+        double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        double shift, s1, s2;
+        double mean, m2;
+        boolean finished;
+        private final double moments[] = new double[GridKernels.MOMENTS];
+
+        void accept( double v )
+        {
+            if( v != v ) {
+                nan++;
+            }
+            else if( !(Math.abs( v ) < MISSING_VALUE) ) {
+                missing++;
+            }
+            else {
+                if( count == 0 ) {
+                    shift = v;
+                }
+                count++;
+                sum += v;
+                if( v < min ) {
+                    min = v;
+                }
+                if( v > max ) {
+                    max = v;
+                }
+                double d = v - shift;
+                s1 += d;
+                s2 += d * d;
+            }
+        }
+
+        void accept( double[] row, int from, int to )
+        {
+            int x = from;
+            // The first valid value becomes the shift
+            while( count == 0 && x < to ) {
+                accept( row[x++] );
+            }
+            if( x < to ) {
+                double m[] = moments;
+                GridKernels.getInstance().moments( row, x, to - x, shift, MISSING_VALUE, m );
+                long c = (long) m[0], n = (long) m[1];
+                count += c;
+                nan += n;
+                missing += (to - x) - c - n;
+                sum += m[2];
+                min = Math.min( min, m[3] );
+                max = Math.max( max, m[4] );
+                s1 += m[5];
+                s2 += m[6];
+            }
+        }
+
+        Accumulator finish()
+        {
+            if( !finished && count > 0 ) {
+                mean = shift + (s1 / count);
+                m2 = Math.max( 0.0, s2 - ((s1 * s1) / count) );
+            }
+            finished = true;
+            return this;
+        }
+
+        Accumulator combine( Accumulator b )
+        {
+            if( b.count > 0 ) {
+                if( count == 0 ) {
+                    mean = b.mean;
+                    m2 = b.m2;
+                }
+                else {
+                    double n = count + b.count;
+                    double δ = b.mean - mean;
+                    mean += δ * b.count / n;
+                    m2 += b.m2 + (δ * δ * count * b.count / n);
+                }
+                min = Math.min( min, b.min );
+                max = Math.max( max, b.max );
+            }
+            count += b.count;
+            nan += b.nan;
+            missing += b.missing;
+            sum += b.sum;
+            return this;
+        }
+    }
+
+    private static final class MomentTask
+            extends BandTask<Accumulator>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        MomentTask( Grid grid, int ys, int ye, int rows )
+        {
+            super( grid, ys, ye, rows );
+        }
+
+        @Override
+        protected BandTask<Accumulator> create( int ys, int ye )
+        {
+            return new MomentTask( grid, ys, ye, rows );
+        }
+
+        @Override
+        protected Accumulator createResult()
+        {
+            return new Accumulator();
+        }
+
+        @Override
+        protected void accept( Accumulator r, double v )
+        {
+            r.accept( v );
+        }
+
+        @Override
+        protected void accept( Accumulator r, double[] row, int from, int to )
+        {
+            r.accept( row, from, to );
+        }
+
+        @Override
+        protected void masked( Accumulator r, int n )
+        {
+            r.missing += n;
+        }
+
+        @Override
+        protected Accumulator combine( Accumulator a, Accumulator b )
+        {
+            return a.finish().combine( b.finish() );
+        }
+    }
+
+    private static final class HistogramTask
+            extends BandTask<long[]>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double min, max, scale;
+
+        HistogramTask( Grid grid, int ys, int ye, int rows, double min, double max )
+        {
+            super( grid, ys, ye, rows );
+            this.min = min;
+            this.max = max;
+            this.scale = max > min ? HISTOGRAM_BINS / (max - min) : 0.0;
+        }
+
+        @Override
+        protected BandTask<long[]> create( int ys, int ye )
+        {
+            return new HistogramTask( grid, ys, ye, rows, min, max );
+        }
+
+        @Override
+        protected long[] createResult()
+        {
+            return new long[HISTOGRAM_BINS];
+        }
+
+        @Override
+        protected void accept( long[] r, double v )
+        {
+            if( v >= min && v <= max ) {
+                r[Math.min( HISTOGRAM_BINS - 1, (int) ((v - min) * scale) )]++;
+            }
+        }
+
+        @Override
+        protected long[] combine( long[] a, long[] b )
+        {
+            for( int i = 0; i < HISTOGRAM_BINS; i++ ) {
+                a[i] += b[i];
+            }
+            return a;
+        }
+    }
+}
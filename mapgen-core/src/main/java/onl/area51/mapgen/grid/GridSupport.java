@@ -19,8 +19,8 @@ import java.util.function.BiConsumer;
 import java.util.function.DoublePredicate;
 import java.util.function.Function;
 import java.util.function.IntPredicate;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Provides utilities to handle grid based data
@@ -41,7 +41,11 @@ public class GridSupport
      */
     public static void forEach( int xs, int ys, int w, int h, BiConsumer<Integer, Integer> action )
     {
-        IntStream.range( ys, ys + h ).forEach( y -> IntStream.range( xs, xs + h ).forEach( x -> action.accept( x, y ) ) );
+        for( int y = ys, ye = ys + h; y < ye; y++ ) {
+            for( int x = xs, xe = xs + w; x < xe; x++ ) {
+                action.accept( x, y );
+            }
+        }
     }
 
     /**
@@ -57,12 +61,34 @@ public class GridSupport
      */
     public static void forEach( int xs, int ys, int w, int h, IntPredicate yf, IntPredicate xf, BiConsumer<Integer, Integer> action )
     {
-        IntStream.range( ys, ys + h )
-                .filter( yf )
-                .forEach( y -> IntStream.range( xs, xs + h )
-                        .filter( xf )
-                        .forEach( x -> action.accept( x, y ) )
-                );
+        for( int y = ys, ye = ys + h; y < ye; y++ ) {
+            if( yf.test( y ) ) {
+                for( int x = xs, xe = xs + w; x < xe; x++ ) {
+                    if( xf.test( x ) ) {
+                        action.accept( x, y );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterates across the cells of a grid passing the location and value to a consumer.
+     * <p>
+     * Nothing is allocated during the traversal.
+     *
+     * @param grid   Grid
+     * @param step   visit every step'th row and column, 1 for every cell
+     * @param xf     IntPredicate to filter against X axis, null for all columns
+     * @param yf     IntPredicate to filter against Y axis, null for all rows
+     * @param action GridCellConsumer to call for each cell
+     */
+    public static void forEachCell( Grid grid, int step, IntPredicate xf, IntPredicate yf, GridCellConsumer action )
+    {
+        GridCursor c = new GridCursor( grid, 0, step, xf, yf );
+        while( c.next() ) {
+            action.accept( c.getX(), c.getY(), c.getValue() );
+        }
     }
 
     /**
@@ -78,11 +104,7 @@ public class GridSupport
      */
     public static Stream<GridPoint> stream( int z, int ys, int ye, int xs, int xe )
     {
-        return IntStream.range( ys, ye )
-                .boxed()
-                .flatMap( y -> IntStream.range( xs, xe )
-                        .mapToObj( x -> GridPoint.of( z, x, y ) )
-                );
+        return StreamSupport.stream( new GridSpliterator<>( new GridCursor( null, z, 1, xs, xe, null, ys, ye, null ), GridSupport::toPoint ), false );
     }
 
     /**
@@ -106,13 +128,53 @@ public class GridSupport
                                             int xs, int xe,
                                             IntPredicate xf )
     {
-        return IntStream.range( ys, ye )
-                .filter( yf )
-                .boxed()
-                .flatMap( y -> IntStream.range( xs, xe )
-                        .filter( xf )
-                        .mapToObj( x -> GridPoint.of( z, x, y ) )
-                );
+        return StreamSupport.stream( new GridSpliterator<>( new GridCursor( null, z, 1, xs, xe, xf, ys, ye, yf ), GridSupport::toPoint ), false );
+    }
+
+    /**
+     * Returns a Stream of {@link GridDataPoint} of the values within a grid.
+     *
+     * @param grid Grid
+     * @param z    Zoom level, used only within the returned object
+     * @param ys   Start of y range
+     * @param ye   End (exclusive) of y range
+     * @param yf   IntPredicate to filter against Y axis, null for all rows
+     * @param xs   start of x range
+     * @param xe   end (exclusive) of x range
+     * @param xf   IntPredicate to filter against X axis, null for all columns
+     *
+     * @return Stream
+     */
+    public static Stream<GridDataPoint> dataStream( Grid grid,
+                                                    int z,
+                                                    int ys, int ye,
+                                                    IntPredicate yf,
+                                                    int xs, int xe,
+                                                    IntPredicate xf )
+    {
+        return dataStream( new GridCursor( grid, z, 1, xs, xe, xf, ys, ye, yf ) );
+    }
+
+    /**
+     * Returns a Stream of {@link GridDataPoint} of the cells a cursor visits
+     *
+     * @param cursor cursor which has not yet moved
+     *
+     * @return Stream
+     */
+    static Stream<GridDataPoint> dataStream( GridCursor cursor )
+    {
+        return StreamSupport.stream( new GridSpliterator<>( cursor, GridSupport::toDataPoint ), false );
+    }
+
+    private static GridPoint toPoint( GridCursor c )
+    {
+        return GridPoint.of( c.getZ(), c.getX(), c.getY() );
+    }
+
+    private static GridDataPoint toDataPoint( GridCursor c )
+    {
+        return GridDataPoint.of( c.getZ(), c.getX(), c.getY(), c.getValue() );
     }
 
     /**
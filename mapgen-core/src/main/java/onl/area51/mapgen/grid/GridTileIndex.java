@@ -0,0 +1,354 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import onl.area51.mapgen.util.tile.TileReference;
+
+/**
+ * An index from map tiles to the cells of a grid they cover.
+ * <p>
+ * For each zoom level the columns covered by a tile column, and the rows covered by a tile row, are found once and cached as runs of contiguous
+ * indices. A tile then iterates exactly its own cells with no per cell tests. Longitudes are compared in the range 0..360 so a tile crossing the
+ * Greenwich meridian results in two runs of columns, one at each edge of the grid.
+ * <p>
+ * Runs are held as an int array of start (inclusive) and end (exclusive) pairs.
+ *
+ * @author peter
+ */
+public final class GridTileIndex
+{
+
+    private static final int MAX_ENTRIES = 4096;
+    private static final int[] EMPTY = new int[0];
+
+    private final double λ[];
+    private final double φ[];
+    private final Map<Long, int[]> columns = new Runs();
+    private final Map<Long, int[]> rows = new Runs();
+
+    private GridTileIndex( double[] λ, double[] φ )
+    {
+        this.λ = λ;
+        this.φ = φ;
+    }
+
+    /**
+     * Create an index
+     *
+     * @param w number of columns
+     * @param h number of rows
+     * @param λ longitude of a column, in the range 0..360
+     * @param φ latitude of a row
+     *
+     * @return index
+     */
+    public static GridTileIndex of( int w, int h, IntToDoubleFunction λ, IntToDoubleFunction φ )
+    {
+        Objects.requireNonNull( λ );
+        Objects.requireNonNull( φ );
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        double l[] = new double[w];
+        for( int x = 0; x < w; x++ ) {
+            l[x] = λ.applyAsDouble( x );
+        }
+        double p[] = new double[h];
+        for( int y = 0; y < h; y++ ) {
+            p[y] = φ.applyAsDouble( y );
+        }
+        return new GridTileIndex( l, p );
+    }
+
+    /**
+     * The runs of columns covered by a tile column
+     *
+     * @param z  zoom
+     * @param tx tile column
+     *
+     * @return start/end pairs, do not modify
+     */
+    public int[] getColumns( int z, int tx )
+    {
+        return get( columns, z, tx, () -> {
+                if( z == 0 ) {
+                    // The single tile spans all longitudes, so both edges normalise to the same value
+                    return new int[]{0, λ.length};
+                }
+                double λ1 = TileReference.toCoordinate( z, tx, 0 ).getLongitude();
+                double λ2 = TileReference.toCoordinate( z, tx + 1, 0 ).getLongitude();
+                return runs( λ, GridSupport.betweenPosition( normalise( λ1 ), normalise( λ2 ) ) );
+            } );
+    }
+
+    /**
+     * The runs of rows covered by a tile row
+     *
+     * @param z  zoom
+     * @param ty tile row
+     *
+     * @return start/end pairs, do not modify
+     */
+    public int[] getRows( int z, int ty )
+    {
+        return get( rows, z, ty, () -> {
+                double φ1 = TileReference.toCoordinate( z, 0, ty ).getLatitude();
+                double φ2 = TileReference.toCoordinate( z, 0, ty + 1 ).getLatitude();
+                return runs( φ, GridSupport.between( φ1, φ2 ) );
+            } );
+    }
+
+    /**
+     * Does a tile cover any cells
+     *
+     * @param tile tile
+     *
+     * @return
+     */
+    public boolean intersects( TileReference tile )
+    {
+        return getColumns( tile.getZ(), tile.getX() ).length > 0 && getRows( tile.getZ(), tile.getY() ).length > 0;
+    }
+
+    /**
+     * Is a column or row within a set of runs
+     *
+     * @param runs start/end pairs
+     * @param v    column or row
+     *
+     * @return
+     */
+    public static boolean contains( int[] runs, int v )
+    {
+        for( int i = 0; i < runs.length; i += 2 ) {
+            if( v >= runs[i] && v < runs[i + 1] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pass every cell covered by a tile to a consumer. Cells not valid in the grid's mask are skipped.
+     *
+     * @param grid   Grid
+     * @param tile   tile
+     * @param action consumer
+     */
+    public void forEachCell( Grid grid, TileReference tile, GridCellConsumer action )
+    {
+        int cols[] = getColumns( tile.getZ(), tile.getX() );
+        int rs[] = getRows( tile.getZ(), tile.getY() );
+        GridMask mask = grid.getMask();
+        for( int j = 0; j < rs.length; j += 2 ) {
+            for( int y = rs[j]; y < rs[j + 1]; y++ ) {
+                for( int i = 0; i < cols.length; i += 2 ) {
+                    int e = cols[i + 1];
+                    if( mask == null ) {
+                        for( int x = cols[i]; x < e; x++ ) {
+                            action.accept( x, y, grid.getValue( x, y ) );
+                        }
+                    }
+                    else {
+                        for( int x = mask.nextValid( y, cols[i] ), ve; x < e; x = mask.nextValid( y, ve ) ) {
+                            ve = Math.min( e, mask.nextInvalid( y, x ) );
+                            for( ; x < ve; x++ ) {
+                                action.accept( x, y, grid.getValue( x, y ) );
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream every cell covered by a tile. Cells not valid in the grid's mask are skipped.
+     *
+     * @param grid Grid
+     * @param z    Zoom level, used only within the returned objects
+     * @param tile tile
+     *
+     * @return Stream
+     */
+    public Stream<GridDataPoint> dataStream( Grid grid, int z, TileReference tile )
+    {
+        int cols[] = getColumns( tile.getZ(), tile.getX() );
+        int rs[] = getRows( tile.getZ(), tile.getY() );
+        if( cols.length == 0 || rs.length == 0 ) {
+            return Stream.empty();
+        }
+        // Keep row-major order when a tile wraps by covering both runs of columns in one pass
+        IntPredicate xf = cols.length == 2 ? null : x -> contains( cols, x );
+        Stream<GridDataPoint> s = null;
+        for( int j = 0; j < rs.length; j += 2 ) {
+            Stream<GridDataPoint> r = GridSupport.dataStream( grid, z, rs[j], rs[j + 1], null, cols[0], cols[cols.length - 1], xf );
+            s = s == null ? r : Stream.concat( s, r );
+        }
+        GridMask mask = grid.getMask();
+        return mask == null ? s : s.filter( p -> mask.isValid( p.getX(), p.getY() ) );
+    }
+
+    /**
+     * Stream the cells covered by a tile from the coarsest level of a pyramid good enough for the zoom, see
+     * {@link GridPyramid#getLevelForZoom(int)}, so a low zoom tile visits about one cell per pixel rather than every cell.
+     * <p>
+     * Each cell of the level is reported at the location of the top left cell it covers in the original grid, and only by the tile containing that
+     * cell, so callers locate it as they would a cell of the grid itself. If the grid has a mask then cells covering no valid data are skipped.
+     *
+     * @param pyramid pyramid of the grid this index is for
+     * @param z       zoom
+     * @param tile    tile
+     *
+     * @return Stream
+     */
+    public Stream<GridDataPoint> dataStream( GridPyramid pyramid, int z, TileReference tile )
+    {
+        int level = pyramid.getLevelForZoom( z );
+        if( level == 0 ) {
+            return dataStream( pyramid.getGrid(), z, tile );
+        }
+        Stream<GridDataPoint> s = Stream.empty();
+        for( GridCursor c : cursors( pyramid, level, z, tile ) ) {
+            s = Stream.concat( s, GridSupport.dataStream( c ) );
+        }
+        return pyramid.getGrid().getMask() == null ? s : s.filter( p -> !Double.isNaN( p.getValue() ) );
+    }
+
+    /**
+     * Pass the cells covered by a tile from the coarsest level of a pyramid good enough for the zoom to a consumer. The cells are the same as
+     * {@link #dataStream(onl.area51.mapgen.grid.GridPyramid, int, onl.area51.mapgen.util.tile.TileReference)}.
+     *
+     * @param pyramid pyramid of the grid this index is for
+     * @param z       zoom
+     * @param tile    tile
+     * @param action  consumer
+     */
+    public void forEachCell( GridPyramid pyramid, int z, TileReference tile, GridCellConsumer action )
+    {
+        int level = pyramid.getLevelForZoom( z );
+        if( level == 0 ) {
+            forEachCell( pyramid.getGrid(), tile, action );
+            return;
+        }
+        boolean masked = pyramid.getGrid().getMask() != null;
+        for( GridCursor c : cursors( pyramid, level, z, tile ) ) {
+            while( c.next() ) {
+                double v = c.getValue();
+                if( !masked || v == v ) {
+                    action.accept( c.getX(), c.getY(), v );
+                }
+            }
+        }
+    }
+
+    /**
+     * A cursor for each run of rows covered by a tile, stepping over the top left cells of a pyramid level
+     */
+    private List<GridCursor> cursors( GridPyramid pyramid, int level, int z, TileReference tile )
+    {
+        int cols[] = getColumns( tile.getZ(), tile.getX() );
+        int rs[] = getRows( tile.getZ(), tile.getY() );
+        List<GridCursor> l = new ArrayList<>();
+        if( cols.length > 0 ) {
+            int scale = GridPyramid.getScale( level );
+            Grid view = pyramid.expand( level );
+            IntPredicate xf = cols.length == 2 ? null : x -> contains( cols, x );
+            int xs = align( cols[0], scale );
+            for( int j = 0; j < rs.length; j += 2 ) {
+                l.add( new GridCursor( view, z, scale, xs, cols[cols.length - 1], xf, align( rs[j], scale ), rs[j + 1], null ) );
+            }
+        }
+        return l;
+    }
+
+    private static int align( int v, int scale )
+    {
+        return ((v + scale - 1) / scale) * scale;
+    }
+
+    private static double normalise( double λ )
+    {
+        return λ < 0.0 ? λ + 360.0 : λ;
+    }
+
+    private static int[] runs( double[] v, DoublePredicate p )
+    {
+        int r[] = new int[4];
+        int n = 0;
+        int start = -1;
+        for( int i = 0; i <= v.length; i++ ) {
+            boolean in = i < v.length && p.test( v[i] );
+            if( in && start < 0 ) {
+                start = i;
+            }
+            else if( !in && start >= 0 ) {
+                if( n == r.length ) {
+                    r = Arrays.copyOf( r, n * 2 );
+                }
+                r[n++] = start;
+                r[n++] = i;
+                start = -1;
+            }
+        }
+        return n == 0 ? EMPTY : Arrays.copyOf( r, n );
+    }
+
+    private static int[] get( Map<Long, int[]> map, int z, int t, Supplier<int[]> f )
+    {
+        Long key = ((long) z << 32) | (t & 0xffffffffL);
+        int r[];
+        synchronized( map ) {
+            r = map.get( key );
+        }
+        if( r == null ) {
+            r = f.get();
+            synchronized( map ) {
+                map.put( key, r );
+            }
+        }
+        return r;
+    }
+
+    private static final class Runs
+            extends LinkedHashMap<Long, int[]>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        Runs()
+        {
+            super( 16, 0.75f, true );
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, int[]> eldest )
+        {
+            return size() > MAX_ENTRIES;
+        }
+    }
+}
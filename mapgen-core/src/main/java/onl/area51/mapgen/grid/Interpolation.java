@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * Methods of sampling a grid between cell centres.
+ * <p>
+ * Each method is a separable filter of a number of taps. Along each axis the taps start at {@link #first(double)} and are weighted by
+ * {@link #weights(double, double[], int)}, so the same weights can be precomputed once and used for many samples.
+ *
+ * @author peter
+ */
+public enum Interpolation
+{
+    /**
+     * The value of the closest cell
+     */
+    NEAREST( 1 )
+    {
+        @Override
+        public int first( double x )
+        {
+            return (int) Math.floor( x + 0.5 );
+        }
+
+        @Override
+        public void weights( double x, double[] w, int off )
+        {
+            w[off] = 1.0;
+        }
+
+    },
+    /**
+     * Linear interpolation between the surrounding 2x2 cells
+     */
+    BILINEAR( 2 )
+    {
+        @Override
+        public int first( double x )
+        {
+            return (int) Math.floor( x );
+        }
+
+        @Override
+        public void weights( double x, double[] w, int off )
+        {
+            double f = x - Math.floor( x );
+            w[off] = 1.0 - f;
+            w[off + 1] = f;
+        }
+
+    },
+    /**
+     * Catmull-Rom cubic interpolation between the surrounding 4x4 cells
+     */
+    BICUBIC( 4 )
+    {
+        @Override
+        public int first( double x )
+        {
+            return (int) Math.floor( x ) - 1;
+        }
+
+        @Override
+        public void weights( double x, double[] w, int off )
+        {
+            double f = x - Math.floor( x );
+            double f2 = f * f;
+            double f3 = f2 * f;
+            w[off] = 0.5 * (-f3 + 2.0 * f2 - f);
+            w[off + 1] = 0.5 * (3.0 * f3 - 5.0 * f2 + 2.0);
+            w[off + 2] = 0.5 * (-3.0 * f3 + 4.0 * f2 + f);
+            w[off + 3] = 0.5 * (f3 - f2);
+        }
+
+    };
+
+    private final int taps;
+
+    private Interpolation( int taps )
+    {
+        this.taps = taps;
+    }
+
+    /**
+     * The number of cells used along each axis
+     *
+     * @return
+     */
+    public int getTaps()
+    {
+        return taps;
+    }
+
+    /**
+     * The first cell used along an axis
+     *
+     * @param x position where cell centres are at integer positions
+     *
+     * @return index of first cell, which may be outside the grid
+     */
+    public abstract int first( double x );
+
+    /**
+     * The weights of each cell along an axis
+     *
+     * @param x   position where cell centres are at integer positions
+     * @param w   destination of {@link #getTaps()} weights
+     * @param off offset in w
+     */
+    public abstract void weights( double x, double[] w, int off );
+
+    /**
+     * Sample a grid. Positions outside of the grid take the value of the nearest edge. If any cell used is NaN then so is the result.
+     *
+     * @param grid Grid
+     * @param x    column, cell centres are at integer positions
+     * @param y    row, cell centres are at integer positions
+     *
+     * @return value
+     */
+    public double sample( Grid grid, double x, double y )
+    {
+        int w = grid.getWidth() - 1, h = grid.getHeight() - 1;
+        if( taps == 1 ) {
+            return grid.getValue( clamp( first( x ), w ), clamp( first( y ), h ) );
+        }
+
+        double wx[] = new double[taps], wy[] = new double[taps];
+        weights( x, wx, 0 );
+        weights( y, wy, 0 );
+        int x0 = first( x ), y0 = first( y );
+        double v = 0.0;
+        for( int j = 0; j < taps; j++ ) {
+            int r = clamp( y0 + j, h );
+            double s = 0.0;
+            for( int i = 0; i < taps; i++ ) {
+                s += wx[i] * grid.getValue( clamp( x0 + i, w ), r );
+            }
+            v += wy[j] * s;
+        }
+        return v;
+    }
+
+    private static int clamp( int v, int max )
+    {
+        return v < 0 ? 0 : v > max ? max : v;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A read only {@link DenseGrid} backed by a memory mapped file.
+ * <p>
+ * The data is held off-heap in the page cache so a grid can be reopened by later jobs without decoding or copying it, and multiple processes opening the
+ * same file share a single copy of the data.
+ * <p>
+ * The file consists of a 16 byte header followed by width*height 32 bit floats in row-major order, all little endian:
+ * <ul>
+ * <li>int magic number "GRD1"</li>
+ * <li>int format version, currently 1</li>
+ * <li>int width</li>
+ * <li>int height</li>
+ * </ul>
+ *
+ * @author peter
+ */
+public final class MappedGrid
+        implements DenseGrid
+{
+
+    private static final int MAGIC = 0x31445247;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final Path path;
+    private final FloatBuffer buffer;
+    private final int w, h;
+
+    private MappedGrid( Path path, FloatBuffer buffer, int w, int h )
+    {
+        this.path = path;
+        this.buffer = buffer;
+        this.w = w;
+        this.h = h;
+    }
+
+    /**
+     * Open a grid file
+     *
+     * @param path path of file
+     *
+     * @return MappedGrid
+     *
+     * @throws IOException if the file could not be mapped or is not a grid file
+     */
+    public static MappedGrid open( Path path )
+            throws IOException
+    {
+        Objects.requireNonNull( path );
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            if( size < HEADER_SIZE ) {
+                throw new IOException( "Not a grid file " + path );
+            }
+
+            MappedByteBuffer b = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+            b.order( ByteOrder.LITTLE_ENDIAN );
+            if( b.getInt( 0 ) != MAGIC ) {
+                throw new IOException( "Not a grid file " + path );
+            }
+            if( b.getInt( 4 ) != VERSION ) {
+                throw new IOException( "Unsupported grid file version " + b.getInt( 4 ) + " in " + path );
+            }
+            int w = b.getInt( 8 ), h = b.getInt( 12 );
+            if( w < 1 || h < 1 || size < HEADER_SIZE + (4L * w * h) ) {
+                throw new IOException( "Corrupt grid file " + path );
+            }
+
+            // The mapping remains valid once the channel has been closed
+            b.position( HEADER_SIZE );
+            FloatBuffer buffer = b.slice().order( ByteOrder.LITTLE_ENDIAN ).asFloatBuffer();
+            return new MappedGrid( path, buffer, w, h );
+        }
+    }
+
+    /**
+     * Write a grid to a file so that it can be opened with {@link #open(java.nio.file.Path)}.
+     * <p>
+     * The file is written to a temporary file first then moved into place so a process opening the same path will never see a partial file.
+     *
+     * @param grid Grid to write
+     * @param path path of file
+     *
+     * @throws IOException on failure
+     */
+    public static void write( Grid grid, Path path )
+            throws IOException
+    {
+        Objects.requireNonNull( grid );
+        Objects.requireNonNull( path );
+        int w = grid.getWidth(), h = grid.getHeight();
+
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile( dir, path.getFileName().toString(), ".tmp" );
+        try {
+            try( FileChannel channel = FileChannel.open( tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+                header.putInt( MAGIC ).putInt( VERSION ).putInt( w ).putInt( h ).flip();
+                writeFully( channel, header );
+
+                ByteBuffer b = ByteBuffer.allocateDirect( 4 * w ).order( ByteOrder.LITTLE_ENDIAN );
+                FloatBuffer fb = b.asFloatBuffer();
+                double row[] = new double[w];
+                DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+                for( int y = 0; y < h; y++ ) {
+                    if( dense != null ) {
+                        dense.getRow( y, row );
+                    }
+                    else {
+                        for( int x = 0; x < w; x++ ) {
+                            row[x] = grid.getValue( x, y );
+                        }
+                    }
+
+                    fb.clear();
+                    for( int x = 0; x < w; x++ ) {
+                        fb.put( (float) row[x] );
+                    }
+                    b.clear();
+                    writeFully( channel, b );
+                }
+            }
+            Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp );
+        }
+    }
+
+    /**
+     * Write a grid to a file then open it
+     *
+     * @param grid Grid to write
+     * @param path path of file
+     *
+     * @return MappedGrid of the written file
+     *
+     * @throws IOException on failure
+     */
+    public static MappedGrid create( Grid grid, Path path )
+            throws IOException
+    {
+        write( grid, path );
+        return open( path );
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer b )
+            throws IOException
+    {
+        while( b.hasRemaining() ) {
+            channel.write( b );
+        }
+    }
+
+    /**
+     * The file backing this grid
+     *
+     * @return path
+     */
+    public Path getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        return buffer.get( (y * w) + x );
+    }
+
+    @Override
+    public double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        for( int i = (y * w) + x, e = i + n, j = off; i < e; i++, j++ ) {
+            dst[j] = buffer.get( i );
+        }
+        return dst;
+    }
+
+}
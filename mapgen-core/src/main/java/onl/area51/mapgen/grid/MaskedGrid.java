@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * A view of a grid where cells not valid in a {@link GridMask} read as NaN
+ *
+ * @author peter
+ */
+final class MaskedGrid
+        implements DenseGrid
+{
+
+    private final Grid grid;
+    private final GridMask mask;
+
+    MaskedGrid( Grid grid, GridMask mask )
+    {
+        if( grid.getWidth() != mask.getWidth() || grid.getHeight() != mask.getHeight() ) {
+            throw new IllegalArgumentException( "Mask is not the same size as the grid" );
+        }
+        // Don't stack masks, the new mask replaces any existing one
+        this.grid = grid instanceof MaskedGrid ? ((MaskedGrid) grid).grid : grid;
+        this.mask = mask;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return grid.getWidth();
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return grid.getHeight();
+    }
+
+    @Override
+    public GridMask getMask()
+    {
+        return mask;
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        return mask.isValid( x, y ) ? grid.getValue( x, y ) : Double.NaN;
+    }
+
+    @Override
+    public double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        int e = x + n;
+        for( int s = x; s < e; ) {
+            int v = Math.min( e, mask.nextValid( y, s ) );
+            for( int i = s; i < v; i++ ) {
+                dst[off + i - x] = Double.NaN;
+            }
+            if( v == e ) {
+                break;
+            }
+            int iv = Math.min( e, mask.nextInvalid( y, v ) );
+            if( grid instanceof DenseGrid ) {
+                ((DenseGrid) grid).getRow( y, v, iv - v, dst, off + v - x );
+            }
+            else {
+                for( int i = v; i < iv; i++ ) {
+                    dst[off + i - x] = grid.getValue( i, y );
+                }
+            }
+            s = iv;
+        }
+        return dst;
+    }
+}
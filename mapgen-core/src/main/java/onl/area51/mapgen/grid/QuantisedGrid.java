@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A read only {@link DenseGrid} storing each value as an unsigned 8 or 16 bit code with a scale and offset, the same way GRIB2 simple packing does.
+ * <p>
+ * A value is decoded as {@code offset + (code * scale)}. Missing values are held in a {@link GridMask}, as in the bitmap section of a GRIB2 record, so
+ * every code is a value. A 16 bit grid takes a quarter of the memory of the equivalent {@link DoubleGrid} and is exact for GRIB2 fields packed at up
+ * to 16 bits.
+ *
+ * @author peter
+ */
+public final class QuantisedGrid
+        implements DenseGrid
+{
+
+    /**
+     * The storage used for each value
+     */
+    public static enum Precision
+    {
+        BYTE( 0xff ),
+        SHORT( 0xffff );
+
+        private final int max;
+
+        private Precision( int max )
+        {
+            this.max = max;
+        }
+
+        /**
+         * The largest code
+         *
+         * @return
+         */
+        public int getMaxCode()
+        {
+            return max;
+        }
+    }
+
+    private final byte[] bytes;
+    private final short[] shorts;
+    private final int w, h;
+    private final double offset, scale;
+    private final GridMask mask;
+
+    private QuantisedGrid( byte[] bytes, short[] shorts, GridMask mask, int w, int h, double offset, double scale, int length )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        if( ((long) w * h) > length ) {
+            throw new IllegalArgumentException( "Grid is larger than array size" );
+        }
+        if( mask != null && (mask.getWidth() != w || mask.getHeight() != h) ) {
+            throw new IllegalArgumentException( "Mask must be the same size as the grid" );
+        }
+        this.bytes = bytes;
+        this.shorts = shorts;
+        this.mask = mask;
+        this.w = w;
+        this.h = h;
+        this.offset = offset;
+        this.scale = scale;
+    }
+
+    /**
+     * Wrap 16 bit codes where every cell is valid
+     *
+     * @param codes  codes in row-major order
+     * @param w      width
+     * @param h      height
+     * @param offset value of code 0
+     * @param scale  difference in value between codes
+     *
+     * @return grid
+     */
+    public static QuantisedGrid of( short[] codes, int w, int h, double offset, double scale )
+    {
+        return of( codes, null, w, h, offset, scale );
+    }
+
+    /**
+     * Wrap 16 bit codes, e.g. the packed values and bitmap of a GRIB2 record
+     *
+     * @param codes  codes in row-major order
+     * @param mask   valid cells, null if every cell is valid
+     * @param w      width
+     * @param h      height
+     * @param offset value of code 0
+     * @param scale  difference in value between codes
+     *
+     * @return grid
+     */
+    public static QuantisedGrid of( short[] codes, GridMask mask, int w, int h, double offset, double scale )
+    {
+        Objects.requireNonNull( codes );
+        return new QuantisedGrid( null, codes, mask, w, h, offset, scale, codes.length );
+    }
+
+    /**
+     * Wrap 8 bit codes where every cell is valid
+     *
+     * @param codes  codes in row-major order
+     * @param w      width
+     * @param h      height
+     * @param offset value of code 0
+     * @param scale  difference in value between codes
+     *
+     * @return grid
+     */
+    public static QuantisedGrid of( byte[] codes, int w, int h, double offset, double scale )
+    {
+        return of( codes, null, w, h, offset, scale );
+    }
+
+    /**
+     * Wrap 8 bit codes
+     *
+     * @param codes  codes in row-major order
+     * @param mask   valid cells, null if every cell is valid
+     * @param w      width
+     * @param h      height
+     * @param offset value of code 0
+     * @param scale  difference in value between codes
+     *
+     * @return grid
+     */
+    public static QuantisedGrid of( byte[] codes, GridMask mask, int w, int h, double offset, double scale )
+    {
+        Objects.requireNonNull( codes );
+        return new QuantisedGrid( codes, null, mask, w, h, offset, scale, codes.length );
+    }
+
+    /**
+     * Encode a grid at 16 bits
+     *
+     * @param grid Grid
+     *
+     * @return encoded grid
+     */
+    public static QuantisedGrid encode( Grid grid )
+    {
+        return encode( grid, Precision.SHORT );
+    }
+
+    /**
+     * Encode a grid. The range of values is taken from its {@link GridStatistics}, and if there are any NaN or missing values they are excluded by a
+     * mask.
+     *
+     * @param grid      Grid
+     * @param precision storage to use
+     *
+     * @return encoded grid
+     */
+    public static QuantisedGrid encode( Grid grid, Precision precision )
+    {
+        Objects.requireNonNull( grid );
+        Objects.requireNonNull( precision );
+        GridStatistics stats = GridStatistics.calculate( grid );
+        double min = stats.getCount() > 0 ? stats.getMin() : 0.0;
+        double range = stats.getCount() > 0 ? stats.getMax() - min : 0.0;
+        double scale = range > 0.0 ? range / precision.getMaxCode() : 0.0;
+        GridMask mask = stats.getNaNCount() > 0 || stats.getMissingCount() > 0 ? GridMask.of( grid ) : null;
+
+        int w = grid.getWidth(), h = grid.getHeight();
+        int size = w * h;
+        QuantisedGrid q = precision == Precision.BYTE
+                          ? new QuantisedGrid( new byte[size], null, mask, w, h, min, scale, size )
+                          : new QuantisedGrid( null, new short[size], mask, w, h, min, scale, size );
+
+        DenseGrid src = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        IntStream.range( 0, h )
+                .parallel()
+                .forEach( y -> {
+                    double row[] = new double[w];
+                    if( src != null ) {
+                        src.getRow( y, row );
+                    }
+                    else {
+                        for( int x = 0; x < w; x++ ) {
+                            row[x] = grid.getValue( x, y );
+                        }
+                    }
+                    q.encodeRow( y, row );
+                } );
+        return q;
+    }
+
+    private void encodeRow( int y, double[] row )
+    {
+        double inv = scale > 0.0 ? 1.0 / scale : 0.0;
+        int max = getPrecision().getMaxCode();
+        for( int x = 0, i = y * w; x < w; x++, i++ ) {
+            double v = row[x];
+            // Missing values are excluded by the mask so their code is never read
+            int c = GridStatistics.isMissing( v )
+                    ? 0
+                    : Math.min( max, Math.max( 0, (int) Math.round( (v - offset) * inv ) ) );
+            if( bytes != null ) {
+                bytes[i] = (byte) c;
+            }
+            else {
+                shorts[i] = (short) c;
+            }
+        }
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public GridMask getMask()
+    {
+        return mask;
+    }
+
+    public Precision getPrecision()
+    {
+        return bytes != null ? Precision.BYTE : Precision.SHORT;
+    }
+
+    public double getOffset()
+    {
+        return offset;
+    }
+
+    public double getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * The largest difference between an encoded value and the value it was encoded from
+     *
+     * @return
+     */
+    public double getMaxError()
+    {
+        return scale / 2.0;
+    }
+
+    /**
+     * The code at a point
+     *
+     * @param x
+     * @param y
+     *
+     * @return code, meaningless if the cell is not valid in the mask
+     */
+    public int getCode( int x, int y )
+    {
+        int i = (y * w) + x;
+        return bytes != null ? bytes[i] & 0xff : shorts[i] & 0xffff;
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        if( mask != null && !mask.isValid( x, y ) ) {
+            return Double.NaN;
+        }
+        return offset + (getCode( x, y ) * scale);
+    }
+
+    @Override
+    public double[] getRow( int y, int x, int n, double[] dst, int off )
+    {
+        int i = (y * w) + x, e = i + n, j = off;
+        if( bytes != null ) {
+            for( ; i < e; i++, j++ ) {
+                dst[j] = offset + ((bytes[i] & 0xff) * scale);
+            }
+        }
+        else {
+            for( ; i < e; i++, j++ ) {
+                dst[j] = offset + ((shorts[i] & 0xffff) * scale);
+            }
+        }
+        if( mask != null ) {
+            // Then blank out each run of invalid cells
+            int xe = x + n;
+            for( int s = mask.nextInvalid( y, x ), ve; s < xe; s = mask.nextInvalid( y, ve ) ) {
+                ve = Math.min( xe, mask.nextValid( y, s ) );
+                Arrays.fill( dst, off + (s - x), off + (ve - x), Double.NaN );
+            }
+        }
+        return dst;
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+import uk.trainwatch.gis.Coordinate;
+
+/**
+ * A set of scattered points, such as observations, which can be interpolated onto a regular grid so it can be contoured or shaded.
+ * <p>
+ * Point positions are in grid cell units, cell centres being at integer positions. The points are held in an implicit k-d tree, the arrays being ordered
+ * so the median of each range splits it alternately on x and y, so searching for the points near a cell only visits a few nodes. Output cells are
+ * filled in parallel by row.
+ *
+ * @author peter
+ */
+public final class ScatteredPoints
+{
+
+    private final double[] xs, ys, vs;
+
+    private ScatteredPoints( double[] xs, double[] ys, double[] vs )
+    {
+        this.xs = xs;
+        this.ys = ys;
+        this.vs = vs;
+        build( 0, xs.length, 0 );
+    }
+
+    /**
+     * Create from arrays of positions and values. The arrays are copied.
+     *
+     * @param x column of each point
+     * @param y row of each point
+     * @param v value of each point
+     *
+     * @return points
+     */
+    public static ScatteredPoints of( double[] x, double[] y, double[] v )
+    {
+        Objects.requireNonNull( x );
+        Objects.requireNonNull( y );
+        Objects.requireNonNull( v );
+        if( x.length != y.length || x.length != v.length ) {
+            throw new IllegalArgumentException( "Arrays must be the same length" );
+        }
+        return new ScatteredPoints( x.clone(), y.clone(), v.clone() );
+    }
+
+    /**
+     * Create from geographic points
+     *
+     * @param <T>      type of point
+     * @param points   points
+     * @param location location of a point
+     * @param value    value of a point
+     * @param geometry layout of the grid the points will be interpolated onto
+     *
+     * @return points
+     */
+    public static <T> ScatteredPoints of( Collection<T> points, Function<T, Coordinate> location, ToDoubleFunction<T> value,
+                                          GridGeometry geometry )
+    {
+        int n = points.size();
+        double x[] = new double[n], y[] = new double[n], v[] = new double[n];
+        int i = 0;
+        for( T p: points ) {
+            Coordinate c = location.apply( p );
+            x[i] = geometry.getX( c.getLongitude() );
+            y[i] = geometry.getY( c.getLatitude() );
+            v[i] = value.applyAsDouble( p );
+            i++;
+        }
+        return new ScatteredPoints( x, y, v );
+    }
+
+    /**
+     * The number of points
+     *
+     * @return
+     */
+    public int size()
+    {
+        return xs.length;
+    }
+
+    /**
+     * Build the tree over a range, placing its median on the splitting axis at its middle
+     */
+    private void build( int lo, int hi, int axis )
+    {
+        while( hi - lo > 1 ) {
+            int mid = (lo + hi) >>> 1;
+            select( lo, hi - 1, mid, axis == 0 ? xs : ys );
+            build( lo, mid, axis ^ 1 );
+            lo = mid + 1;
+            axis ^= 1;
+        }
+    }
+
+    /**
+     * Quickselect so that a[k] is the k'th smallest in [lo,hi], smaller before and larger after it
+     */
+    private void select( int lo, int hi, int k, double[] a )
+    {
+        while( hi > lo ) {
+            double pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while( i <= j ) {
+                while( a[i] < pivot ) {
+                    i++;
+                }
+                while( a[j] > pivot ) {
+                    j--;
+                }
+                if( i <= j ) {
+                    swap( i++, j-- );
+                }
+            }
+            if( k <= j ) {
+                hi = j;
+            }
+            else if( k >= i ) {
+                lo = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void swap( int i, int j )
+    {
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = vs[i];
+        vs[i] = vs[j];
+        vs[j] = t;
+    }
+
+    /**
+     * Interpolate onto a grid using inverse distance weighting
+     *
+     * @param w      width
+     * @param h      height
+     * @param radius only points within this distance, in cells, of a cell are used
+     * @param power  power of the distance, usually 2
+     *
+     * @return grid, cells with no points within the radius are NaN
+     */
+    public DoubleGrid idw( int w, int h, double radius, double power )
+    {
+        if( !(radius > 0.0) ) {
+            throw new IllegalArgumentException( "Radius must be >0" );
+        }
+        DoubleGrid g = DenseGrid.create( w, h );
+        double a[] = g.array();
+        double r2 = radius * radius;
+        double p = power / 2.0;
+        IntStream.range( 0, h )
+                .parallel()
+                .forEach( y -> {
+                    // sum of weighted values, sum of weights, and the value of any point exactly on the cell
+                    double acc[] = new double[3];
+                    for( int x = 0, o = y * w; x < w; x++, o++ ) {
+                        acc[0] = acc[1] = 0.0;
+                        acc[2] = Double.NaN;
+                        idw( 0, xs.length, 0, x, y, r2, p, acc );
+                        a[o] = acc[2] == acc[2] ? acc[2] : acc[1] > 0.0 ? acc[0] / acc[1] : Double.NaN;
+                    }
+                } );
+        return g;
+    }
+
+    private void idw( int lo, int hi, int axis, double x, double y, double r2, double p, double[] acc )
+    {
+        while( lo < hi ) {
+            int mid = (lo + hi) >>> 1;
+            double dx = xs[mid] - x, dy = ys[mid] - y;
+            double d2 = (dx * dx) + (dy * dy);
+            if( d2 <= r2 ) {
+                if( d2 == 0.0 ) {
+                    acc[2] = vs[mid];
+                }
+                else {
+                    double wt = p == 1.0 ? 1.0 / d2 : 1.0 / Math.pow( d2, p );
+                    acc[0] += wt * vs[mid];
+                    acc[1] += wt;
+                }
+            }
+            double d = axis == 0 ? dx : dy;
+            // Search the side containing the cell, then the other only if the radius crosses the split
+            if( d > 0.0 ) {
+                if( d * d <= r2 ) {
+                    idw( mid + 1, hi, axis ^ 1, x, y, r2, p, acc );
+                }
+                hi = mid;
+            }
+            else {
+                if( d * d <= r2 ) {
+                    idw( lo, mid, axis ^ 1, x, y, r2, p, acc );
+                }
+                lo = mid + 1;
+            }
+            axis ^= 1;
+        }
+    }
+
+    /**
+     * Interpolate onto a grid using the value of the nearest point
+     *
+     * @param w           width
+     * @param h           height
+     * @param maxDistance cells with no point within this distance, in cells, are NaN
+     *
+     * @return grid
+     */
+    public DoubleGrid nearest( int w, int h, double maxDistance )
+    {
+        DoubleGrid g = DenseGrid.create( w, h );
+        double a[] = g.array();
+        double max2 = maxDistance * maxDistance;
+        IntStream.range( 0, h )
+                .parallel()
+                .forEach( y -> {
+                    // distance squared and index of the best point so far
+                    double best[] = new double[2];
+                    for( int x = 0, o = y * w; x < w; x++, o++ ) {
+                        best[0] = max2;
+                        best[1] = -1;
+                        nearest( 0, xs.length, 0, x, y, best );
+                        a[o] = best[1] < 0 ? Double.NaN : vs[(int) best[1]];
+                    }
+                } );
+        return g;
+    }
+
+    /**
+     * Find the nearest point to a position
+     *
+     * @param x column
+     * @param y row
+     *
+     * @return index of the point in the order they are held, -1 if there are no points
+     */
+    public int nearest( double x, double y )
+    {
+        double best[] = {Double.POSITIVE_INFINITY, -1};
+        nearest( 0, xs.length, 0, x, y, best );
+        return (int) best[1];
+    }
+
+    private void nearest( int lo, int hi, int axis, double x, double y, double[] best )
+    {
+        if( lo >= hi ) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x, dy = ys[mid] - y;
+        double d2 = (dx * dx) + (dy * dy);
+        if( d2 <= best[0] ) {
+            best[0] = d2;
+            best[1] = mid;
+        }
+        double d = axis == 0 ? dx : dy;
+        if( d > 0.0 ) {
+            nearest( lo, mid, axis ^ 1, x, y, best );
+            if( d * d <= best[0] ) {
+                nearest( mid + 1, hi, axis ^ 1, x, y, best );
+            }
+        }
+        else {
+            nearest( mid + 1, hi, axis ^ 1, x, y, best );
+            if( d * d <= best[0] ) {
+                nearest( lo, mid, axis ^ 1, x, y, best );
+            }
+        }
+    }
+
+    public double getX( int i )
+    {
+        return xs[i];
+    }
+
+    public double getY( int i )
+    {
+        return ys[i];
+    }
+
+    public double getValue( int i )
+    {
+        return vs[i];
+    }
+}
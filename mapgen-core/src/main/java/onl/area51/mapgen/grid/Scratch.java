@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * Per thread scratch space, grown as required, so code running over rows in parallel does not allocate a buffer for each row
+ *
+ * @author peter
+ */
+final class Scratch
+        extends ThreadLocal<double[]>
+{
+
+    /**
+     * Get this thread's buffer
+     *
+     * @param n minimum length
+     *
+     * @return buffer of at least n values. Its contents are undefined.
+     */
+    double[] get( int n )
+    {
+        double a[] = get();
+        if( a == null || a.length < n ) {
+            a = new double[n];
+            set( a );
+        }
+        return a;
+    }
+}
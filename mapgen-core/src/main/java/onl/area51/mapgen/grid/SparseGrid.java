@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Grid} where only a small number of cells hold a value, e.g. observations or lightning strikes.
+ * <p>
+ * Populated cells are held in an open-addressing hash map from the packed cell coordinates to the value, using primitive arrays so nothing is boxed.
+ * Cells without a value read as the default value. {@link #forEachPopulated(onl.area51.mapgen.grid.GridCellConsumer)} visits only the populated
+ * cells, whilst {@link #forEachCell(onl.area51.mapgen.grid.GridCellConsumer)} visits every cell like any other grid.
+ * <p>
+ * This class is not thread safe for writes.
+ *
+ * @author peter
+ */
+public final class SparseGrid
+        implements Grid
+{
+
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int w, h;
+    private final double defaultValue;
+    private long[] keys;
+    private double[] values;
+    private int size, mask;
+
+    private SparseGrid( int w, int h, double defaultValue, int capacity )
+    {
+        this.w = w;
+        this.h = h;
+        this.defaultValue = defaultValue;
+        allocate( capacity );
+    }
+
+    /**
+     * Create an empty grid whose cells default to NaN
+     *
+     * @param w width
+     * @param h height
+     *
+     * @return SparseGrid
+     */
+    public static SparseGrid create( int w, int h )
+    {
+        return create( w, h, Double.NaN );
+    }
+
+    /**
+     * Create an empty grid
+     *
+     * @param w            width
+     * @param h            height
+     * @param defaultValue value of cells that have not been set
+     *
+     * @return SparseGrid
+     */
+    public static SparseGrid create( int w, int h, double defaultValue )
+    {
+        if( w < 1 || h < 1 ) {
+            throw new IllegalArgumentException( "Grid dimensions must be >=1" );
+        }
+        return new SparseGrid( w, h, defaultValue, MIN_CAPACITY );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new double[capacity];
+        Arrays.fill( keys, EMPTY );
+        mask = capacity - 1;
+    }
+
+    private static long key( int x, int y )
+    {
+        return ((long) y << 32) | x;
+    }
+
+    private int slot( long key )
+    {
+        // fmix64 from MurmurHash3 so neighbouring cells spread across the table
+        long k = key;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k & mask;
+    }
+
+    private int find( long key )
+    {
+        for( int i = slot( key );; i = (i + 1) & mask ) {
+            long k = keys[i];
+            if( k == key ) {
+                return i;
+            }
+            if( k == EMPTY ) {
+                return -1;
+            }
+        }
+    }
+
+    private void check( int x, int y )
+    {
+        if( x < 0 || x >= w || y < 0 || y >= h ) {
+            throw new IndexOutOfBoundsException( "Cell " + x + "," + y + " out of bounds " + w + "x" + h );
+        }
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    public double getDefaultValue()
+    {
+        return defaultValue;
+    }
+
+    /**
+     * The number of populated cells
+     *
+     * @return
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * The value of a cell
+     *
+     * @param x
+     * @param y
+     *
+     * @return value, or the default value if the cell has not been set
+     *
+     * @throws IndexOutOfBoundsException if the cell is outside the grid
+     */
+    @Override
+    public double getValue( int x, int y )
+    {
+        check( x, y );
+        int i = find( key( x, y ) );
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    /**
+     * Does a cell have a value
+     *
+     * @param x
+     * @param y
+     *
+     * @return
+     */
+    public boolean contains( int x, int y )
+    {
+        check( x, y );
+        return find( key( x, y ) ) >= 0;
+    }
+
+    /**
+     * Set the value of a cell
+     *
+     * @param x
+     * @param y
+     * @param v
+     */
+    public void setValue( int x, int y, double v )
+    {
+        check( x, y );
+        // insert may replace the arrays so must be called before values is read
+        int i = insert( key( x, y ), v );
+        values[i] = v;
+    }
+
+    /**
+     * Add to the value of a cell, e.g. to count events. A cell without a value starts from 0.
+     *
+     * @param x
+     * @param y
+     * @param v amount to add
+     *
+     * @return the new value
+     */
+    public double add( int x, int y, double v )
+    {
+        check( x, y );
+        int i = insert( key( x, y ), 0.0 );
+        return values[i] += v;
+    }
+
+    /**
+     * Find or create the slot of a key
+     *
+     * @param key     key
+     * @param initial value of a new slot
+     *
+     * @return slot
+     */
+    private int insert( long key, double initial )
+    {
+        for( int i = slot( key );; i = (i + 1) & mask ) {
+            long k = keys[i];
+            if( k == key ) {
+                return i;
+            }
+            if( k == EMPTY ) {
+                // Keep the load factor at most 1/2
+                if( (size + 1) * 2 > keys.length ) {
+                    resize( keys.length * 2 );
+                    return insert( key, initial );
+                }
+                keys[i] = key;
+                values[i] = initial;
+                size++;
+                return i;
+            }
+        }
+    }
+
+    private void resize( int capacity )
+    {
+        long oldKeys[] = keys;
+        double oldValues[] = values;
+        allocate( capacity );
+        for( int j = 0; j < oldKeys.length; j++ ) {
+            long k = oldKeys[j];
+            if( k != EMPTY ) {
+                int i = slot( k );
+                while( keys[i] != EMPTY ) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Remove the value of a cell so it reads as the default value
+     *
+     * @param x
+     * @param y
+     *
+     * @return true if the cell had a value
+     */
+    public boolean remove( int x, int y )
+    {
+        check( x, y );
+        int i = find( key( x, y ) );
+        if( i < 0 ) {
+            return false;
+        }
+        // Shift following entries of the probe sequence back so lookups do not need tombstones
+        for( int j = (i + 1) & mask;; j = (j + 1) & mask ) {
+            long k = keys[j];
+            if( k == EMPTY ) {
+                break;
+            }
+            int s = slot( k );
+            // Move k into the gap at i if its home slot is not cyclically within (i, j]
+            if( ((j - s) & mask) >= ((j - i) & mask) ) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all values
+     */
+    public void clear()
+    {
+        allocate( MIN_CAPACITY );
+        size = 0;
+    }
+
+    /**
+     * Pass every populated cell to a consumer, in no particular order
+     *
+     * @param action consumer
+     */
+    public void forEachPopulated( GridCellConsumer action )
+    {
+        long k[] = keys;
+        double v[] = values;
+        for( int i = 0; i < k.length; i++ ) {
+            long key = k[i];
+            if( key != EMPTY ) {
+                action.accept( (int) key, (int) (key >>> 32), v[i] );
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+/**
+ * A rectangular view of another grid.
+ * <p>
+ * Subsets of subsets are flattened so that every view reads directly from the original grid no matter how deeply they are nested. A subset is only a
+ * {@link DenseGrid} if its parent is, and has the part of the parent's mask that it covers.
+ *
+ * @author peter
+ */
+class SubsetGrid
+        implements Grid
+{
+
+    final Grid parent;
+    final int l, t, w, h;
+    private volatile GridMask mask;
+
+    private SubsetGrid( Grid parent, int l, int t, int w, int h )
+    {
+        this.parent = parent;
+        this.l = l;
+        this.t = t;
+        this.w = w;
+        this.h = h;
+    }
+
+    /**
+     * Create a subset. The bounds must already have been validated against the parent.
+     *
+     * @param parent Grid
+     * @param l      left of subset
+     * @param t      top of subset
+     * @param w      width
+     * @param h      height
+     *
+     * @return subset
+     */
+    static Grid of( Grid parent, int l, int t, int w, int h )
+    {
+        if( l == 0 && t == 0 && w == parent.getWidth() && h == parent.getHeight() ) {
+            return parent;
+        }
+        if( parent instanceof SubsetGrid ) {
+            SubsetGrid s = (SubsetGrid) parent;
+            return create( s.parent, s.l + l, s.t + t, w, h );
+        }
+        return create( parent, l, t, w, h );
+    }
+
+    private static SubsetGrid create( Grid parent, int l, int t, int w, int h )
+    {
+        return parent instanceof DenseGrid ? new Dense( parent, l, t, w, h ) : new SubsetGrid( parent, l, t, w, h );
+    }
+
+    Grid getParent()
+    {
+        return parent;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return w;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return h;
+    }
+
+    @Override
+    public GridMask getMask()
+    {
+        GridMask m = mask;
+        if( m == null ) {
+            GridMask pm = parent.getMask();
+            if( pm == null ) {
+                return null;
+            }
+            mask = m = pm.subset( l, t, w, h );
+        }
+        return m;
+    }
+
+    @Override
+    public double getValue( int x, int y )
+    {
+        return parent.getValue( l + x, t + y );
+    }
+
+    /**
+     * A subset of a {@link DenseGrid}
+     */
+    private static final class Dense
+            extends SubsetGrid
+            implements DenseGrid
+    {
+
+        Dense( Grid parent, int l, int t, int w, int h )
+        {
+            super( parent, l, t, w, h );
+        }
+
+        @Override
+        public double[] getRow( int y, int x, int n, double[] dst, int off )
+        {
+            return ((DenseGrid) parent).getRow( t + y, l + x, n, dst, off );
+        }
+    }
+}
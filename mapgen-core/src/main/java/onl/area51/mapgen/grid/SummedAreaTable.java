@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A summed-area table, or integral image, of a {@link Grid}.
+ * <p>
+ * Each entry holds the sum and number of valid values of every cell above and to the left of it, so the sum, count or mean of any rectangle of the grid
+ * is found from four entries in constant time regardless of its size. NaN, missing and masked cells are excluded. To limit loss of precision the table
+ * holds values relative to the mean of the grid.
+ * <p>
+ * Use {@link #of(onl.area51.mapgen.grid.Grid)} to obtain the table for a grid as it is cached against the grid instance.
+ *
+ * @author peter
+ */
+public final class SummedAreaTable
+{
+
+    private static final GridCache<SummedAreaTable> CACHE = GridCache.create( SummedAreaTable::new );
+
+    private final int w, h, stride;
+    private final double shift;
+    private final double[] sums;
+    private final int[] counts;
+
+    private SummedAreaTable( Grid grid )
+    {
+        w = grid.getWidth();
+        h = grid.getHeight();
+        stride = w + 1;
+        GridStatistics stats = grid.getStatistics();
+        shift = stats.getCount() > 0 ? stats.getAverage() : 0.0;
+        sums = new double[stride * (h + 1)];
+        counts = new int[stride * (h + 1)];
+
+        // Prefix sums along each row
+        GridMask mask = grid.getMask();
+        DenseGrid dense = grid instanceof DenseGrid ? (DenseGrid) grid : null;
+        IntStream.range( 0, h )
+                .parallel()
+                .forEach( y -> {
+                    double row[] = new double[w];
+                    if( dense != null ) {
+                        dense.getRow( y, row );
+                    }
+                    else {
+                        for( int x = 0; x < w; x++ ) {
+                            row[x] = grid.getValue( x, y );
+                        }
+                    }
+                    int o = ((y + 1) * stride) + 1;
+                    double s = 0.0;
+                    int c = 0;
+                    for( int x = 0; x < w; x++ ) {
+                        double v = row[x];
+                        if( !GridStatistics.isMissing( v ) && (mask == null || mask.isValid( x, y )) ) {
+                            s += v - shift;
+                            c++;
+                        }
+                        sums[o + x] = s;
+                        counts[o + x] = c;
+                    }
+                } );
+
+        // Then down each column, in parallel over bands of columns
+        int band = 64;
+        IntStream.range( 0, (w + band - 1) / band )
+                .parallel()
+                .forEach( b -> {
+                    int xs = 1 + (b * band), xe = Math.min( stride, xs + band );
+                    for( int y = 2; y <= h; y++ ) {
+                        int o = y * stride, p = o - stride;
+                        for( int x = xs; x < xe; x++ ) {
+                            sums[o + x] += sums[p + x];
+                            counts[o + x] += counts[p + x];
+                        }
+                    }
+                } );
+    }
+
+    /**
+     * Get the table for a grid. This is built once and then cached for as long as the grid is reachable.
+     *
+     * @param grid Grid
+     *
+     * @return table
+     */
+    public static SummedAreaTable of( Grid grid )
+    {
+        return CACHE.get( grid );
+    }
+
+    /**
+     * Remove the cached table, and everything else cached against a grid. This must be called if the values in a mutable grid are changed.
+     *
+     * @param grid Grid
+     */
+    public static void invalidate( Grid grid )
+    {
+        GridCache.invalidate( grid );
+    }
+
+    /**
+     * Build a table without using the cache
+     *
+     * @param grid Grid
+     *
+     * @return table
+     */
+    public static SummedAreaTable create( Grid grid )
+    {
+        Objects.requireNonNull( grid );
+        return new SummedAreaTable( grid );
+    }
+
+    public int getWidth()
+    {
+        return w;
+    }
+
+    public int getHeight()
+    {
+        return h;
+    }
+
+    /**
+     * The number of valid values within a rectangle. The rectangle is clipped to the grid.
+     *
+     * @param x0 left
+     * @param y0 top
+     * @param x1 right, exclusive
+     * @param y1 bottom, exclusive
+     *
+     * @return count
+     */
+    public int count( int x0, int y0, int x1, int y1 )
+    {
+        int l = clamp( x0, w ), t = clamp( y0, h ), r = clamp( x1, w ), b = clamp( y1, h );
+        if( r <= l || b <= t ) {
+            return 0;
+        }
+        return counts[(b * stride) + r] - counts[(t * stride) + r] - counts[(b * stride) + l] + counts[(t * stride) + l];
+    }
+
+    /**
+     * The sum of the valid values within a rectangle. The rectangle is clipped to the grid.
+     *
+     * @param x0 left
+     * @param y0 top
+     * @param x1 right, exclusive
+     * @param y1 bottom, exclusive
+     *
+     * @return sum, 0 if there are no valid values
+     */
+    public double sum( int x0, int y0, int x1, int y1 )
+    {
+        int l = clamp( x0, w ), t = clamp( y0, h ), r = clamp( x1, w ), b = clamp( y1, h );
+        if( r <= l || b <= t ) {
+            return 0.0;
+        }
+        int n = counts[(b * stride) + r] - counts[(t * stride) + r] - counts[(b * stride) + l] + counts[(t * stride) + l];
+        return relative( l, t, r, b ) + (n * shift);
+    }
+
+    /**
+     * The mean of the valid values within a rectangle. The rectangle is clipped to the grid.
+     *
+     * @param x0 left
+     * @param y0 top
+     * @param x1 right, exclusive
+     * @param y1 bottom, exclusive
+     *
+     * @return mean, NaN if there are no valid values
+     */
+    public double mean( int x0, int y0, int x1, int y1 )
+    {
+        int l = clamp( x0, w ), t = clamp( y0, h ), r = clamp( x1, w ), b = clamp( y1, h );
+        if( r <= l || b <= t ) {
+            return Double.NaN;
+        }
+        int n = counts[(b * stride) + r] - counts[(t * stride) + r] - counts[(b * stride) + l] + counts[(t * stride) + l];
+        return n == 0 ? Double.NaN : shift + (relative( l, t, r, b ) / n);
+    }
+
+    private double relative( int l, int t, int r, int b )
+    {
+        return sums[(b * stride) + r] - sums[(t * stride) + r] - sums[(b * stride) + l] + sums[(t * stride) + l];
+    }
+
+    private static int clamp( int v, int max )
+    {
+        return v < 0 ? 0 : v > max ? max : v;
+    }
+}
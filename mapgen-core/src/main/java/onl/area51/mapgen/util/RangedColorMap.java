@@ -18,6 +18,7 @@ package onl.area51.mapgen.util;
 import java.awt.Color;
 import java.util.DoubleSummaryStatistics;
 import java.util.Objects;
+import onl.area51.mapgen.grid.GridStatistics;
 
 /**
  * A Colour map which will map values to colours.
@@ -55,6 +56,20 @@ public interface RangedColorMap
         return create( map, stats.getMin(), stats.getMax() );
     }
 
+    /**
+     * Return a RangedColorMap with the specified ColorMap and based on the statistics of a grid
+     *
+     * @param map   ColorMap map
+     * @param stats Statistics
+     *
+     * @return
+     */
+    static RangedColorMap create( ColorMap map, GridStatistics stats )
+    {
+        Objects.requireNonNull( stats );
+        return create( map, stats.getMin(), stats.getMax() );
+    }
+
     /**
      * Create a RangedColorMap for the specified values
      *
@@ -115,6 +130,12 @@ public interface RangedColorMap
                 return range.getIndex( val );
             }
 
+            @Override
+            public int[] getIndices( double[] values, int off, int n, int[] dst, int doff )
+            {
+                return range.getIndices( values, off, n, dst, doff );
+            }
+
             @Override
             public double getValue( int index )
             {
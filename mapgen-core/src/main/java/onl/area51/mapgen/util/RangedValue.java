@@ -16,6 +16,8 @@
 package onl.area51.mapgen.util;
 
 import java.util.DoubleSummaryStatistics;
+import onl.area51.mapgen.grid.GridKernels;
+import onl.area51.mapgen.grid.GridStatistics;
 
 /**
  * A range of itemised values.
@@ -48,6 +50,25 @@ public interface RangedValue
      */
     int getIndex( double val );
 
+    /**
+     * The index of each of a run of values, e.g. a row of a grid
+     *
+     * @param values values
+     * @param off    offset of first value
+     * @param n      number of values
+     * @param dst    destination of the indices
+     * @param doff   offset in dst of the first index
+     *
+     * @return dst
+     */
+    default int[] getIndices( double[] values, int off, int n, int[] dst, int doff )
+    {
+        for( int i = 0; i < n; i++ ) {
+            dst[doff + i] = getIndex( values[off + i] );
+        }
+        return dst;
+    }
+
     /**
      * The value at the specified index. This is usually used when generating legends
      *
@@ -77,6 +98,19 @@ public interface RangedValue
         return create( stats.getMin(), stats.getMax(), size );
     }
 
+    /**
+     * Create a RangedValue based on the statistics of a grid
+     *
+     * @param stats statistics
+     * @param size  number of entries
+     *
+     * @return RangedValue
+     */
+    static RangedValue create( GridStatistics stats, int size )
+    {
+        return create( stats.getMin(), stats.getMax(), size );
+    }
+
     /**
      * Create a RangedValue based on a range
      *
@@ -117,22 +151,15 @@ public interface RangedValue
             @Override
             public int getIndex( double val )
             {
-                if( val <= min ) {
-                    return 0;
-                }
-                if( val >= max ) {
-                    return maxIndex;
-                }
-                // FIXME this needs a better algorithm if we support large values
-                double v = min;
-                for( int i = 0; i < size; i++ ) {
-                    v += Δv;
-                    if( val < v ) {
-                        return i;
-                    }
-                }
-                // Should never be reached
-                return maxIndex;
+                // Same as GridKernels.index() so both agree at the bin edges
+                return val <= min ? 0 : val < max ? Math.min( (int) ((val - min) / Δv), maxIndex ) : maxIndex;
+            }
+
+            @Override
+            public int[] getIndices( double[] values, int off, int n, int[] dst, int doff )
+            {
+                GridKernels.getInstance().index( values, off, n, min, max, Δv, maxIndex, dst, doff );
+                return dst;
             }
 
             @Override
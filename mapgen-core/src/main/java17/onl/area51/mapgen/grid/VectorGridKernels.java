@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link GridKernels} using the Vector API.
+ * <p>
+ * This is only compiled into the Java 17 part of the multi-release jar and is loaded reflectively by {@link GridKernels#getInstance()}. Each kernel
+ * processes as many lanes as the preferred species allows and finishes the tail with the scalar kernel.
+ *
+ * @author peter
+ */
+final class VectorGridKernels
+        extends GridKernels
+{
+
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    private static final int L = S.length();
+
+    VectorGridKernels()
+    {
+    }
+
+    @Override
+    public boolean isVectorised()
+    {
+        return true;
+    }
+
+    @Override
+    public void scale( double[] a, int off, int n, double factor, double offset )
+    {
+        int i = 0;
+        for( int u = S.loopBound( n ); i < u; i += L ) {
+            DoubleVector.fromArray( S, a, off + i )
+                    .mul( factor )
+                    .add( offset )
+                    .intoArray( a, off + i );
+        }
+        super.scale( a, off + i, n - i, factor, offset );
+    }
+
+    @Override
+    public void clamp( double[] a, int off, int n, double min, double max )
+    {
+        int i = 0;
+        for( int u = S.loopBound( n ); i < u; i += L ) {
+            DoubleVector v = DoubleVector.fromArray( S, a, off + i );
+            // max/min would turn NaN into NaN anyway but blend keeps the exact scalar semantics
+            v.blend( min, v.compare( VectorOperators.LT, min ) )
+                    .blend( max, v.compare( VectorOperators.GT, max ) )
+                    .intoArray( a, off + i );
+        }
+        super.clamp( a, off + i, n - i, min, max );
+    }
+
+    @Override
+    public void apply( GridOperator op, double[] a, int aoff, double[] b, int boff, int n )
+    {
+        // Each operator has its own loop as lanewise() is only intrinsified when the operator is a constant
+        int i = 0, u = S.loopBound( n );
+        switch( op ) {
+            case ADD:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).add( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case SUBTRACT:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).sub( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case MULTIPLY:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).mul( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case DIVIDE:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).div( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case MIN:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).min( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case MAX:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i ).max( DoubleVector.fromArray( S, b, boff + i ) ).intoArray( a, aoff + i );
+                }
+                break;
+            case HYPOT:
+                for( ; i < u; i += L ) {
+                    DoubleVector.fromArray( S, a, aoff + i )
+                            .lanewise( VectorOperators.HYPOT, DoubleVector.fromArray( S, b, boff + i ) )
+                            .intoArray( a, aoff + i );
+                }
+                break;
+            default:
+                break;
+        }
+        super.apply( op, a, aoff + i, b, boff + i, n - i );
+    }
+
+    @Override
+    public void axpy( double a, double[] x, int xoff, double[] y, int yoff, int n )
+    {
+        int i = 0;
+        for( int u = S.loopBound( n ); i < u; i += L ) {
+            DoubleVector.fromArray( S, x, xoff + i )
+                    .mul( a )
+                    .add( DoubleVector.fromArray( S, y, yoff + i ) )
+                    .intoArray( y, yoff + i );
+        }
+        super.axpy( a, x, xoff + i, y, yoff + i, n - i );
+    }
+
+    @Override
+    public void gather( double[] src, int[] index, double[] weight, double[] dst, int off, int n )
+    {
+        int i = 0;
+        for( int u = S.loopBound( n ); i < u; i += L ) {
+            DoubleVector.fromArray( S, src, 0, index, i )
+                    .mul( DoubleVector.fromArray( S, weight, i ) )
+                    .add( DoubleVector.fromArray( S, dst, off + i ) )
+                    .intoArray( dst, off + i );
+        }
+        for( ; i < n; i++ ) {
+            dst[off + i] += weight[i] * src[index[i]];
+        }
+    }
+
+    @Override
+    public void moments( double[] a, int off, int n, double shift, double limit, double[] m )
+    {
+        DoubleVector zero = DoubleVector.zero( S );
+        DoubleVector one = DoubleVector.broadcast( S, 1.0 );
+        DoubleVector count = zero, nan = zero, sum = zero, s1 = zero, s2 = zero;
+        DoubleVector min = DoubleVector.broadcast( S, Double.POSITIVE_INFINITY );
+        DoubleVector max = DoubleVector.broadcast( S, Double.NEGATIVE_INFINITY );
+        int i = 0;
+        for( int u = S.loopBound( n ); i < u; i += L ) {
+            DoubleVector v = DoubleVector.fromArray( S, a, off + i );
+            // NaN fails the comparison so is never valid
+            VectorMask<Double> valid = v.abs().compare( VectorOperators.LT, limit );
+            VectorMask<Double> invalid = valid.not();
+            // Counting in lanes is much cheaper than trueCount() every iteration
+            count = count.add( one, valid );
+            nan = nan.add( one, v.compare( VectorOperators.NE, v ) );
+            DoubleVector d = v.sub( shift ).blend( 0.0, invalid );
+            sum = sum.add( v.blend( 0.0, invalid ) );
+            min = min.min( v.blend( Double.POSITIVE_INFINITY, invalid ) );
+            max = max.max( v.blend( Double.NEGATIVE_INFINITY, invalid ) );
+            s1 = s1.add( d );
+            s2 = s2.add( d.mul( d ) );
+        }
+
+        super.moments( a, off + i, n - i, shift, limit, m );
+        m[0] += count.reduceLanes( VectorOperators.ADD );
+        m[1] += nan.reduceLanes( VectorOperators.ADD );
+        m[2] += sum.reduceLanes( VectorOperators.ADD );
+        m[3] = Math.min( m[3], min.reduceLanes( VectorOperators.MIN ) );
+        m[4] = Math.max( m[4], max.reduceLanes( VectorOperators.MAX ) );
+        m[5] += s1.reduceLanes( VectorOperators.ADD );
+        m[6] += s2.reduceLanes( VectorOperators.ADD );
+    }
+
+    // index() is left to the scalar kernel: the double to int conversion is not intrinsified on JDK 17 so a vector version is slower
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.DoubleGrid;
+import onl.area51.mapgen.util.ColorMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class BasicContourTest
+{
+
+    private static final int W = 60;
+    private static final int H = 40;
+
+    private static DoubleGrid grid( double factor )
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[(y * W) + x] = Math.sin( x / 7.0 ) * Math.cos( y / 5.0 ) * factor;
+            }
+        }
+        return DenseGrid.of( a, W, H );
+    }
+
+    private static int[] draw( DenseGrid g, Contour c )
+    {
+        c.setData( g );
+        c.setScale( 4f );
+        BufferedImage img = new BufferedImage( W * 4, H * 4, BufferedImage.TYPE_INT_RGB );
+        c.draw( img.createGraphics() );
+        return img.getRGB( 0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth() );
+    }
+
+    /**
+     * Contouring a grid again after its values have changed must draw the same as contouring a new grid with those values, not skip blocks using
+     * a range cached from before
+     */
+    @Test
+    public void mutated()
+    {
+        ColorMap cmap = ColorMap.gradient( Color.RED, Color.BLUE, 11 );
+        Contour c = Contour.basic( cmap );
+        DoubleGrid g = grid( 10 );
+        draw( g, c );
+
+        DoubleGrid expected = grid( 30 );
+        System.arraycopy( expected.array(), 0, g.array(), 0, W * H );
+        int actual[] = draw( g, c );
+        int fresh[] = draw( expected, Contour.basic( cmap ) );
+        int drawn = 0;
+        for( int i = 0; i < fresh.length; i++ ) {
+            if( fresh[i] != 0xff000000 ) {
+                drawn++;
+            }
+        }
+        assertTrue( drawn > 100 );
+        assertArrayEquals( fresh, actual );
+    }
+}
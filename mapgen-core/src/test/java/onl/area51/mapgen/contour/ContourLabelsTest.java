@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.GridGeometry;
+import onl.area51.mapgen.util.ColorMap;
+import onl.area51.mapgen.util.tile.TileReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ContourLabelsTest
+{
+
+    private static final int W = 41;
+    private static final int H = 31;
+
+    /**
+     * Contours of a cone peaking at 10°E 45°N, on a 1° grid from 10°W 60°N
+     */
+    private static ContourTileIndex index()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[y * W + x] = 10.0 - Math.hypot( x - 20, y - 15 );
+            }
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, W, H ), 0.0, 2.0, 4.0, 6.0, 8.0 );
+        return ContourTileIndex.of( s, GridGeometry.of( -10, 60, 1, -1, W, H ) );
+    }
+
+    /**
+     * Test labels lie on their lines, are upright and do not overlap
+     */
+    @Test
+    public void placement()
+    {
+        ContourTileIndex index = index();
+        int z = 6;
+        ContourProjection p = index.getProjection( z );
+        ContourLabels labels = ContourLabels.of( p, z, ContourLabels.DEFAULT_FONT, ContourLabels::format );
+        assertTrue( labels.getLabelCount() > 5 );
+
+        ContourSet s = p.getContourSet();
+        float px[] = p.pixels( z );
+        for( int i = 0; i < labels.getLabelCount(); i++ ) {
+            double θ = labels.getAngle( i );
+            assertTrue( θ >= -Math.PI / 2 && θ <= Math.PI / 2 );
+
+            // Within a pixel of a segment of its level
+            int level = labels.getLevel( i );
+            double d = Double.POSITIVE_INFINITY;
+            for( int l = s.getFirstLine( level ); l < s.getEndLine( level ); l++ ) {
+                for( int q = s.lines()[l]; q < s.lines()[l + 1] - 1; q++ ) {
+                    double ax = px[q << 1], ay = px[(q << 1) + 1], dx = px[(q << 1) + 2] - ax, dy = px[(q << 1) + 3] - ay;
+                    double t = Math.max( 0, Math.min( 1, ((labels.getX( i ) - ax) * dx + (labels.getY( i ) - ay) * dy) / (dx * dx + dy * dy) ) );
+                    d = Math.min( d, Math.hypot( labels.getX( i ) - ax - t * dx, labels.getY( i ) - ay - t * dy ) );
+                }
+            }
+            assertTrue( d < 1 );
+
+            Rectangle2D b = labels.getBounds( i );
+            for( int j = 0; j < i; j++ ) {
+                Rectangle2D o = labels.getBounds( j );
+                assertFalse( b.getMaxX() > o.getMinX() && o.getMaxX() > b.getMinX() && b.getMaxY() > o.getMinY() && o.getMaxY() > b.getMinY() );
+            }
+        }
+    }
+
+    /**
+     * Test lines too short or curved for the text are not labelled
+     */
+    @Test
+    public void tooShort()
+    {
+        ContourTileIndex index = index();
+        assertTrue( ContourLabels.of( index.getProjection( 1 ), 1, ContourLabels.DEFAULT_FONT, ContourLabels::format ).getLabelCount() > 0 );
+        Font big = ContourLabels.DEFAULT_FONT.deriveFont( 40f );
+        assertEquals( 0, ContourLabels.of( index.getProjection( 1 ), 1, big, ContourLabels::format ).getLabelCount() );
+    }
+
+    /**
+     * Test the level text
+     */
+    @Test
+    public void format()
+    {
+        assertEquals( "100", ContourLabels.format( 100 ) );
+        assertEquals( "2.5", ContourLabels.format( 2.5 ).replace( ',', '.' ) );
+        assertEquals( "-3.14", ContourLabels.format( -3.14159 ).replace( ',', '.' ) );
+    }
+
+    /**
+     * Test a layer caches its labels per zoom and draws them
+     */
+    @Test
+    public void layer()
+    {
+        ContourTileLayer layer = new ContourTileLayer( index(), ColorMap.gradient( Color.RED, Color.BLUE, 6 ), "test", true ).setShowLabels( true );
+        assertSame( layer.getLabels( 5 ), layer.getLabels( 5 ) );
+        assertSame( layer.getLabels( 8 ), layer.getLabels( 14 ) );
+        assertEquals( 8, layer.getLabels( 14 ).getZoom() );
+
+        ContourLabels labels = layer.getLabels( 6 );
+        double x = labels.getX( 0 ), y = labels.getY( 0 );
+        TileReference tile = TileReference.of( 6, (int) (x / 256), (int) (y / 256) );
+        BufferedImage img = new BufferedImage( 256, 256, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = img.createGraphics();
+        g.translate( -tile.getX() * 256, -tile.getY() * 256 );
+        labels.draw( g, tile, layer.getColours(), Color.WHITE );
+        g.dispose();
+        // The halo around the text
+        int white = 0;
+        for( int py = 0; py < 256; py++ ) {
+            for( int px = 0; px < 256; px++ ) {
+                if( img.getRGB( px, py ) == 0xffffffff ) {
+                    white++;
+                }
+            }
+        }
+        assertTrue( white > 10 );
+    }
+}
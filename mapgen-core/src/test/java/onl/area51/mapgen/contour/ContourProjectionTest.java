@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.geom.PathIterator;
+import java.awt.geom.Path2D;
+import java.util.Random;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.GridGeometry;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ContourProjectionTest
+{
+
+    /**
+     * Test bulk projection matches projecting each point, on rows and between them
+     */
+    @Test
+    public void project()
+    {
+        GridGeometry geometry = GridGeometry.global( 0, 360, 181 );
+        Random r = new Random( 1 );
+        int n = 1000;
+        float src[] = new float[n << 1];
+        for( int i = 0; i < n; i++ ) {
+            src[i << 1] = r.nextFloat() * 359;
+            src[(i << 1) + 1] = (i & 1) == 0 ? r.nextInt( 181 ) : r.nextFloat() * 180;
+        }
+        for( int z : new int[]{0, 5, 10} ) {
+            float dst[] = new float[n << 1];
+            ContourProjection.project( geometry, src, 0, dst, 0, n, z );
+            double ulp = Math.ulp( (float) ContourTileIndex.getWorldSize( z ) );
+            for( int i = 0; i < n; i++ ) {
+                assertEquals( ContourTileIndex.getPixelX( geometry.getλ( src[i << 1] ), z ), dst[i << 1], ulp );
+                assertEquals( ContourTileIndex.getPixelY( geometry.getφ( src[(i << 1) + 1] ), z ), dst[(i << 1) + 1], ulp );
+            }
+        }
+        // Longitudes beyond 180° are west of the antimeridian
+        float p[] = {270, 90};
+        ContourProjection.project( geometry, p, 0, p, 0, 1, 1 );
+        assertEquals( 128f, p[0], 1e-4f );
+        assertEquals( 256f, p[1], 1e-4f );
+    }
+
+    /**
+     * Test projected points are cached per zoom and paths split segments crossing the antimeridian at the edges of the map
+     */
+    @Test
+    public void cached()
+    {
+        // A level crossing the whole grid from west to east, over the antimeridian at column 180
+        int w = 360, h = 31;
+        double a[] = new double[w * h];
+        for( int y = 0; y < h; y++ ) {
+            for( int x = 0; x < w; x++ ) {
+                a[y * w + x] = y;
+            }
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, w, h ), 15.5 );
+        ContourProjection p = ContourProjection.of( s, GridGeometry.of( 0, 15, 1, -1, w, h ) );
+        assertSame( p.pixels( 3 ), p.pixels( 3 ) );
+        assertNotSame( p.pixels( 3 ), p.pixels( 4 ) );
+        assertEquals( p.getX( 10, 4 ), ContourTileIndex.getPixelX( s.getX( 0, 10 ), 4 ), 1e-3 );
+
+        Path2D.Float path = p.toPath( 0, 2 );
+        int moves = 0;
+        double max = 0, px = 0;
+        for( PathIterator it = path.getPathIterator( null ); !it.isDone(); it.next() ) {
+            float c[] = new float[6];
+            int type = it.currentSegment( c );
+            if( type == PathIterator.SEG_MOVETO ) {
+                moves++;
+            }
+            else {
+                max = Math.max( max, Math.abs( c[0] - px ) );
+            }
+            px = c[0];
+        }
+        assertEquals( 2, moves );
+        assertTrue( max < 10 );
+        assertEquals( 0.0, path.getBounds2D().getMinX(), 1e-3 );
+        assertEquals( ContourTileIndex.getWorldSize( 2 ), path.getBounds2D().getMaxX(), 1e-3 );
+    }
+
+    /**
+     * Test zooms beyond the cache are projected on demand
+     */
+    @Test
+    public void deep()
+    {
+        double a[] = new double[4 * 4];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i % 4;
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, 4, 4 ), 1.5 );
+        ContourProjection p = ContourProjection.of( s, GridGeometry.of( 10, 50, 0.01, -0.01, 4, 4 ) );
+        int z = ContourProjection.MAX_CACHED_ZOOM + 4;
+        assertEquals( ContourTileIndex.getPixelX( 10.015, z ), p.getX( 0, z ), 1e-6 );
+        assertEquals( ContourTileIndex.getPixelY( 49.97, z ), p.getY( 0, z ), 1e-6 );
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.DoubleGrid;
+import onl.area51.mapgen.grid.Grid;
+import onl.area51.mapgen.util.ColorMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ContourSetTest
+{
+
+    private static final int W = 41;
+    private static final int H = 31;
+
+    /**
+     * A cone with its peak of 10 at the centre
+     */
+    private static DenseGrid cone()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[y * W + x] = 10.0 - Math.hypot( x - 20, y - 15 );
+            }
+        }
+        return DenseGrid.of( a, W, H );
+    }
+
+    private static double area( ContourSet s, int line )
+    {
+        double a = 0;
+        for( int i = 1, n = s.getPointCount( line ); i < n; i++ ) {
+            a += s.getX( line, i - 1 ) * s.getY( line, i ) - s.getX( line, i ) * s.getY( line, i - 1 );
+        }
+        return a / 2;
+    }
+
+    /**
+     * Test a level around the peak is a single closed circle with the higher values on the left
+     */
+    @Test
+    public void closed()
+    {
+        ContourSet s = ContourSet.of( cone(), 5.0 );
+        assertEquals( 1, s.getLevelCount() );
+        assertEquals( 1, s.getLineCount() );
+        assertTrue( s.isClosed( 0 ) );
+        for( int i = 0; i < s.getPointCount( 0 ); i++ ) {
+            assertEquals( 5.0, Math.hypot( s.getX( 0, i ) - 20, s.getY( 0, i ) - 15 ), 0.05 );
+        }
+        assertEquals( Math.PI * 25, area( s, 0 ), 1.0 );
+    }
+
+    /**
+     * Test a level which leaves the grid gives open lines ending on the boundary
+     */
+    @Test
+    public void open()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i % W;
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, W, H ), 2.5, 100.0 );
+        assertEquals( 1, s.getLineCount() );
+        assertEquals( 0, s.getFirstLine( 0 ) );
+        assertEquals( 1, s.getEndLine( 0 ) );
+        assertEquals( 1, s.getFirstLine( 1 ) );
+        assertEquals( 1, s.getEndLine( 1 ) );
+        assertFalse( s.isClosed( 0 ) );
+        assertEquals( H, s.getPointCount( 0 ) );
+        for( int i = 0; i < H; i++ ) {
+            assertEquals( 2.5f, s.getX( 0, i ), 1e-6f );
+        }
+        // Higher values on the left so the line runs up the grid
+        assertEquals( H - 1, s.getY( 0, 0 ), 0f );
+        assertEquals( 0, s.getY( 0, H - 1 ), 0f );
+    }
+
+    /**
+     * Test every point lies on a cell edge where the interpolated value is the level
+     */
+    @Test
+    public void onLevel()
+    {
+        DenseGrid g = cone();
+        ContourSet s = ContourSet.of( g, 10 );
+        assertEquals( 10, s.getLevelCount() );
+        assertTrue( s.getLineCount() > 0 );
+        for( int l = 0; l < s.getLineCount(); l++ ) {
+            double level = s.getLevel( s.getLineLevel( l ) );
+            for( int i = 0; i < s.getPointCount( l ); i++ ) {
+                double x = s.getX( l, i ), y = s.getY( l, i );
+                double v;
+                if( x == Math.floor( x ) ) {
+                    int y0 = (int) Math.floor( y );
+                    double t = y - y0;
+                    v = t == 0 ? g.getValue( (int) x, y0 ) : g.getValue( (int) x, y0 ) * (1 - t) + g.getValue( (int) x, y0 + 1 ) * t;
+                }
+                else {
+                    assertEquals( Math.floor( y ), y, 0.0 );
+                    int x0 = (int) Math.floor( x );
+                    double t = x - x0;
+                    v = g.getValue( x0, (int) y ) * (1 - t) + g.getValue( x0 + 1, (int) y ) * t;
+                }
+                assertEquals( level, v, 1e-4 );
+            }
+        }
+    }
+
+    /**
+     * Test lines stop at missing data
+     */
+    @Test
+    public void missing()
+    {
+        DenseGrid g = cone();
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            g.getRow( y, 0, W, a, y * W );
+        }
+        a[15 * W + 25] = Double.NaN;
+        ContourSet s = ContourSet.of( DenseGrid.of( a, W, H ), 5.0 );
+        assertEquals( 1, s.getLineCount() );
+        assertFalse( s.isClosed( 0 ) );
+    }
+
+    /**
+     * Test the line level lookup skips levels with no lines
+     */
+    @Test
+    public void lineLevel()
+    {
+        ContourSet s = ContourSet.of( cone(), -100.0, 5.0, 100.0, 8.0 );
+        assertEquals( 0, s.getEndLine( 0 ) );
+        assertEquals( 2, s.getLineCount() );
+        assertEquals( 1, s.getLineLevel( 0 ) );
+        assertEquals( 3, s.getLineLevel( 1 ) );
+    }
+
+    /**
+     * The points of a level, less the repeated end of closed lines, sorted
+     */
+    private static long[] points( ContourSet s, int level )
+    {
+        long p[] = new long[s.getPointCount()];
+        int n = 0;
+        for( int l = s.getFirstLine( level ); l < s.getEndLine( level ); l++ ) {
+            for( int i = 0, pe = s.getPointCount( l ) - (s.isClosed( l ) ? 1 : 0); i < pe; i++ ) {
+                p[n++] = ((long) Float.floatToIntBits( s.getX( l, i ) ) << 32) | (Float.floatToIntBits( s.getY( l, i ) ) & 0xffffffffL);
+            }
+        }
+        p = Arrays.copyOf( p, n );
+        Arrays.sort( p );
+        return p;
+    }
+
+    /**
+     * Test contouring in bands joins the lines at the seams into the same lines as contouring in one pass
+     */
+    @Test
+    public void bands()
+    {
+        int w = 121, h = 97;
+        double a[] = new double[w * h];
+        for( int y = 0; y < h; y++ ) {
+            for( int x = 0; x < w; x++ ) {
+                a[y * w + x] = Math.sin( x * 0.13 ) * Math.cos( y * 0.11 ) * 10 + y * 0.05;
+            }
+        }
+        // Missing data across a seam
+        for( int y = 14; y < 19; y++ ) {
+            a[y * w + 40] = Double.NaN;
+        }
+        Grid g = DenseGrid.of( a, w, h );
+        double levels[] = ContourSet.levels( -10, 15, 12, false );
+
+        ContourSet single = MarchingSquares.contour( g, levels, ForkJoinPool.commonPool(), Integer.MAX_VALUE );
+        ContourSet banded = MarchingSquares.contour( g, levels, ForkJoinPool.commonPool(), 1 );
+        assertEquals( single.getLineCount(), banded.getLineCount() );
+        assertEquals( single.getPointCount(), banded.getPointCount() );
+        for( int l = 0; l < levels.length; l++ ) {
+            assertEquals( single.getEndLine( l ) - single.getFirstLine( l ), banded.getEndLine( l ) - banded.getFirstLine( l ) );
+            int closed = 0;
+            for( int i = single.getFirstLine( l ); i < single.getEndLine( l ); i++ ) {
+                closed += single.isClosed( i ) ? 1 : 0;
+                closed -= banded.isClosed( i ) ? 1 : 0;
+            }
+            assertEquals( 0, closed );
+            assertArrayEquals( points( single, l ), points( banded, l ) );
+        }
+    }
+
+    /**
+     * Distance from a point to the nearest segment of a line
+     */
+    private static double distance( ContourSet s, int line, double x, double y )
+    {
+        double d = Double.POSITIVE_INFINITY;
+        for( int i = 1; i < s.getPointCount( line ); i++ ) {
+            double ax = s.getX( line, i - 1 ), ay = s.getY( line, i - 1 );
+            double dx = s.getX( line, i ) - ax, dy = s.getY( line, i ) - ay;
+            double t = Math.max( 0, Math.min( 1, ((x - ax) * dx + (y - ay) * dy) / (dx * dx + dy * dy) ) );
+            d = Math.min( d, Math.hypot( x - ax - t * dx, y - ay - t * dy ) );
+        }
+        return d;
+    }
+
+    /**
+     * Test simplifying keeps every point within the tolerance, keeps closed lines closed and drops those which collapse
+     */
+    @Test
+    public void simplify()
+    {
+        ContourSet s = ContourSet.of( cone(), 2.0, 5.0, 9.5 );
+        assertEquals( 3, s.getLineCount() );
+        assertSame( s, s.simplify( 0 ) );
+
+        ContourSet t = s.simplify( 0.25 );
+        assertSame( t, s.simplify( 0.25 ) );
+        assertEquals( 3, t.getLevelCount() );
+        assertTrue( t.getPointCount() < s.getPointCount() / 2 );
+        for( int l = 0; l < s.getLineCount(); l++ ) {
+            assertTrue( t.isClosed( l ) );
+            assertEquals( s.getLineLevel( l ), t.getLineLevel( l ) );
+            for( int i = 0; i < s.getPointCount( l ); i++ ) {
+                assertTrue( distance( t, l, s.getX( l, i ), s.getY( l, i ) ) <= 0.25 + 1e-6 );
+            }
+        }
+
+        // The circle of radius 0.5 collapses
+        ContourSet u = s.simplify( 1.0 );
+        assertEquals( 2, u.getLineCount() );
+        assertEquals( 0, u.getFirstLine( 2 ) - u.getEndLine( 2 ) );
+    }
+
+    /**
+     * Test a straight open line simplifies to its end points
+     */
+    @Test
+    public void simplifyOpen()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i % W;
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, W, H ), 2.5 ).simplify( 0.01 );
+        assertEquals( 1, s.getLineCount() );
+        assertEquals( 2, s.getPointCount( 0 ) );
+        assertEquals( H - 1, s.getY( 0, 0 ), 0f );
+        assertEquals( 0, s.getY( 0, 1 ), 0f );
+    }
+
+    /**
+     * Test the contour draws the same set each time
+     */
+    @Test
+    public void draw()
+    {
+        IsolineContour c = (IsolineContour) Contour.isolines( ColorMap.gradient( Color.RED, Color.BLUE, 5 ) );
+        Grid g = cone();
+        c.setData( g );
+        c.setScale( 4f );
+        ContourSet s = c.getContourSet();
+        assertNotNull( s );
+        assertEquals( 5, s.getLevelCount() );
+
+        BufferedImage img = new BufferedImage( W * 4, H * 4, BufferedImage.TYPE_INT_RGB );
+        c.draw( img.createGraphics() );
+        c.draw( img.createGraphics() );
+        assertSame( s, c.getContourSet() );
+        int drawn = 0;
+        for( int y = 0; y < img.getHeight(); y++ ) {
+            for( int x = 0; x < img.getWidth(); x++ ) {
+                if( img.getRGB( x, y ) != 0xff000000 ) {
+                    drawn++;
+                }
+            }
+        }
+        assertTrue( drawn > 100 );
+    }
+
+    /**
+     * Contouring a grid again after its values have changed must use the new range, not statistics cached from before
+     */
+    @Test
+    public void mutated()
+    {
+        DoubleGrid g = (DoubleGrid) cone();
+        assertEquals( 10.0, g.getStatistics().getMax(), 1e-9 );
+
+        IsolineContour c = (IsolineContour) Contour.isolines( ColorMap.gradient( Color.RED, Color.BLUE, 5 ) );
+        c.setData( g );
+        assertEquals( 10.0, c.getContourSet().getLevel( 4 ), 1e-6 );
+
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                g.setValue( x, y, g.getValue( x, y ) * 3 );
+            }
+        }
+        c.setData( g );
+        assertEquals( 30.0, c.getContourSet().getLevel( 4 ), 1e-5 );
+        assertEquals( 30.0, ContourSet.of( g, 5 ).getLevel( 4 ), 1e-5 );
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.grid.GridGeometry;
+import onl.area51.mapgen.util.ColorMap;
+import onl.area51.mapgen.util.tile.TileReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ContourTileIndexTest
+{
+
+    private static final int W = 41;
+    private static final int H = 31;
+
+    /**
+     * Contours of a cone peaking at 10°E 45°N, on a 1° grid from 10°W 60°N
+     */
+    private static ContourTileIndex index()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[y * W + x] = 10.0 - Math.hypot( x - 20, y - 15 );
+            }
+        }
+        ContourSet s = ContourSet.of( DenseGrid.of( a, W, H ), 2.0, 5.0, 8.0 );
+        return ContourTileIndex.of( s, GridGeometry.of( -10, 60, 1, -1, W, H ) );
+    }
+
+    private static int segments( ContourSet s )
+    {
+        return s.getPointCount() - s.getLineCount();
+    }
+
+    /**
+     * Test every segment is in the bucket of the tile containing its midpoint
+     */
+    @Test
+    public void midpoints()
+    {
+        ContourTileIndex index = index();
+        assertEquals( 8, index.getIndexZoom() );
+        for( int z : new int[]{0, 4, 8, 11} ) {
+            ContourSet s = index.getContourSet( z );
+            int found = 0;
+            for( int l = 0; l < s.getLineCount(); l++ ) {
+                int p0 = s.lines()[l];
+                for( int p = p0; p < p0 + s.getPointCount( l ) - 1; p++ ) {
+                    double x = (index.getPointX( p, z ) + index.getPointX( p + 1, z )) / 2;
+                    double y = (index.getPointY( p, z ) + index.getPointY( p + 1, z )) / 2;
+                    int segment = p;
+                    boolean f[] = new boolean[1];
+                    index.forEachSegment( TileReference.of( z, (int) (x / 256), (int) (y / 256) ), i -> f[0] |= i == segment );
+                    assertTrue( f[0] );
+                    found++;
+                }
+            }
+            assertEquals( segments( s ), found );
+        }
+        // The whole world is one tile at zoom 0
+        assertEquals( segments( index.getContourSet( 0 ) ), index.getSegmentCount( TileReference.of( 0, 0, 0 ) ) );
+    }
+
+    /**
+     * Test low zooms draw simplified lines and deep zooms the index zoom's lines
+     */
+    @Test
+    public void simplified()
+    {
+        ContourTileIndex index = index();
+        ContourSet full = index.getContourSet();
+        assertTrue( index.getContourSet( 2 ).getPointCount() < full.getPointCount() );
+        assertTrue( index.getTolerance( 2 ) > index.getTolerance( 6 ) );
+        assertEquals( index.getTolerance( 8 ), index.getTolerance( 12 ), 0.0 );
+        assertSame( index.getContourSet( 8 ), index.getContourSet( 12 ) );
+        assertSame( index.getContourSet( 3 ), index.getContourSet( 3 ) );
+    }
+
+    /**
+     * Test lines simplified at high latitude, where Web Mercator stretches a cell to several times its width, stay within the tolerance in pixels
+     */
+    @Test
+    public void highLatitude()
+    {
+        // A 0.25° grid from 70°N to 84.75°N
+        int w = 80, h = 60;
+        double a[] = new double[w * h];
+        for( int y = 0; y < h; y++ ) {
+            for( int x = 0; x < w; x++ ) {
+                a[y * w + x] = Math.sin( x * 0.7 ) + Math.sin( y * 0.45 ) + (0.3 * Math.cos( (x + y) * 1.3 ));
+            }
+        }
+        ContourSet full = ContourSet.of( DenseGrid.of( a, w, h ), -1.0, -0.5, 0.0, 0.5, 1.0 );
+        ContourTileIndex index = ContourTileIndex.of( full, GridGeometry.of( 0, 84.75, 0.25, -0.25, w, h ) );
+        ContourProjection fp = ContourProjection.of( full, index.getGeometry() );
+        int z = 6;
+        ContourSet s = index.getContourSet( z );
+        assertTrue( s.getPointCount() < full.getPointCount() );
+        float sp[] = index.getProjection( z ).pixels( z ), fpx[] = fp.pixels( z );
+
+        // Every point of the full lines must be near a simplified segment of the same level
+        double worst = 0;
+        for( int level = 0; level < full.getLevelCount(); level++ ) {
+            for( int l = full.getFirstLine( level ); l < full.getEndLine( level ); l++ ) {
+                for( int p = full.lines()[l]; p < full.lines()[l + 1]; p++ ) {
+                    double px = fpx[p << 1], py = fpx[(p << 1) + 1], best = Double.MAX_VALUE;
+                    for( int sl = s.getFirstLine( level ); sl < s.getEndLine( level ); sl++ ) {
+                        for( int q = s.lines()[sl]; q < s.lines()[sl + 1] - 1; q++ ) {
+                            best = Math.min( best, distance( px, py, sp[q << 1], sp[(q << 1) + 1], sp[(q << 1) + 2], sp[(q << 1) + 3] ) );
+                        }
+                    }
+                    worst = Math.max( worst, best );
+                }
+            }
+        }
+        assertTrue( "Worst deviation " + worst + " pixels", worst <= ContourTileIndex.TOLERANCE * 1.05 );
+        assertTrue( worst > ContourTileIndex.TOLERANCE * 0.25 );
+    }
+
+    private static double distance( double px, double py, double x0, double y0, double x1, double y1 )
+    {
+        double dx = x1 - x0, dy = y1 - y0, l = (dx * dx) + (dy * dy);
+        double t = l == 0 ? 0 : Math.max( 0, Math.min( 1, ((px - x0) * dx + (py - y0) * dy) / l ) );
+        return Math.hypot( px - (x0 + t * dx), py - (y0 + t * dy) );
+    }
+
+    /**
+     * Test a segment crossing the antimeridian is indexed and drawn at both edges of the map, not dropped
+     */
+    @Test
+    public void antimeridian()
+    {
+        // A wavy level right round a 1° grid, columns 179 and 180 being either side of 180°
+        int w = 360, h = 21;
+        double a[] = new double[w * h];
+        for( int y = 0; y < h; y++ ) {
+            for( int x = 0; x < w; x++ ) {
+                a[y * w + x] = y + (0.3 * Math.sin( x * 0.5 ));
+            }
+        }
+        ContourTileIndex index = ContourTileIndex.of( ContourSet.of( DenseGrid.of( a, w, h ), 10.5 ), GridGeometry.of( 0.5, 10, 1, -1, w, h ) );
+        int z = index.getIndexZoom(), max = (1 << z) - 1;
+        ContourSet s = index.getContourSet( z );
+        int crossing = -1;
+        for( int p = 0; p < s.getPointCount() - 1; p++ ) {
+            if( ContourTileIndex.isWrapped( index.getPointX( p, z ), index.getPointX( p + 1, z ), z ) ) {
+                assertEquals( -1, crossing );
+                crossing = p;
+            }
+        }
+        assertTrue( crossing >= 0 );
+        double x0 = index.getPointX( crossing, z ), y0 = index.getPointY( crossing, z );
+        double x1 = index.getPointX( crossing + 1, z ), y1 = index.getPointY( crossing + 1, z );
+        double ey = ContourTileIndex.getCrossingY( x0, y0, x1, y1, z );
+        assertTrue( ey >= Math.min( y0, y1 ) && ey <= Math.max( y0, y1 ) );
+        int ty = (int) (ey / 256), segment = crossing;
+
+        // In the buckets of the tiles at each edge but not those between
+        for( int tx : new int[]{0, max, max / 2} ) {
+            boolean f[] = new boolean[1];
+            index.forEachSegment( TileReference.of( z, tx, ty ), i -> f[0] |= i == segment );
+            assertEquals( "Tile " + tx, tx != max / 2, f[0] );
+        }
+
+        // Drawn up to the edge of the map in both tiles
+        ContourTileLayer layer = new ContourTileLayer( index, ColorMap.gradient( Color.RED, Color.BLUE, 4 ), "test", false );
+        for( int tx : new int[]{0, max} ) {
+            TileReference tile = TileReference.of( z, tx, ty );
+            BufferedImage img = new BufferedImage( 256, 256, BufferedImage.TYPE_INT_RGB );
+            Graphics2D g = img.createGraphics();
+            g.translate( -tile.getX() * 256, -tile.getY() * 256 );
+            layer.draw( g, tile );
+            g.dispose();
+            int edge = tx == 0 ? 0 : 255, drawn = 0;
+            for( int py = 0; py < 256; py++ ) {
+                if( img.getRGB( edge, py ) != 0xff000000 ) {
+                    drawn++;
+                }
+            }
+            assertTrue( "Tile " + tx, drawn > 0 );
+        }
+    }
+
+    /**
+     * Test a tile away from the contours has no segments
+     */
+    @Test
+    public void empty()
+    {
+        ContourTileIndex index = index();
+        assertEquals( 0, index.getSegmentCount( TileReference.of( 4, 0, 15 ) ) );
+        assertEquals( 0, index.getSegmentCount( TileReference.of( 12, 0, 0 ) ) );
+    }
+
+    /**
+     * Test pixels are on the Web Mercator map
+     */
+    @Test
+    public void pixels()
+    {
+        assertEquals( 128.0, ContourTileIndex.getPixelX( 0, 0 ), 1e-9 );
+        assertEquals( 0.0, ContourTileIndex.getPixelX( -180, 0 ), 1e-9 );
+        assertEquals( 128.0, ContourTileIndex.getPixelX( 270, 1 ), 1e-9 );
+        assertEquals( 256.0, ContourTileIndex.getPixelY( 0, 1 ), 1e-9 );
+        assertEquals( 0.0, ContourTileIndex.getPixelY( 90, 0 ), 1e-6 );
+    }
+
+    /**
+     * Test a layer draws into the tile with the contours
+     */
+    @Test
+    public void draw()
+    {
+        ContourTileIndex index = index();
+        ContourTileLayer layer = new ContourTileLayer( index, ColorMap.gradient( Color.RED, Color.BLUE, 4 ), "test", true );
+        int z = 5;
+        double x = ContourTileIndex.getPixelX( 10, z ), y = ContourTileIndex.getPixelY( 45, z );
+        TileReference tile = TileReference.of( z, (int) (x / 256), (int) (y / 256) );
+
+        BufferedImage img = new BufferedImage( 256, 256, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = img.createGraphics();
+        g.translate( -tile.getX() * 256, -tile.getY() * 256 );
+        layer.draw( g, tile );
+        g.dispose();
+        int drawn = 0;
+        for( int py = 0; py < 256; py++ ) {
+            for( int px = 0; px < 256; px++ ) {
+                if( img.getRGB( px, py ) != 0xff000000 ) {
+                    drawn++;
+                }
+            }
+        }
+        assertTrue( drawn > 100 );
+    }
+}
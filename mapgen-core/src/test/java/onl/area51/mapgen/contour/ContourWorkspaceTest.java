@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ContourWorkspaceTest
+{
+
+    /**
+     * Test a released bit set is reused and cleared
+     */
+    @Test
+    public void reuse()
+    {
+        ContourWorkspace w = ContourWorkspace.create( 1 << 20 );
+        long a[] = w.acquire( 1000 );
+        assertEquals( 16, a.length );
+        ContourWorkspace.set( a, 999 );
+        assertTrue( ContourWorkspace.get( a, 999 ) );
+        assertFalse( ContourWorkspace.get( a, 998 ) );
+        assertEquals( 128, w.getInUse() );
+        w.release( a );
+        assertEquals( 0, w.getInUse() );
+        assertEquals( 128, w.getRetained() );
+
+        long b[] = w.acquire( 500 );
+        assertSame( a, b );
+        assertFalse( ContourWorkspace.get( b, 999 ) );
+        assertEquals( 0, w.getRetained() );
+    }
+
+    /**
+     * Test the peak records the most in use at once
+     */
+    @Test
+    public void peak()
+    {
+        ContourWorkspace w = ContourWorkspace.create( 1 << 20 );
+        long a[] = w.acquire( 64 * 10 );
+        long b[] = w.acquire( 64 * 20 );
+        w.release( a );
+        w.release( b );
+        assertEquals( 240, w.getPeak() );
+        w.resetPeak();
+        assertEquals( 0, w.getPeak() );
+        w.trim();
+        assertEquals( 0, w.getRetained() );
+    }
+
+    /**
+     * Test nothing is retained beyond the limit
+     */
+    @Test
+    public void bounded()
+    {
+        ContourWorkspace w = ContourWorkspace.create( 100 );
+        long a[] = w.acquire( 64 * 10 );
+        long b[] = w.acquire( 64 * 10 );
+        w.release( a );
+        w.release( b );
+        assertEquals( 80, w.getRetained() );
+        assertNotSame( b, w.acquire( 64 * 10 ) );
+    }
+}
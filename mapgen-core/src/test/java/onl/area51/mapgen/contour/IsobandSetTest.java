@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.contour;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import onl.area51.mapgen.grid.DenseGrid;
+import onl.area51.mapgen.util.RangedColorMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class IsobandSetTest
+{
+
+    private static final int W = 41;
+    private static final int H = 31;
+
+    /**
+     * A cone with its peak of 10 at the centre
+     */
+    private static double[] values()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[y * W + x] = 10.0 - Math.hypot( x - 20, y - 15 );
+            }
+        }
+        return a;
+    }
+
+    private static double bandArea( IsobandSet s, int band )
+    {
+        double a = 0;
+        for( int p = s.getFirstPolygon( band ); p < s.getEndPolygon( band ); p++ ) {
+            for( int r = s.getFirstRing( p ); r < s.getEndRing( p ); r++ ) {
+                a += s.getArea( r );
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Test the bands of a cone are a rectangle with a hole, an annulus and a disc
+     */
+    @Test
+    public void cone()
+    {
+        IsobandSet s = IsobandSet.of( DenseGrid.of( values(), W, H ), Double.NEGATIVE_INFINITY, 0, 5, Double.POSITIVE_INFINITY );
+        assertEquals( 3, s.getBandCount() );
+        assertEquals( 3, s.getPolygonCount() );
+
+        for( int b = 0; b < 3; b++ ) {
+            assertEquals( 1, s.getEndPolygon( b ) - s.getFirstPolygon( b ) );
+        }
+        // Band 0 and 1 have a hole, 2 does not
+        assertEquals( 2, s.getEndRing( 0 ) - s.getFirstRing( 0 ) );
+        assertEquals( 2, s.getEndRing( 1 ) - s.getFirstRing( 1 ) );
+        assertEquals( 1, s.getEndRing( 2 ) - s.getFirstRing( 2 ) );
+        assertTrue( s.getArea( s.getFirstRing( 0 ) + 1 ) < 0 );
+
+        assertEquals( (W - 1) * (H - 1), s.getArea( s.getFirstRing( 0 ) ), 1e-6 );
+        assertEquals( (W - 1) * (H - 1) - Math.PI * 100, bandArea( s, 0 ), 2.0 );
+        assertEquals( Math.PI * 75, bandArea( s, 1 ), 2.0 );
+        assertEquals( Math.PI * 25, bandArea( s, 2 ), 1.0 );
+
+        // Every ring is closed
+        for( int r = 0; r < s.getRingCount(); r++ ) {
+            int n = s.getPointCount( r );
+            assertEquals( s.getX( r, 0 ), s.getX( r, n - 1 ), 0f );
+            assertEquals( s.getY( r, 0 ), s.getY( r, n - 1 ), 0f );
+        }
+    }
+
+    /**
+     * Test unbounded bands cover every cell and missing data is excluded
+     */
+    @Test
+    public void coverage()
+    {
+        double a[] = values();
+        a[15 * W + 25] = Double.NaN;
+        a[0] = Double.NaN;
+        IsobandSet s = IsobandSet.of( DenseGrid.of( a, W, H ), Double.NEGATIVE_INFINITY, -3, 1, 2, 7, Double.POSITIVE_INFINITY );
+        double total = 0;
+        for( int b = 0; b < s.getBandCount(); b++ ) {
+            total += bandArea( s, b );
+        }
+        assertEquals( (W - 1) * (H - 1) - 5, total, 1e-3 );
+    }
+
+    /**
+     * Test bands from a RangedColorMap and the layer fills them
+     */
+    @Test
+    public void layer()
+    {
+        RangedColorMap map = RangedColorMap.gradient( Color.RED, Color.BLUE, 4, 0, 9 );
+        IsobandLayer layer = new IsobandLayer( DenseGrid.of( values(), W, H ), map, "bands" );
+        IsobandSet s = layer.getBands();
+        assertEquals( 4, s.getBandCount() );
+        assertEquals( Double.NEGATIVE_INFINITY, s.getLower( 0 ), 0.0 );
+        assertEquals( 3.0, s.getLower( 1 ), 1e-9 );
+        assertEquals( Double.POSITIVE_INFINITY, s.getUpper( 3 ), 0.0 );
+
+        BufferedImage img = new BufferedImage( (W - 1) * 2, (H - 1) * 2, BufferedImage.TYPE_INT_RGB );
+        layer.setScale( 2f ).draw( img.createGraphics() );
+        assertEquals( map.getColor( 0 ).getRGB(), img.getRGB( 1, 1 ) );
+        assertEquals( map.getColor( 3 ).getRGB(), img.getRGB( 40, 30 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void bounds()
+    {
+        IsobandSet.of( DenseGrid.of( values(), W, H ), 1, 1 );
+    }
+}
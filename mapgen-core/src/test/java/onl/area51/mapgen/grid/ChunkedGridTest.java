@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ChunkedGridTest
+{
+
+    private static final int W = 10;
+    private static final int H = 7;
+
+    private static DenseGrid grid()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i;
+        }
+        return DenseGrid.of( a, W, H );
+    }
+
+    @Test
+    public void getValue()
+    {
+        DenseGrid src = grid();
+        ChunkedGrid g = ChunkedGrid.of( ChunkSource.of( src ), W, H, 4, 2 );
+        for( int y = 0; y < H; y++ ) {
+            assertArrayEquals( src.getRow( y, new double[W] ), g.getRow( y, new double[W] ), 0.0 );
+            for( int x = 0; x < W; x++ ) {
+                assertEquals( src.getValue( x, y ), g.getValue( x, y ), 0.0 );
+            }
+        }
+        assertEquals( 2, g.getChunkCount() );
+    }
+
+    /**
+     * Test only the chunks touched are loaded and reused
+     */
+    @Test
+    public void lru()
+    {
+        ChunkedGrid g = ChunkedGrid.of( ChunkSource.of( grid() ), W, H, 4, 2 );
+        g.getValue( 0, 0 );
+        g.getValue( 3, 3 );
+        g.getValue( 5, 0 );
+        assertEquals( 2, g.getLoadCount() );
+        g.getValue( 1, 1 );
+        g.getValue( 9, 6 );
+        assertEquals( 3, g.getLoadCount() );
+        g.getValue( 4, 1 );
+        assertEquals( 4, g.getLoadCount() );
+    }
+
+    /**
+     * Test nested subsets read from the original grid
+     */
+    @Test
+    public void subset()
+    {
+        DenseGrid src = grid();
+        Grid s = src.subset( 1, 1, 8, 5 ).subset( 2, 1, 4, 3 );
+        assertSame( src, ((SubsetGrid) s).getParent() );
+        assertEquals( src.getValue( 3, 2 ), s.getValue( 0, 0 ), 0.0 );
+        assertEquals( src.getValue( 6, 4 ), s.getValue( 3, 2 ), 0.0 );
+    }
+}
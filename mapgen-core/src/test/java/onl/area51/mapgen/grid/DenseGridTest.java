@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class DenseGridTest
+{
+
+    private static final int W = 5;
+    private static final int H = 4;
+
+    private static double[] data()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i;
+        }
+        return a;
+    }
+
+    /**
+     * Test values are stored in row-major order
+     */
+    @Test
+    public void getValue()
+    {
+        DenseGrid g = DenseGrid.of( data(), W, H );
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                assertEquals( (y * W) + x, g.getValue( x, y ), 0.0 );
+            }
+        }
+    }
+
+    @Test
+    public void getRow()
+    {
+        DenseGrid g = DenseGrid.of( data(), W, H );
+        double row[] = g.getRow( 2, new double[W] );
+        assertArrayEquals( new double[]{10, 11, 12, 13, 14}, row, 0.0 );
+    }
+
+    @Test
+    public void copyRegion()
+    {
+        DenseGrid g = DenseGrid.of( data(), W, H );
+        double r[] = g.copyRegion( 1, 1, 2, 2, null );
+        assertArrayEquals( new double[]{6, 7, 11, 12}, r, 0.0 );
+    }
+
+    /**
+     * Test the float variant matches the double one
+     */
+    @Test
+    public void floatGrid()
+    {
+        double d[] = data();
+        float f[] = new float[d.length];
+        for( int i = 0; i < d.length; i++ ) {
+            f[i] = (float) d[i];
+        }
+        DenseGrid g = DenseGrid.of( f, W, H );
+        assertArrayEquals( d, g.copyRegion( 0, 0, W, H, null ), 0.0 );
+    }
+
+    /**
+     * Test a non-dense grid is copied whilst a dense one is returned as is
+     */
+    @Test
+    public void of()
+    {
+        DenseGrid g = DenseGrid.of( data(), W, H );
+        assertSame( g, DenseGrid.of( (Grid) g ) );
+
+        Grid f = Grid.of( ( x, y ) -> (y * W) + x, W, H );
+        DenseGrid c = DenseGrid.of( f );
+        assertNotSame( f, c );
+        assertArrayEquals( data(), c.copyRegion( 0, 0, W, H, null ), 0.0 );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmall()
+    {
+        DenseGrid.of( new double[W], W, H );
+    }
+}
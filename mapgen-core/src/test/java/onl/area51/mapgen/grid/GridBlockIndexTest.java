@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridBlockIndexTest
+{
+
+    private static final int W = 70;
+    private static final int H = 45;
+
+    private static Grid grid()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[(y * W) + x] = Math.sin( x / 9.0 ) * Math.cos( y / 6.0 ) * 10.0;
+            }
+        }
+        a[5] = Double.NaN;
+        return Grid.of( a, W, H );
+    }
+
+    /**
+     * Test the block ranges include the following row and column
+     */
+    @Test
+    public void blockRange()
+    {
+        Grid g = grid();
+        GridBlockIndex index = GridBlockIndex.create( g, 8 );
+        assertEquals( 9, index.getBlocksWide() );
+        assertEquals( 6, index.getBlocksHigh() );
+        for( int by = 0; by < index.getBlocksHigh(); by++ ) {
+            for( int bx = 0; bx < index.getBlocksWide(); bx++ ) {
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for( int y = by * 8; y <= Math.min( H - 1, by * 8 + 8 ); y++ ) {
+                    for( int x = bx * 8; x <= Math.min( W - 1, bx * 8 + 8 ); x++ ) {
+                        double v = g.getValue( x, y );
+                        if( !Double.isNaN( v ) ) {
+                            min = Math.min( min, v );
+                            max = Math.max( max, v );
+                        }
+                    }
+                }
+                assertEquals( min, index.getMin( bx, by ), 0.0 );
+                assertEquals( max, index.getMax( bx, by ), 0.0 );
+            }
+        }
+    }
+
+    /**
+     * Test the quadtree finds exactly the blocks a linear scan does
+     */
+    @Test
+    public void forEachBlock()
+    {
+        GridBlockIndex index = GridBlockIndex.create( grid(), 4 );
+        for( double v = -10; v <= 10; v += 2.5 ) {
+            Set<Integer> expected = new HashSet<>();
+            for( int by = 0; by < index.getBlocksHigh(); by++ ) {
+                for( int bx = 0; bx < index.getBlocksWide(); bx++ ) {
+                    if( index.spans( bx, by, v, v ) ) {
+                        expected.add( (by * index.getBlocksWide()) + bx );
+                    }
+                }
+            }
+            Set<Integer> found = new HashSet<>();
+            index.forEachBlock( v, ( bx, by ) -> assertTrue( found.add( (by * index.getBlocksWide()) + bx ) ) );
+            assertEquals( expected, found );
+        }
+    }
+}
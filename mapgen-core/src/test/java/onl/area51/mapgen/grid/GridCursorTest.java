@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridCursorTest
+{
+
+    private static final int W = 7;
+    private static final int H = 3;
+
+    private final Grid grid = Grid.of( ( x, y ) -> (y * W) + x, W, H );
+
+    /**
+     * Test the cursor visits every cell in row-major order
+     */
+    @Test
+    public void cursor()
+    {
+        GridCursor c = grid.cursor();
+        int i = 0;
+        while( c.next() ) {
+            assertEquals( i % W, c.getX() );
+            assertEquals( i / W, c.getY() );
+            assertEquals( i, c.getValue(), 0.0 );
+            i++;
+        }
+        assertEquals( W * H, i );
+
+        // Reusable
+        c.reset();
+        assertTrue( c.next() );
+        assertEquals( 0, c.getX() );
+    }
+
+    @Test
+    public void stepAndFilter()
+    {
+        GridCursor c = grid.cursor( 0, 2, x -> x > 1, null );
+        StringBuilder sb = new StringBuilder();
+        while( c.next() ) {
+            sb.append( c.getX() ).append( ',' ).append( c.getY() ).append( ' ' );
+        }
+        assertEquals( "2,0 4,0 6,0 2,2 4,2 6,2 ", sb.toString() );
+    }
+
+    /**
+     * forEach should iterate the width on the x axis not the height
+     */
+    @Test
+    public void forEach()
+    {
+        AtomicInteger count = new AtomicInteger();
+        grid.forEach( ( x, y ) -> count.incrementAndGet() );
+        assertEquals( W * H, count.get() );
+    }
+
+    /**
+     * The streams must agree with the cursor
+     */
+    @Test
+    public void dataStream()
+    {
+        assertEquals( W * H, grid.dataStream().count() );
+        assertEquals( W * H, grid.dataStream().parallel().count() );
+        assertEquals( (W * H * (W * H - 1)) / 2,
+                      grid.dataStream().parallel().mapToDouble( GridDataPoint::getValue ).sum(), 0.0 );
+        assertEquals( "3,4,5",
+                      grid.dataStream( x -> x >= 3 && x < 6, y -> y == 0 )
+                      .map( p -> Integer.toString( p.getX() ) )
+                      .collect( Collectors.joining( "," ) ) );
+    }
+
+    /**
+     * Streams split on row boundaries and report their size from the cursor
+     */
+    @Test
+    public void split()
+    {
+        Spliterator<GridDataPoint> s = grid.dataStream().spliterator();
+        assertEquals( W * H, s.estimateSize() );
+        assertTrue( s.hasCharacteristics( Spliterator.SIZED ) );
+
+        Spliterator<GridDataPoint> prefix = s.trySplit();
+        assertNotNull( prefix );
+        assertEquals( W, prefix.estimateSize() );
+        assertEquals( W * (H - 1), s.estimateSize() );
+
+        assertTrue( prefix.tryAdvance( p -> assertEquals( 0, p.getValue(), 0.0 ) ) );
+        assertEquals( W - 1, prefix.estimateSize() );
+        // Once moved it no longer splits
+        assertNull( prefix.trySplit() );
+
+        assertTrue( s.tryAdvance( p -> assertEquals( W, p.getValue(), 0.0 ) ) );
+        assertFalse( grid.dataStream( x -> x > 1, null ).spliterator().hasCharacteristics( Spliterator.SIZED ) );
+
+        assertEquals( grid.dataStream( x -> x % 3 == 0, y -> y > 0 ).mapToDouble( GridDataPoint::getValue ).sum(),
+                      grid.dataStream( x -> x % 3 == 0, y -> y > 0 ).parallel().mapToDouble( GridDataPoint::getValue ).sum(), 0.0 );
+    }
+}
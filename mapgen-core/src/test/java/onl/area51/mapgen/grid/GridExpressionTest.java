@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridExpressionTest
+{
+
+    private static final int W = 5;
+    private static final int H = 4;
+
+    private static DenseGrid grid( double base )
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = base + i;
+        }
+        return DenseGrid.of( a, W, H );
+    }
+
+    /**
+     * Test fused row evaluation matches per cell evaluation
+     */
+    @Test
+    public void rowMatchesCell()
+    {
+        GridExpression e = grid( 0 ).map( v -> v * 2 )
+                .map( v -> v + 1 )
+                .combine( grid( 100 ), ( a, b ) -> b - a )
+                .clamp( 80, 90 );
+        for( int y = 0; y < H; y++ ) {
+            double row[] = e.getRow( y, new double[W] );
+            for( int x = 0; x < W; x++ ) {
+                double v = y * W + x;
+                double expected = Math.min( 90, Math.max( 80, (100 + v) - (v * 2 + 1) ) );
+                assertEquals( expected, e.getValue( x, y ), 0.0 );
+                assertEquals( expected, row[x], 0.0 );
+            }
+        }
+    }
+
+    @Test
+    public void mask()
+    {
+        Grid e = grid( 0 ).mask( grid( 0 ), v -> v % 2 == 0 );
+        assertEquals( 2, e.getValue( 2, 0 ), 0.0 );
+        assertTrue( Double.isNaN( e.getValue( 3, 0 ) ) );
+    }
+
+    /**
+     * Test materialising is cached and DenseGrid.of uses it
+     */
+    @Test
+    public void materialise()
+    {
+        GridExpression e = grid( 0 ).map( v -> -v );
+        assertFalse( e.isMaterialised() );
+        DoubleGrid m = e.materialise();
+        assertSame( m, e.materialise() );
+        assertSame( m, DenseGrid.of( e ) );
+        assertEquals( -7, m.getValue( 2, 1 ), 0.0 );
+    }
+
+    @Test
+    public void reduce()
+    {
+        assertEquals( 190, grid( 0 ).map( v -> v ).reduce( 0, Double::sum ), 0.0 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void sizeMismatch()
+    {
+        grid( 0 ).combine( DenseGrid.create( W + 1, H ), Double::sum );
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridFiltersTest
+{
+
+    private static final int W = 40;
+    private static final int H = 30;
+
+    /**
+     * Test a linear field is unchanged away from the edges and missing cells stay missing
+     */
+    @Test
+    public void gaussian()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[(y * W) + x] = x + (2 * y);
+            }
+        }
+        a[(10 * W) + 10] = Double.NaN;
+        Grid g = Grid.of( a, W, H );
+        DoubleGrid f = GridFilters.gaussian( g, 1.5 );
+        assertTrue( Double.isNaN( f.getValue( 10, 10 ) ) );
+        assertEquals( g.getValue( 20, 15 ), f.getValue( 20, 15 ), 1e-9 );
+        assertFalse( Double.isNaN( f.getValue( 11, 10 ) ) );
+    }
+
+    @Test
+    public void box()
+    {
+        double a[] = new double[W * H];
+        a[(5 * W) + 5] = 9.0;
+        DoubleGrid f = GridFilters.box( Grid.of( a, W, H ), 1 );
+        assertEquals( 1.0, f.getValue( 4, 4 ), 1e-9 );
+        assertEquals( 1.0, f.getValue( 6, 6 ), 1e-9 );
+        assertEquals( 0.0, f.getValue( 7, 5 ), 1e-9 );
+    }
+
+    @Test
+    public void median()
+    {
+        double a[] = new double[W * H];
+        a[(5 * W) + 5] = 100.0;
+        DoubleGrid f = GridFilters.median( Grid.of( a, W, H ), 1, null );
+        assertEquals( 0.0, f.getValue( 5, 5 ), 0.0 );
+    }
+
+    /**
+     * Test reusing a scratch buffer, which holds the previous call's data, gives the same result
+     */
+    @Test
+    public void scratch()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = (i * 7) % 13;
+        }
+        a[100] = Double.NaN;
+        Grid g = Grid.of( a, W, H );
+        double k[] = GridFilters.gaussianKernel( 2.0 );
+        double scratch[] = new double[(W * H) + 5];
+        GridFilters.convolve( Grid.of( ( x, y ) -> x * y, W, H ), k, null, scratch );
+        assertArrayEquals( GridFilters.convolve( g, k, null ).array(), GridFilters.convolve( g, k, null, scratch ).array(), 0.0 );
+    }
+
+    /**
+     * Test a destination sharing the source's array is rejected
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void alias()
+    {
+        double a[] = new double[W * H];
+        GridFilters.median( DenseGrid.of( a, W, H ), 1, DenseGrid.of( a, W, H ) );
+    }
+}
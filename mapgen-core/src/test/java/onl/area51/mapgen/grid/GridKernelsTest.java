@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Random;
+import onl.area51.mapgen.util.RangedValue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridKernelsTest
+{
+
+    // Odd so vector kernels have a tail to finish
+    private static final int N = 37;
+
+    private static final GridKernels KERNELS = GridKernels.getInstance();
+
+    private static double[] values()
+    {
+        Random r = new Random( 1 );
+        double a[] = new double[N + 3];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = r.nextGaussian() * 10.0;
+        }
+        a[5] = Double.NaN;
+        a[9] = GridStatistics.MISSING_VALUE;
+        return a;
+    }
+
+    /**
+     * Test each operator matches applying it one value at a time
+     */
+    @Test
+    public void apply()
+    {
+        double b[] = values();
+        for( GridOperator op : GridOperator.values() ) {
+            double a[] = values();
+            // Shift b so it isn't a copy of a
+            KERNELS.apply( op, a, 3, b, 1, N );
+            double e[] = values();
+            for( int i = 0; i < N; i++ ) {
+                double v = op.applyAsDouble( e[3 + i], b[1 + i] );
+                assertEquals( op.name(), v, a[3 + i], Math.abs( v ) * 1e-15 );
+            }
+            assertEquals( e[0], a[0], 0.0 );
+        }
+    }
+
+    /**
+     * Test scale and clamp, NaN must pass through clamp
+     */
+    @Test
+    public void scaleClamp()
+    {
+        double a[] = values();
+        KERNELS.scale( a, 1, N, 2.0, -3.0 );
+        double e[] = values();
+        for( int i = 1; i <= N; i++ ) {
+            assertEquals( e[i] * 2.0 - 3.0, a[i], 1e-12 );
+        }
+
+        a = values();
+        KERNELS.clamp( a, 0, N, -5.0, 5.0 );
+        for( int i = 0; i < N; i++ ) {
+            if( Double.isNaN( e[i] ) ) {
+                assertTrue( Double.isNaN( a[i] ) );
+            }
+            else {
+                assertEquals( Math.max( -5.0, Math.min( 5.0, e[i] ) ), a[i], 0.0 );
+            }
+        }
+    }
+
+    /**
+     * Test the moments skip NaN and missing values
+     */
+    @Test
+    public void moments()
+    {
+        double a[] = values();
+        double m[] = new double[GridKernels.MOMENTS];
+        KERNELS.moments( a, 0, N, 1.0, GridStatistics.MISSING_VALUE, m );
+
+        long count = 0;
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, s2 = 0;
+        for( int i = 0; i < N; i++ ) {
+            if( !GridStatistics.isMissing( a[i] ) ) {
+                count++;
+                sum += a[i];
+                min = Math.min( min, a[i] );
+                max = Math.max( max, a[i] );
+                s2 += (a[i] - 1.0) * (a[i] - 1.0);
+            }
+        }
+        assertEquals( count, (long) m[0] );
+        assertEquals( 1L, (long) m[1] );
+        assertEquals( sum, m[2], 1e-9 );
+        assertEquals( min, m[3], 0.0 );
+        assertEquals( max, m[4], 0.0 );
+        assertEquals( sum - count, m[5], 1e-9 );
+        assertEquals( s2, m[6], 1e-9 );
+    }
+
+    /**
+     * Test gather and axpy
+     */
+    @Test
+    public void gather()
+    {
+        double src[] = values();
+        int index[] = new int[N];
+        double weight[] = new double[N];
+        for( int i = 0; i < N; i++ ) {
+            index[i] = (i * 7) % src.length;
+            weight[i] = i * 0.5;
+        }
+        // Skip the NaN
+        index[3] = 0;
+        double dst[] = new double[N + 2];
+        KERNELS.gather( src, index, weight, dst, 2, N );
+        KERNELS.axpy( 2.0, src, 0, dst, 2, N );
+        for( int i = 0; i < N; i++ ) {
+            double e = weight[i] * src[index[i]] + 2.0 * src[i];
+            if( Double.isNaN( e ) ) {
+                assertTrue( Double.isNaN( dst[2 + i] ) );
+            }
+            else {
+                assertEquals( e, dst[2 + i], Math.abs( e ) * 1e-15 );
+            }
+        }
+    }
+
+    /**
+     * Test index agrees with RangedValue
+     */
+    @Test
+    public void index()
+    {
+        RangedValue range = RangedValue.create( -10.0, 10.0, 11 );
+        double a[] = values();
+        a[0] = -10.0;
+        a[1] = 10.0;
+        a[2] = 0.0;
+        int idx[] = range.getIndices( a, 0, a.length, new int[a.length], 0 );
+        for( int i = 0; i < a.length; i++ ) {
+            assertEquals( range.getIndex( a[i] ), idx[i] );
+        }
+        assertEquals( 0, idx[0] );
+        assertEquals( 10, idx[1] );
+        assertEquals( 5, idx[2] );
+        assertEquals( 10, idx[5] );
+    }
+
+    /**
+     * Test a GridOperator gives the same result as the equivalent lambda through an expression
+     */
+    @Test
+    public void expression()
+    {
+        double a[] = values(), b[] = values();
+        Grid ga = DenseGrid.of( a, 8, 5 ), gb = DenseGrid.of( b, 8, 5 ).scale( 0.5, 1.0 );
+        DoubleGrid fast = ga.combine( gb, GridOperator.HYPOT ).materialise();
+        DoubleGrid slow = ga.combine( gb, Math::hypot ).materialise();
+        for( int y = 0; y < 5; y++ ) {
+            for( int x = 0; x < 8; x++ ) {
+                assertEquals( slow.getValue( x, y ), fast.getValue( x, y ), 1e-12 );
+                assertEquals( Math.hypot( a[y * 8 + x], b[y * 8 + x] * 0.5 + 1.0 ), fast.getValue( x, y ), 1e-12 );
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridMaskTest
+{
+
+    // Wide enough for rows to span several words
+    private static final int W = 150;
+    private static final int H = 3;
+
+    private static boolean[] valid()
+    {
+        boolean v[] = new boolean[W * H];
+        for( int i = 0; i < v.length; i++ ) {
+            v[i] = (i % 70) < 40;
+        }
+        return v;
+    }
+
+    /**
+     * Test run scanning agrees with testing each cell
+     */
+    @Test
+    public void runs()
+    {
+        boolean v[] = valid();
+        GridMask mask = GridMask.of( v, W, H );
+        long count = 0;
+        for( int y = 0; y < H; y++ ) {
+            int c = 0;
+            boolean row[] = new boolean[W];
+            for( int x = mask.nextValid( y, 0 ), e; x < W; x = mask.nextValid( y, e ) ) {
+                e = mask.nextInvalid( y, x );
+                assertTrue( e > x );
+                for( int i = x; i < e; i++ ) {
+                    row[i] = true;
+                }
+                c += e - x;
+            }
+            for( int x = 0; x < W; x++ ) {
+                assertEquals( v[(y * W) + x], row[x] );
+                assertEquals( v[(y * W) + x], mask.isValid( x, y ) );
+            }
+            assertEquals( c, mask.getValidCount( y ) );
+            count += c;
+        }
+        assertEquals( count, mask.getValidCount() );
+    }
+
+    /**
+     * Test masked cells read as NaN and are counted as missing
+     */
+    @Test
+    public void withMask()
+    {
+        double a[] = new double[W * H];
+        Grid g = Grid.of( a, W, H ).withMask( GridMask.of( valid(), W, H ) );
+        assertTrue( Double.isNaN( g.getValue( 45, 0 ) ) );
+        assertEquals( 0, g.getValue( 39, 0 ), 0.0 );
+        double row[] = ((DenseGrid) g).getRow( 1, new double[W] );
+        for( int x = 0; x < W; x++ ) {
+            assertEquals( g.getValue( x, 1 ), row[x], 0.0 );
+        }
+        GridStatistics stats = GridStatistics.calculate( g );
+        assertEquals( g.getMask().getValidCount(), stats.getCount() );
+        assertEquals( (W * H) - stats.getCount(), stats.getMissingCount() );
+    }
+
+    private static Grid masked()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = i;
+        }
+        return Grid.of( a, W, H ).withMask( GridMask.of( valid(), W, H ) );
+    }
+
+    /**
+     * Subsets, whether or not their parent is dense, have the part of the mask they cover
+     */
+    @Test
+    public void subset()
+    {
+        Grid g = masked();
+        Grid s = g.subset( 30, 1, 100, 2 );
+        assertTrue( s instanceof DenseGrid );
+        GridMask m = s.getMask();
+        assertEquals( 100, m.getWidth() );
+        assertEquals( 2, m.getHeight() );
+        for( int y = 0; y < 2; y++ ) {
+            for( int x = 0; x < 100; x++ ) {
+                assertEquals( g.getMask().isValid( 30 + x, 1 + y ), m.isValid( x, y ) );
+            }
+        }
+        assertEquals( GridStatistics.calculate( DenseGrid.of( s ) ).getCount(), GridStatistics.calculate( s ).getCount() );
+
+        // A view which is not dense
+        Grid plain = new Grid()
+        {
+            @Override
+            public int getWidth()
+            {
+                return W;
+            }
+
+            @Override
+            public int getHeight()
+            {
+                return H;
+            }
+
+            @Override
+            public GridMask getMask()
+            {
+                return g.getMask();
+            }
+
+            @Override
+            public double getValue( int x, int y )
+            {
+                return g.getValue( x, y );
+            }
+        };
+        Grid ss = plain.subset( 30, 1, 100, 2 );
+        assertFalse( ss instanceof DenseGrid );
+        assertEquals( m.getValidCount(), ss.getMask().getValidCount() );
+        assertEquals( s.getValue( 5, 1 ), ss.getValue( 5, 1 ), 0.0 );
+    }
+
+    /**
+     * An expression is valid only where all of its operands are
+     */
+    @Test
+    public void expression()
+    {
+        Grid g = masked();
+        assertSame( g.getMask(), g.map( v -> v * 2 ).clamp( 0, 100 ).getMask() );
+        assertNull( Grid.of( new double[W * H], W, H ).map( v -> v + 1 ).getMask() );
+
+        boolean v[] = new boolean[W * H];
+        for( int i = 0; i < v.length; i++ ) {
+            v[i] = (i % 3) != 0;
+        }
+        Grid o = Grid.of( new double[W * H], W, H ).withMask( GridMask.of( v, W, H ) );
+        GridMask m = g.combine( o, Double::sum ).getMask();
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                assertEquals( g.getMask().isValid( x, y ) && o.getMask().isValid( x, y ), m.isValid( x, y ) );
+            }
+        }
+        assertSame( g.getMask(), ChunkedGrid.of( g, 2 ).getMask() );
+    }
+}
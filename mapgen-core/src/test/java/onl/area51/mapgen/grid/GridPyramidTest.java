@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.HashSet;
+import java.util.Set;
+import onl.area51.mapgen.util.tile.TileReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridPyramidTest
+{
+
+    // Odd sizes so the last block on each axis is partial
+    private static final int W = 13;
+    private static final int H = 7;
+
+    private static Grid grid()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[(y * W) + x] = (x * 1.5) - (y * y) + ((x * y) % 5);
+            }
+        }
+        a[0] = Double.NaN;
+        a[(2 * W) + 3] = GridStatistics.MISSING_VALUE;
+        // A whole 2x2 block with no valid values
+        a[(4 * W) + 8] = Double.NaN;
+        a[(4 * W) + 9] = Double.NaN;
+        a[(5 * W) + 8] = Double.NaN;
+        a[(5 * W) + 9] = Double.NaN;
+        return Grid.of( a, W, H );
+    }
+
+    /**
+     * Reduce a block of the original grid directly
+     */
+    private static double expected( Grid g, GridPyramid.Reduction reduction, int level, int lx, int ly )
+    {
+        int s = GridPyramid.getScale( level );
+        if( reduction == GridPyramid.Reduction.NEAREST ) {
+            return g.getValue( lx * s, ly * s );
+        }
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        int n = 0;
+        for( int y = ly * s; y < Math.min( H, (ly + 1) * s ); y++ ) {
+            for( int x = lx * s; x < Math.min( W, (lx + 1) * s ); x++ ) {
+                double v = g.getValue( x, y );
+                if( !GridStatistics.isMissing( v ) ) {
+                    sum += v;
+                    min = Math.min( min, v );
+                    max = Math.max( max, v );
+                    n++;
+                }
+            }
+        }
+        if( n == 0 ) {
+            return Double.NaN;
+        }
+        switch( reduction ) {
+            case MIN:
+                return min;
+            case MAX:
+                return max;
+            default:
+                return sum / n;
+        }
+    }
+
+    /**
+     * Every level, although built from the level before it, must be the same as reducing the original grid directly
+     */
+    @Test
+    public void reductions()
+    {
+        Grid g = grid();
+        for( GridPyramid.Reduction reduction : GridPyramid.Reduction.values() ) {
+            GridPyramid p = GridPyramid.of( g, reduction );
+            // 13x7, 7x4, 4x2, 2x1, 1x1
+            assertEquals( 5, p.getLevelCount() );
+            assertSame( g, p.getLevel( 0 ) );
+            for( int level = p.getLevelCount() - 1; level > 0; level-- ) {
+                Grid l = p.getLevel( level );
+                int s = GridPyramid.getScale( level );
+                assertEquals( (W + s - 1) / s, l.getWidth() );
+                assertEquals( (H + s - 1) / s, l.getHeight() );
+                for( int ly = 0; ly < l.getHeight(); ly++ ) {
+                    for( int lx = 0; lx < l.getWidth(); lx++ ) {
+                        assertEquals( reduction + " level " + level + " " + lx + "," + ly,
+                                      expected( g, reduction, level, lx, ly ), l.getValue( lx, ly ), 1e-9 );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A block with no valid values is NaN whilst one with some uses only those
+     */
+    @Test
+    public void nan()
+    {
+        Grid g = grid();
+        Grid mean = GridPyramid.of( g, GridPyramid.Reduction.MEAN ).getLevel( 1 );
+        assertTrue( Double.isNaN( mean.getValue( 4, 2 ) ) );
+        // Top left block has NaN at 0,0
+        assertEquals( (g.getValue( 1, 0 ) + g.getValue( 0, 1 ) + g.getValue( 1, 1 )) / 3, mean.getValue( 0, 0 ), 1e-9 );
+        assertTrue( Double.isNaN( GridPyramid.of( g, GridPyramid.Reduction.NEAREST ).getLevel( 1 ).getValue( 0, 0 ) ) );
+        assertFalse( Double.isNaN( GridPyramid.of( g, GridPyramid.Reduction.MAX ).getLevel( 4 ).getValue( 0, 0 ) ) );
+    }
+
+    /**
+     * The same pyramid is returned whilst it is in use
+     */
+    @Test
+    public void cached()
+    {
+        Grid g = grid();
+        GridPyramid p = GridPyramid.of( g, GridPyramid.Reduction.MIN );
+        assertSame( p, GridPyramid.of( g, GridPyramid.Reduction.MIN ) );
+        assertNotSame( p, GridPyramid.of( g, GridPyramid.Reduction.MAX ) );
+        assertSame( p.getLevel( 2 ), p.getLevel( 2 ) );
+    }
+
+    @Test
+    public void levelForZoom()
+    {
+        GridPyramid p = GridPyramid.of( Grid.of( 1440, 721 ), GridPyramid.Reduction.NEAREST );
+        assertEquals( 12, p.getLevelCount() );
+        assertEquals( 0, p.getLevelForColumns( 1440 ) );
+        assertEquals( 1, p.getLevelForColumns( 720 ) );
+        assertEquals( 1, p.getLevelForColumns( 700 ) );
+        // 256 columns needed for zoom 0, 360 is the last level with that many
+        assertEquals( 2, p.getLevelForZoom( 0 ) );
+        assertEquals( 0, p.getLevelForZoom( 2 ) );
+        assertEquals( p.getLevelCount() - 1, p.getLevelForColumns( 1 ) );
+    }
+
+    /**
+     * A low zoom tile visits the cells of the pyramid level, each once and located at the top left cell of its block
+     */
+    @Test
+    public void tileIndex()
+    {
+        int w = 1024, h = 512;
+        Grid g = Grid.of( ( x, y ) -> (y * 10000.0) + x, w, h );
+        GridPyramid p = GridPyramid.of( g, GridPyramid.Reduction.NEAREST );
+        GridTileIndex index = GridTileIndex.of( w, h, x -> x * 360.0 / w, y -> 85.0 - (y * 170.0 / h) );
+        TileReference tile = TileReference.of( 0, 0, 0 );
+
+        assertEquals( 2, p.getLevelForZoom( 0 ) );
+        Set<Integer> seen = new HashSet<>();
+        index.dataStream( p, 0, tile ).forEach( c -> {
+            assertEquals( 0, c.getX() % 4 );
+            assertEquals( 0, c.getY() % 4 );
+            assertEquals( g.getValue( c.getX(), c.getY() ), c.getValue(), 0.0 );
+            assertTrue( seen.add( (c.getY() * w) + c.getX() ) );
+        } );
+        assertEquals( (w / 4) * (h / 4), seen.size() );
+
+        int count[] = new int[1];
+        index.forEachCell( p, 0, tile, ( x, y, v ) -> count[0]++ );
+        assertEquals( seen.size(), count[0] );
+
+        // Zoom 2 needs every column so reads the grid itself
+        TileReference t2 = TileReference.of( 2, 1, 1 );
+        assertEquals( index.dataStream( g, 2, t2 ).count(), index.dataStream( p, 2, t2 ).count() );
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import onl.area51.mapgen.util.tile.TileReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridResamplerTest
+{
+
+    private static final int W = 360;
+    private static final int H = 181;
+
+    private static Grid grid()
+    {
+        double a[] = new double[W * H];
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                a[(y * W) + x] = x + (1000 * y);
+            }
+        }
+        return Grid.of( a, W, H );
+    }
+
+    @Test
+    public void sample()
+    {
+        Grid g = grid();
+        assertEquals( 2002, g.sample( 2, 2 ), 1e-9 );
+        assertEquals( 2502.5, g.sample( 2.5, 2.5 ), 1e-9 );
+        assertEquals( 3003, g.sample( 2.6, 2.6, Interpolation.NEAREST ), 0.0 );
+        // Cubic reproduces a linear field exactly
+        assertEquals( 2502.5, g.sample( 2.5, 2.5, Interpolation.BICUBIC ), 1e-9 );
+    }
+
+    /**
+     * Test the tile tables give the same result as sampling each pixel directly
+     */
+    @Test
+    public void resampleToTile()
+    {
+        Grid g = grid();
+        GridGeometry geometry = GridGeometry.global( 0, W, H );
+        TileReference tile = TileReference.of( 3, 5, 2 );
+        double scale = 256.0 * 8;
+        for( Interpolation i : Interpolation.values() ) {
+            double v[] = g.resampleToTile( tile, geometry, i );
+            assertEquals( 256 * 256, v.length );
+            for( int py = 0; py < 256; py += 51 ) {
+                double φ = Math.toDegrees( Math.atan( Math.sinh( Math.PI - (2.0 * Math.PI * (2 * 256 + py + 0.5)) / scale ) ) );
+                for( int px = 0; px < 256; px += 51 ) {
+                    double λ = ((5 * 256 + px + 0.5) / scale * 360.0) - 180.0;
+                    assertEquals( g.sample( geometry.getX( λ ), geometry.getY( φ ), i ), v[(py * 256) + px], 1e-6 );
+                }
+            }
+        }
+    }
+
+    /**
+     * A grid which is not dense is read directly, only the cells the tile needs, and gives the same result
+     */
+    @Test
+    public void notDense()
+    {
+        Grid dense = grid();
+        AtomicInteger reads = new AtomicInteger();
+        Grid g = Grid.of( ( x, y ) -> {
+            reads.incrementAndGet();
+            return dense.getValue( x, y );
+        }, W, H );
+        assertFalse( g instanceof DenseGrid );
+
+        GridGeometry geometry = GridGeometry.global( 0, W, H );
+        TileReference tile = TileReference.of( 3, 5, 2 );
+        assertArrayEquals( dense.resampleToTile( tile, geometry, Interpolation.BILINEAR ),
+                           g.resampleToTile( tile, geometry, Interpolation.BILINEAR ), 0.0 );
+        assertTrue( reads.get() < (W * H) / 10 );
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridStatisticsTest
+{
+
+    private static final int W = 500;
+    private static final int H = 400;
+
+    /**
+     * Test the parallel calculation agrees with a simple sequential one
+     */
+    @Test
+    public void moments()
+    {
+        double a[] = IntStream.range( 0, W * H ).mapToDouble( i -> Math.sin( i / 1000.0 ) * 100.0 + 273.15 ).toArray();
+        GridStatistics s = GridStatistics.calculate( Grid.of( a, W, H ) );
+
+        DoubleSummaryStatistics e = IntStream.range( 0, a.length ).mapToDouble( i -> a[i] ).summaryStatistics();
+        assertEquals( e.getCount(), s.getCount() );
+        assertEquals( e.getMin(), s.getMin(), 0.0 );
+        assertEquals( e.getMax(), s.getMax(), 0.0 );
+        assertEquals( e.getAverage(), s.getAverage(), 1e-9 );
+        assertEquals( e.getSum(), s.getSum(), 1e-6 );
+
+        double m = e.getAverage();
+        double v = IntStream.range( 0, a.length ).mapToDouble( i -> (a[i] - m) * (a[i] - m) ).sum() / a.length;
+        assertEquals( Math.sqrt( v ), s.getStandardDeviation(), 1e-9 );
+    }
+
+    /**
+     * Test NaN and missing values are excluded but counted
+     */
+    @Test
+    public void missing()
+    {
+        double a[] = {1, 2, Double.NaN, 3, 1.0E+20, 4};
+        GridStatistics s = GridStatistics.calculate( Grid.of( a, 3, 2 ) );
+        assertEquals( 4, s.getCount() );
+        assertEquals( 1, s.getNaNCount() );
+        assertEquals( 1, s.getMissingCount() );
+        assertEquals( 1.0, s.getMin(), 0.0 );
+        assertEquals( 4.0, s.getMax(), 0.0 );
+    }
+
+    @Test
+    public void percentile()
+    {
+        double a[] = IntStream.rangeClosed( 0, 10000 ).mapToDouble( i -> i ).toArray();
+        GridStatistics s = GridStatistics.calculate( Grid.of( a, 10001, 1 ) );
+        assertEquals( 5000.0, s.getMedian(), 10.0 );
+        assertEquals( 9000.0, s.getPercentile( 90 ), 10.0 );
+
+        long h[] = s.getHistogram( 4 );
+        assertEquals( 4, h.length );
+        assertEquals( 10001, h[0] + h[1] + h[2] + h[3] );
+    }
+
+    /**
+     * Test the statistics are cached against the grid
+     */
+    @Test
+    public void cached()
+    {
+        Grid g = Grid.of( new double[]{1, 2, 3, 4}, 2, 2 );
+        assertSame( g.getStatistics(), GridStatistics.of( g ) );
+    }
+
+    /**
+     * Invalidating a grid removes everything cached against it, not just its statistics
+     */
+    @Test
+    public void invalidate()
+    {
+        DoubleGrid g = DenseGrid.of( new double[]{1, 2, 3, 4}, 2, 2 );
+        GridStatistics s = g.getStatistics();
+        GridBlockIndex i = GridBlockIndex.of( g );
+        SummedAreaTable t = g.getSummedAreaTable();
+        GridPyramid p = GridPyramid.of( g, GridPyramid.Reduction.MEAN );
+        assertSame( i, GridBlockIndex.of( g ) );
+        assertSame( p, GridPyramid.of( g, GridPyramid.Reduction.MEAN ) );
+
+        g.setValue( 1, 1, 8 );
+        GridStatistics.invalidate( g );
+        assertNotSame( s, g.getStatistics() );
+        assertNotSame( i, GridBlockIndex.of( g ) );
+        assertNotSame( t, g.getSummedAreaTable() );
+        assertNotSame( p, GridPyramid.of( g, GridPyramid.Reduction.MEAN ) );
+        assertEquals( 8.0, g.getStatistics().getMax(), 0.0 );
+        assertEquals( 8.0, GridBlockIndex.of( g ).getMax( 0, 0 ), 0.0 );
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import onl.area51.mapgen.util.tile.TileReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class GridTileIndexTest
+{
+
+    // A global quarter degree grid
+    private static final int W = 1440;
+    private static final int H = 721;
+
+    private static double normalise( double λ )
+    {
+        return λ < 0.0 ? λ + 360.0 : λ;
+    }
+
+    /**
+     * A global grid whose first column is at the longitude start, rows from 90N
+     */
+    private static GridTileIndex global( double start )
+    {
+        return GridTileIndex.of( W, H, x -> normalise( start + (x * 0.25) ), y -> 90.0 - (y * 0.25) );
+    }
+
+    private static int count( GridTileIndex index, Grid grid, TileReference tile )
+    {
+        int n[] = new int[1];
+        index.forEachCell( grid, tile, ( x, y, v ) -> n[0]++ );
+        return n[0];
+    }
+
+    /**
+     * At zoom 0 the single tile covers every column and the rows within the Mercator latitude limit
+     */
+    @Test
+    public void zoom0()
+    {
+        GridTileIndex index = global( 0 );
+        assertArrayEquals( new int[]{0, W}, index.getColumns( 0, 0 ) );
+        // 85.0N is row 20, 85.0S row 700
+        assertArrayEquals( new int[]{20, 701}, index.getRows( 0, 0 ) );
+
+        TileReference tile = TileReference.of( 0, 0, 0 );
+        assertTrue( index.intersects( tile ) );
+        Grid g = Grid.of( ( x, y ) -> 0.0, W, H );
+        assertEquals( W * 681, count( index, g, tile ) );
+        assertEquals( W * 681L, index.dataStream( g, 0, tile ).count() );
+    }
+
+    /**
+     * A tile which spans the seam of a grid starting at 10W covers two runs of columns, one at each edge of the grid, which are still visited in
+     * row-major order
+     */
+    @Test
+    public void seam()
+    {
+        GridTileIndex index = global( -10 );
+        // Tile 3 at zoom 3 spans 45W to 0, columns 0..39 being 10W to 0 and 1300..1439 45W to 10W
+        int cols[] = index.getColumns( 3, 3 );
+        assertArrayEquals( new int[]{0, 40, 1300, W}, cols );
+        assertTrue( GridTileIndex.contains( cols, 0 ) );
+        assertTrue( GridTileIndex.contains( cols, 1439 ) );
+        assertFalse( GridTileIndex.contains( cols, 40 ) );
+        assertFalse( GridTileIndex.contains( cols, 1299 ) );
+
+        // Its neighbour to the east is a single run starting at 0
+        assertArrayEquals( new int[]{40, 220}, index.getColumns( 3, 4 ) );
+
+        Grid g = Grid.of( ( x, y ) -> (y * W) + x, W, H );
+        TileReference tile = TileReference.of( 3, 3, 3 );
+        int rows[] = index.getRows( 3, 3 );
+        int n = 0;
+        for( int j = 0; j < rows.length; j += 2 ) {
+            n += rows[j + 1] - rows[j];
+        }
+        assertEquals( n * 180, count( index, g, tile ) );
+
+        double v[] = index.dataStream( g, 3, tile ).mapToDouble( GridDataPoint::getValue ).toArray();
+        assertEquals( n * 180, v.length );
+        double sorted[] = v.clone();
+        Arrays.sort( sorted );
+        assertArrayEquals( sorted, v, 0.0 );
+        assertEquals( "0,1,38,39,1300,1301", index.dataStream( g, 3, tile )
+                      .limit( 180 )
+                      .mapToInt( GridPoint::getX )
+                      .filter( x -> x < 2 || (x > 37 && x < 40) || (x > 1299 && x < 1302) )
+                      .mapToObj( Integer::toString )
+                      .collect( Collectors.joining( "," ) ) );
+    }
+
+    /**
+     * A tile which misses a regional grid covers nothing
+     */
+    @Test
+    public void outside()
+    {
+        // 10E to 20E and 50N to 40N at 0.1 degrees
+        GridTileIndex index = GridTileIndex.of( 100, 100, x -> 10.0 + (x * 0.1), y -> 50.0 - (y * 0.1) );
+        Grid g = Grid.of( ( x, y ) -> 1.0, 100, 100 );
+
+        // West of the grid
+        TileReference west = TileReference.of( 3, 0, 2 );
+        assertEquals( 0, index.getColumns( 3, 0 ).length );
+        assertFalse( index.intersects( west ) );
+        assertEquals( 0, count( index, g, west ) );
+        assertEquals( 0, index.dataStream( g, 3, west ).count() );
+
+        // Right longitude but south of the grid
+        TileReference south = TileReference.of( 3, 4, 6 );
+        assertTrue( index.getColumns( 3, 4 ).length > 0 );
+        assertEquals( 0, index.getRows( 3, 6 ).length );
+        assertFalse( index.intersects( south ) );
+        assertEquals( 0, count( index, g, south ) );
+
+        // The zoom 2 tile containing it covers every cell
+        TileReference in = TileReference.of( 2, 2, 1 );
+        assertTrue( index.intersects( in ) );
+        assertEquals( 100 * 100, count( index, g, in ) );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class MappedGridTest
+{
+
+    /**
+     * Test a grid survives being written and mapped back in
+     *
+     * @throws IOException
+     */
+    @Test
+    public void writeAndOpen()
+            throws IOException
+    {
+        Grid g = Grid.of( ( x, y ) -> (y * 100) + x + 0.5, 37, 11 );
+        Path p = Files.createTempFile( "grid", ".grd" );
+        try {
+            MappedGrid m = MappedGrid.create( g, p );
+            assertEquals( 37, m.getWidth() );
+            assertEquals( 11, m.getHeight() );
+            for( int y = 0; y < 11; y++ ) {
+                for( int x = 0; x < 37; x++ ) {
+                    assertEquals( g.getValue( x, y ), m.getValue( x, y ), 0.0 );
+                }
+            }
+
+            double row[] = m.getRow( 5, new double[37] );
+            assertEquals( 512.5, row[12], 0.0 );
+        }
+        finally {
+            Files.deleteIfExists( p );
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notAGrid()
+            throws IOException
+    {
+        Path p = Files.createTempFile( "grid", ".grd" );
+        try {
+            Files.write( p, "this is not a grid file".getBytes() );
+            MappedGrid.open( p );
+        }
+        finally {
+            Files.deleteIfExists( p );
+        }
+    }
+}
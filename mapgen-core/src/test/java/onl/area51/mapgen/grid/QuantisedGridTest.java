@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class QuantisedGridTest
+{
+
+    private static final int W = 50;
+    private static final int H = 20;
+
+    private static DenseGrid grid()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = 250.0 + Math.sin( i * 0.01 ) * 40.0;
+        }
+        a[17] = Double.NaN;
+        return DenseGrid.of( a, W, H );
+    }
+
+    /**
+     * Test every value is within the quantisation error and missing values survive
+     */
+    @Test
+    public void encode()
+    {
+        DenseGrid src = grid();
+        for( QuantisedGrid.Precision p : QuantisedGrid.Precision.values() ) {
+            QuantisedGrid q = QuantisedGrid.encode( src, p );
+            assertEquals( p, q.getPrecision() );
+            double row[] = new double[W];
+            for( int y = 0; y < H; y++ ) {
+                q.getRow( y, row );
+                for( int x = 0; x < W; x++ ) {
+                    double v = src.getValue( x, y );
+                    if( Double.isNaN( v ) ) {
+                        assertTrue( Double.isNaN( q.getValue( x, y ) ) );
+                        assertTrue( Double.isNaN( row[x] ) );
+                    }
+                    else {
+                        assertEquals( v, q.getValue( x, y ), q.getMaxError() + 1e-9 );
+                        assertEquals( q.getValue( x, y ), row[x], 0.0 );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void constant()
+    {
+        QuantisedGrid q = QuantisedGrid.encode( DenseGrid.of( new double[]{5, 5, 5, 5}, 2, 2 ) );
+        assertEquals( 5, q.getValue( 1, 1 ), 0.0 );
+    }
+
+    /**
+     * Every code is a value, missing values coming only from the mask
+     */
+    @Test
+    public void of()
+    {
+        QuantisedGrid q = QuantisedGrid.of( new short[]{0, 10, (short) 0xffff, 2}, 2, 2, 100.0, 0.5 );
+        assertNull( q.getMask() );
+        assertEquals( 105, q.getValue( 1, 0 ), 0.0 );
+        assertEquals( 100 + (0xffff * 0.5), q.getValue( 0, 1 ), 0.0 );
+
+        GridMask mask = GridMask.of( new boolean[]{true, false, true, true}, 2, 2 );
+        q = QuantisedGrid.of( new short[]{0, 10, (short) 0xffff, 2}, mask, 2, 2, 100.0, 0.5 );
+        assertSame( mask, q.getMask() );
+        assertTrue( Double.isNaN( q.getValue( 1, 0 ) ) );
+        assertEquals( 100 + (0xffff * 0.5), q.getValue( 0, 1 ), 0.0 );
+        assertArrayEquals( new double[]{100, Double.NaN}, q.getRow( 0, new double[2] ), 0.0 );
+
+        q = QuantisedGrid.of( new byte[]{0, (byte) 0xff, 1, 2}, 2, 2, 0.0, 1.0 );
+        assertEquals( 255, q.getValue( 1, 0 ), 0.0 );
+    }
+
+    /**
+     * Only a grid with missing values is given a mask, otherwise the full range of codes is used
+     */
+    @Test
+    public void mask()
+    {
+        assertNotNull( QuantisedGrid.encode( grid() ).getMask() );
+        assertEquals( 1, W * H - QuantisedGrid.encode( grid() ).getMask().getValidCount() );
+
+        QuantisedGrid q = QuantisedGrid.encode( DenseGrid.of( new double[]{0, 1, 2, 3}, 2, 2 ), QuantisedGrid.Precision.BYTE );
+        assertNull( q.getMask() );
+        assertEquals( 255, q.getCode( 1, 1 ) );
+        assertEquals( 3, q.getValue( 1, 1 ), 0.0 );
+    }
+}
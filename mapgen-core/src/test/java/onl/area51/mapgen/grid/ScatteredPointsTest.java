@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ScatteredPointsTest
+{
+
+    private static final int N = 500;
+    private static final int W = 40;
+    private static final int H = 30;
+
+    /**
+     * Test the tree gives the same results as checking every point
+     */
+    @Test
+    public void bruteForce()
+    {
+        Random r = new Random( 1 );
+        double x[] = new double[N], y[] = new double[N], v[] = new double[N];
+        for( int i = 0; i < N; i++ ) {
+            x[i] = r.nextDouble() * W;
+            y[i] = r.nextDouble() * H;
+            v[i] = r.nextDouble();
+        }
+        ScatteredPoints p = ScatteredPoints.of( x, y, v );
+        assertEquals( N, p.size() );
+        DoubleGrid idw = p.idw( W, H, 2.5, 2 );
+        DoubleGrid nearest = p.nearest( W, H, 100 );
+        for( int cy = 0; cy < H; cy++ ) {
+            for( int cx = 0; cx < W; cx++ ) {
+                double s = 0, ws = 0, best = Double.POSITIVE_INFINITY, bv = Double.NaN;
+                for( int i = 0; i < N; i++ ) {
+                    double dx = x[i] - cx, dy = y[i] - cy, d2 = dx * dx + dy * dy;
+                    if( d2 <= 2.5 * 2.5 ) {
+                        s += v[i] / d2;
+                        ws += 1 / d2;
+                    }
+                    if( d2 < best ) {
+                        best = d2;
+                        bv = v[i];
+                    }
+                }
+                assertEquals( ws > 0 ? s / ws : Double.NaN, idw.getValue( cx, cy ), 1e-9 );
+                assertEquals( bv, nearest.getValue( cx, cy ), 0.0 );
+            }
+        }
+    }
+
+    @Test
+    public void exact()
+    {
+        ScatteredPoints p = ScatteredPoints.of( new double[]{1, 3}, new double[]{1, 1}, new double[]{10, 20} );
+        DoubleGrid g = p.idw( 5, 3, 1.5, 2 );
+        assertEquals( 10, g.getValue( 1, 1 ), 0.0 );
+        assertEquals( 15, g.getValue( 2, 1 ), 1e-9 );
+        assertFalse( Double.isNaN( g.getValue( 4, 2 ) ) );
+        assertTrue( Double.isNaN( p.nearest( 5, 3, 0.5 ).getValue( 2, 1 ) ) );
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class SparseGridTest
+{
+
+    private static final int W = 50;
+    private static final int H = 40;
+
+    /**
+     * Test random sets and removes against a map
+     */
+    @Test
+    public void random()
+    {
+        SparseGrid g = SparseGrid.create( W, H, -1.0 );
+        Map<Integer, Double> expected = new HashMap<>();
+        Random r = new Random( 1 );
+        for( int n = 0; n < 5000; n++ ) {
+            int x = r.nextInt( W ), y = r.nextInt( H );
+            if( r.nextInt( 3 ) == 0 ) {
+                assertEquals( expected.remove( (y * W) + x ) != null, g.remove( x, y ) );
+            }
+            else {
+                g.setValue( x, y, n );
+                expected.put( (y * W) + x, (double) n );
+            }
+        }
+        assertEquals( expected.size(), g.size() );
+        for( int y = 0; y < H; y++ ) {
+            for( int x = 0; x < W; x++ ) {
+                Double v = expected.get( (y * W) + x );
+                assertEquals( v == null ? -1.0 : v, g.getValue( x, y ), 0.0 );
+            }
+        }
+
+        Map<Integer, Double> visited = new HashMap<>();
+        g.forEachPopulated( ( x, y, v ) -> visited.put( (y * W) + x, v ) );
+        assertEquals( expected, visited );
+
+        // Every cell is visited whether populated or not
+        int count[] = new int[1];
+        g.forEachCell( ( x, y, v ) -> {
+            assertEquals( g.getValue( x, y ), v, 0.0 );
+            count[0]++;
+        } );
+        assertEquals( W * H, count[0] );
+    }
+
+    @Test
+    public void add()
+    {
+        SparseGrid g = SparseGrid.create( W, H );
+        assertTrue( Double.isNaN( g.getValue( 3, 4 ) ) );
+        g.add( 3, 4, 1 );
+        g.add( 3, 4, 1 );
+        assertEquals( 2.0, g.getValue( 3, 4 ), 0.0 );
+        assertEquals( 1, g.size() );
+    }
+
+    @Test( expected = IndexOutOfBoundsException.class )
+    public void outOfBounds()
+    {
+        SparseGrid.create( W, H ).setValue( W, 0, 1.0 );
+    }
+
+    /**
+     * Test reads outside the grid fail rather than matching a populated cell, as column -1 would otherwise pack to the empty key
+     */
+    @Test
+    public void readOutOfBounds()
+    {
+        SparseGrid g = SparseGrid.create( W, H, -1.0 );
+        g.setValue( 0, 0, 5.0 );
+        for( int p[]: new int[][]{{-1, 0}, {W, 0}, {0, -1}, {0, H}} ) {
+            try {
+                g.getValue( p[0], p[1] );
+                fail( "Read " + p[0] + "," + p[1] );
+            }
+            catch( IndexOutOfBoundsException ex ) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package onl.area51.mapgen.grid;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class SummedAreaTableTest
+{
+
+    private static final int W = 130;
+    private static final int H = 40;
+
+    private static Grid grid()
+    {
+        double a[] = new double[W * H];
+        for( int i = 0; i < a.length; i++ ) {
+            a[i] = 1000.0 + (i % 17) * 0.25;
+        }
+        a[W + 3] = Double.NaN;
+        return Grid.of( a, W, H );
+    }
+
+    /**
+     * Test rectangles against summing each cell
+     */
+    @Test
+    public void mean()
+    {
+        Grid g = grid();
+        SummedAreaTable t = g.getSummedAreaTable();
+        assertSame( t, SummedAreaTable.of( g ) );
+        int r[][] = {{0, 0, W, H}, {2, 1, 5, 3}, {70, 10, 129, 39}, {3, 1, 4, 2}};
+        for( int[] q: r ) {
+            double s = 0;
+            int n = 0;
+            for( int y = q[1]; y < q[3]; y++ ) {
+                for( int x = q[0]; x < q[2]; x++ ) {
+                    double v = g.getValue( x, y );
+                    if( !Double.isNaN( v ) ) {
+                        s += v;
+                        n++;
+                    }
+                }
+            }
+            assertEquals( n, t.count( q[0], q[1], q[2], q[3] ) );
+            assertEquals( s, t.sum( q[0], q[1], q[2], q[3] ), 1e-6 );
+            if( n == 0 ) {
+                assertTrue( Double.isNaN( t.mean( q[0], q[1], q[2], q[3] ) ) );
+            }
+            else {
+                assertEquals( s / n, t.mean( q[0], q[1], q[2], q[3] ), 1e-9 );
+            }
+        }
+    }
+
+    @Test
+    public void clipped()
+    {
+        SummedAreaTable t = SummedAreaTable.create( grid() );
+        assertEquals( t.count( 0, 0, W, H ), t.count( -5, -5, W + 5, H + 5 ) );
+        assertEquals( 0, t.count( 10, 10, 10, 20 ) );
+    }
+}